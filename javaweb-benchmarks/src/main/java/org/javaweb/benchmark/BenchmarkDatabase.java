@@ -0,0 +1,105 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 基准测试使用的SQLite数据库,每个基准测试使用独立的临时数据库文件
+ *
+ * @author yz
+ */
+public class BenchmarkDatabase {
+
+	private static final String CREATE_TABLE_SQL = "create table benchmark_user (" +
+			"id integer primary key autoincrement, user_name varchar(64), age int, score double, " +
+			"login_count bigint, email varchar(128), remark varchar(255))";
+
+	private static final String INSERT_SQL = "insert into benchmark_user " +
+			"(user_name, age, score, login_count, email, remark) values (?, ?, ?, ?, ?, ?)";
+
+	private final File file;
+
+	public BenchmarkDatabase() throws IOException {
+		this.file = File.createTempFile("javaweb-benchmark", ".db");
+		this.file.deleteOnExit();
+	}
+
+	public Connection getConnection() throws SQLException {
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			throw new SQLException(e.toString());
+		}
+
+		return DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+	}
+
+	/**
+	 * 创建benchmark_user表并写入rows条测试数据
+	 *
+	 * @param connection
+	 * @param rows
+	 * @throws SQLException
+	 */
+	public static void createUsers(Connection connection, int rows) throws SQLException {
+		Statement statement = connection.createStatement();
+
+		try {
+			statement.execute("drop table if exists benchmark_user");
+			statement.execute(CREATE_TABLE_SQL);
+		} finally {
+			statement.close();
+		}
+
+		boolean           autoCommit = connection.getAutoCommit();
+		PreparedStatement pstt       = connection.prepareStatement(INSERT_SQL);
+
+		try {
+			connection.setAutoCommit(false);
+			for (int i = 0; i < rows; i++) {
+				pstt.setString(1, "user" + i);
+				pstt.setInt(2, i % 100);
+				pstt.setDouble(3, i * 0.5);
+				pstt.setLong(4, i * 10L);
+				pstt.setString(5, "user" + i + "@javaweb.org");
+				pstt.setString(6, "remark" + i);
+				pstt.addBatch();
+
+				if ((i + 1) % 1000 == 0) {
+					pstt.executeBatch();
+				}
+			}
+
+			pstt.executeBatch();
+			connection.commit();
+		} finally {
+			pstt.close();
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.benchmark;
+
+import org.javaweb.jdbc.annotation.Column;
+import org.javaweb.jdbc.annotation.Table;
+
+/**
+ * 基准测试实体类,对应benchmark_user表
+ *
+ * @author yz
+ */
+@Table(table = "benchmark_user", id = "id")
+public class BenchmarkUser {
+
+	@Column(id = true, name = "id")
+	private Long id;
+
+	@Column(name = "user_name")
+	private String userName;
+
+	@Column(name = "age")
+	private int age;
+
+	@Column(name = "score")
+	private double score;
+
+	@Column(name = "login_count")
+	private Long loginCount;
+
+	@Column(name = "email")
+	private String email;
+
+	@Column(name = "remark")
+	private String remark;
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public void setUserName(String userName) {
+		this.userName = userName;
+	}
+
+	public int getAge() {
+		return age;
+	}
+
+	public void setAge(int age) {
+		this.age = age;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public void setScore(double score) {
+		this.score = score;
+	}
+
+	public Long getLoginCount() {
+		return loginCount;
+	}
+
+	public void setLoginCount(Long loginCount) {
+		this.loginCount = loginCount;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public void setEmail(String email) {
+		this.email = email;
+	}
+
+	public String getRemark() {
+		return remark;
+	}
+
+	public void setRemark(String remark) {
+		this.remark = remark;
+	}
+
+}
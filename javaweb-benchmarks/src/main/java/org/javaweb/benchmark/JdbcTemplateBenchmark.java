@@ -0,0 +1,143 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.benchmark;
+
+import org.javaweb.jdbc.JdbcTemplate;
+import org.javaweb.jdbc.Page;
+import org.javaweb.jdbc.SqlHelp;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JdbcTemplate查询、分页和更新基准测试,使用临时文件中的SQLite数据库。
+ * 关闭了SQLite的同步写盘,测量的是JDBC和映射开销而不是磁盘性能
+ *
+ * @author yz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcTemplateBenchmark {
+
+	private static final String SELECT_SQL = "select * from benchmark_user";
+
+	private static final String PAGE_SQL = "select * from benchmark_user order by id";
+
+	private static final String BATCH_UPDATE_SQL = "update benchmark_user set score = ? where id = ?";
+
+	private static final int PAGE_SIZE = 20;
+
+	/**
+	 * executeBatchUpdate每次执行的参数组数
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	@Param({"1000", "100000"})
+	private int rows;
+
+	private BenchmarkDatabase database;
+
+	private Connection connection;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private BenchmarkUser user;
+
+	private double score;
+
+	@Setup
+	public void setup() throws Exception {
+		database = new BenchmarkDatabase();
+		connection = database.getConnection();
+		Statement statement = connection.createStatement();
+
+		try {
+			statement.execute("pragma synchronous = off");
+		} finally {
+			statement.close();
+		}
+
+		BenchmarkDatabase.createUsers(connection, rows);
+		jdbcTemplate = new JdbcTemplate(connection);
+		user = jdbcTemplate.queryForEntity("select * from benchmark_user where id = ?", BenchmarkUser.class, rows / 2);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		connection.close();
+		database.delete();
+	}
+
+	@Benchmark
+	public List<BenchmarkUser> queryForList() throws Exception {
+		return jdbcTemplate.queryForList(SELECT_SQL, BenchmarkUser.class);
+	}
+
+	/**
+	 * 第一页
+	 */
+	@Benchmark
+	public Page<BenchmarkUser> queryForPageShallow() throws Exception {
+		return jdbcTemplate.queryForPage(PAGE_SQL, BenchmarkUser.class, 1, PAGE_SIZE);
+	}
+
+	/**
+	 * 最后一页,offset接近总行数
+	 */
+	@Benchmark
+	public Page<BenchmarkUser> queryForPageDeep() throws Exception {
+		return jdbcTemplate.queryForPage(PAGE_SQL, BenchmarkUser.class, rows / PAGE_SIZE, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public int updateEntity() throws Exception {
+		user.setScore(score++);
+
+		return jdbcTemplate.update(user);
+	}
+
+	/**
+	 * 在一个事务中批量更新BATCH_SIZE行
+	 */
+	@Benchmark
+	public int[] executeBatchUpdate() throws Exception {
+		List<Object[]> parameters = new ArrayList<Object[]>(BATCH_SIZE);
+
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			parameters.add(new Object[]{score++, i % rows + 1});
+		}
+
+		connection.setAutoCommit(false);
+
+		try {
+			int[] counts = SqlHelp.executeBatchUpdate(connection, BATCH_UPDATE_SQL, parameters);
+			connection.commit();
+
+			return counts;
+		} finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+}
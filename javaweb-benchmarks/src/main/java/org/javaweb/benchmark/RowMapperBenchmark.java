@@ -0,0 +1,168 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.benchmark;
+
+import com.sun.rowset.CachedRowSetImpl;
+import org.javaweb.jdbc.mapper.AsmRowMapperGenerator;
+import org.javaweb.jdbc.mapper.EntityRowMapper;
+import org.javaweb.jdbc.mapper.RowMapper;
+import org.javaweb.jdbc.mapper.RowMapperFactory;
+import org.javaweb.utils.ReflectionUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 实体类映射基准测试,对比原tableMapping的逐行反射映射、预编译反射RowMapper和ASM生成的RowMapper。
+ * 结果集预先缓存到CachedRowSetImpl中,只测量映射本身的开销
+ *
+ * @author yz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+
+	@Param({"1000", "50000"})
+	private int rows;
+
+	private BenchmarkDatabase database;
+
+	private CachedRowSetImpl rowSet;
+
+	private RowMapper<BenchmarkUser> reflectionMapper;
+
+	private RowMapper<BenchmarkUser> asmMapper;
+
+	@Setup
+	public void setup() throws Exception {
+		database = new BenchmarkDatabase();
+		Connection connection = database.getConnection();
+
+		try {
+			BenchmarkDatabase.createUsers(connection, rows);
+			Statement statement = connection.createStatement();
+
+			try {
+				ResultSet rs = statement.executeQuery("select * from benchmark_user");
+				rowSet = new CachedRowSetImpl();
+				rowSet.populate(rs);
+				rs.close();
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+
+		ResultSetMetaData rsm         = rowSet.getMetaData();
+		String[]          columnNames = new String[rsm.getColumnCount()];
+
+		for (int i = 0; i < columnNames.length; i++) {
+			columnNames[i] = rsm.getColumnName(i + 1);
+		}
+
+		EntityRowMapper<BenchmarkUser> mapper = RowMapperFactory.compileReflection(BenchmarkUser.class, columnNames);
+		reflectionMapper = mapper;
+		asmMapper = AsmRowMapperGenerator.generate(mapper);
+
+		if (asmMapper == null) {
+			throw new IllegalStateException("ASM RowMapper生成失败");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		rowSet.close();
+		database.delete();
+	}
+
+	/**
+	 * 原tableMapping实现:每次查询解析实体类,每行每列做列名字符串处理和按列名rs.getObject + Method.invoke
+	 */
+	@Benchmark
+	public void legacyReflection(Blackhole blackhole) throws Exception {
+		rowSet.beforeFirst();
+		ResultSetMetaData   rsm       = rowSet.getMetaData();
+		Map<String, Method> methodMap = ReflectionUtils.getMethodsMap(BenchmarkUser.class);
+		Map<String, Field>  fieldMap  = ReflectionUtils.getAllFieldsMap(BenchmarkUser.class);
+
+		while (rowSet.next()) {
+			BenchmarkUser user = BenchmarkUser.class.newInstance();
+
+			for (int i = 1; i < rsm.getColumnCount() + 1; i++) {
+				String columnName    = rsm.getColumnName(i);
+				String fieldStr      = columnName.toLowerCase().replaceAll("_", "");
+				String setColumnName = "set" + fieldStr;
+
+				if (methodMap.containsKey(setColumnName) && fieldMap.containsKey(fieldStr)) {
+					Method method = methodMap.get(setColumnName);
+
+					if (method.getGenericParameterTypes().length == 1) {
+						Object value = rowSet.getObject(columnName);
+
+						// 原实现对基础类型字段传入不匹配的装箱类型会映射失败,这里按setter参数类型转换保证可比性
+						if (value instanceof Number) {
+							Class<?> type = method.getParameterTypes()[0];
+
+							if (type == int.class) {
+								value = ((Number) value).intValue();
+							} else if (type == double.class) {
+								value = ((Number) value).doubleValue();
+							} else if (type == Long.class) {
+								value = ((Number) value).longValue();
+							}
+						}
+
+						method.invoke(user, value);
+					}
+				}
+			}
+
+			blackhole.consume(user);
+		}
+	}
+
+	@Benchmark
+	public void compiledReflection(Blackhole blackhole) throws Exception {
+		rowSet.beforeFirst();
+
+		while (rowSet.next()) {
+			blackhole.consume(reflectionMapper.mapRow(rowSet));
+		}
+	}
+
+	@Benchmark
+	public void asmGenerated(Blackhole blackhole) throws Exception {
+		rowSet.beforeFirst();
+
+		while (rowSet.next()) {
+			blackhole.consume(asmMapper.mapRow(rowSet));
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.util.Arrays;
+
+/**
+ * 查询结果和总记录数缓存的key,由实体类型、SQL语句、参数值和参数类型组成。参数按值比较(数组按内容比较),
+ * 参数类型不同时(如1和"1")是不同的key
+ *
+ * @author yz
+ */
+public final class CacheKey {
+
+	/**
+	 * 实体类名,总记录数缓存为null
+	 */
+	private final String entityName;
+
+	private final String sql;
+
+	private final Object[] args;
+
+	private final Class<?>[] argTypes;
+
+	private final int hash;
+
+	CacheKey(String entityName, String sql, Object[] args) {
+		this.entityName = entityName;
+		this.sql = sql;
+		this.args = args != null ? args.clone() : new Object[0];
+		this.argTypes = new Class<?>[this.args.length];
+
+		for (int i = 0; i < this.args.length; i++) {
+			argTypes[i] = this.args[i] != null ? this.args[i].getClass() : null;
+		}
+
+		int h = sql.hashCode();
+		h = 31 * h + (entityName != null ? entityName.hashCode() : 0);
+		h = 31 * h + Arrays.deepHashCode(this.args);
+		this.hash = 31 * h + Arrays.hashCode(argTypes);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		} else if (!(o instanceof CacheKey)) {
+			return false;
+		}
+
+		CacheKey key = (CacheKey) o;
+
+		return hash == key.hash && sql.equals(key.sql) &&
+				(entityName != null ? entityName.equals(key.entityName) : key.entityName == null) &&
+				Arrays.equals(argTypes, key.argTypes) && Arrays.deepEquals(args, key.args);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return (entityName != null ? entityName + ":" : "") + sql + (args.length > 0 ? " " + Arrays.deepToString(args) : "");
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 分页总记录数缓存,key为count语句和参数,超过最大数量时淘汰最久未使用的记录,超过有效期的记录在读取时移除
+ *
+ * @author yz
+ */
+public class CountCache {
+
+	private final long ttlMillis;
+
+	private final Map<CacheKey, Entry> cache;
+
+	/**
+	 * @param maxSize   最大缓存数量
+	 * @param ttlMillis 缓存有效期,单位毫秒
+	 */
+	public CountCache(final int maxSize, long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.cache = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * 生成缓存key
+	 *
+	 * @param sql  count语句
+	 * @param args 参数
+	 * @return
+	 */
+	public static CacheKey getCacheKey(String sql, Object... args) {
+		return new CacheKey(null, sql, args);
+	}
+
+	/**
+	 * 获取未过期的总记录数
+	 *
+	 * @param key 缓存key
+	 * @return 总记录数, 未缓存或已过期时返回null
+	 */
+	public synchronized Integer get(CacheKey key) {
+		Entry entry = cache.get(key);
+
+		if (entry == null) {
+			return null;
+		} else if (entry.expireTime <= System.currentTimeMillis()) {
+			cache.remove(key);
+
+			return null;
+		}
+
+		return entry.count;
+	}
+
+	public synchronized void put(CacheKey key, int count) {
+		cache.put(key, new Entry(count, System.currentTimeMillis() + ttlMillis));
+	}
+
+	/**
+	 * 清空缓存,数据发生变化需要立即获取最新总记录数时调用
+	 */
+	public synchronized void clear() {
+		cache.clear();
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	private static class Entry {
+
+		private final int count;
+
+		private final long expireTime;
+
+		Entry(int count, long expireTime) {
+			this.count = count;
+			this.expireTime = expireTime;
+		}
+
+	}
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 分页count语句生成,对简单查询去掉查询字段和ORDER BY后改写成: SELECT count(*) FROM ... WHERE ...,
+ * 包含DISTINCT、GROUP BY、HAVING、UNION、LIMIT、聚合函数或无法识别的语句使用SELECT count(*) FROM ( sql ) rs包装。
+ * 解析时会跳过字符串、带引号的标识符、注释和括号内的子查询,解析结果按SQL语句缓存
+ *
+ * @author yz
+ */
+public final class CountSqlParser {
+
+	/**
+	 * count语句缓存最大数量
+	 */
+	private static final int MAX_CACHE_SIZE = 1024;
+
+	private static final Map<String, String> COUNT_SQL_CACHE = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * 出现在最外层时无法直接改写的关键字
+	 */
+	private static final Set<String> UNSUPPORTED_KEYWORDS = new HashSet<String>(Arrays.asList(
+			"group", "having", "union", "intersect", "except", "minus", "limit", "offset", "fetch",
+			"into", "for", "lock", "window", "connect", "start", "procedure"
+	));
+
+	/**
+	 * 查询字段中出现时结果行数和表记录数不一致的修饰符和聚合函数
+	 */
+	private static final Set<String> UNSUPPORTED_SELECT_WORDS = new HashSet<String>(Arrays.asList(
+			"distinct", "distinctrow", "top", "sql_calc_found_rows", "over",
+			"count", "sum", "avg", "min", "max", "group_concat", "string_agg", "array_agg", "listagg",
+			"bit_and", "bit_or", "bit_xor", "std", "stddev", "stddev_pop", "stddev_samp",
+			"var_pop", "var_samp", "variance", "json_arrayagg", "json_objectagg", "every", "bool_and", "bool_or"
+	));
+
+	private CountSqlParser() {
+
+	}
+
+	/**
+	 * 获取查询语句对应的count语句
+	 *
+	 * @param sql 查询语句
+	 * @return
+	 */
+	public static String getCountSql(String sql) {
+		String countSql;
+
+		synchronized (COUNT_SQL_CACHE) {
+			countSql = COUNT_SQL_CACHE.get(sql);
+		}
+
+		if (countSql == null) {
+			countSql = parseCountSql(sql);
+
+			synchronized (COUNT_SQL_CACHE) {
+				COUNT_SQL_CACHE.put(sql, countSql);
+			}
+		}
+
+		return countSql;
+	}
+
+	/**
+	 * 使用子查询包装的count语句
+	 *
+	 * @param sql 查询语句
+	 * @return
+	 */
+	public static String getWrappedCountSql(String sql) {
+		return "SELECT count(*) FROM ( " + sql + " ) rs";
+	}
+
+	static String parseCountSql(String sql) {
+		SqlTokenizer tokenizer  = new SqlTokenizer(sql);
+		String       token      = tokenizer.next();
+		int          fromIndex  = -1;
+		int          orderIndex = -1;
+
+		if (token == null || !"select".equalsIgnoreCase(token)) {
+			return getWrappedCountSql(sql);
+		}
+
+		while ((token = tokenizer.next()) != null) {
+			// t.order等限定名中的标识符不是关键字
+			int    depth = tokenizer.getDepth();
+			String word  = tokenizer.isQualified() ? "" : token.toLowerCase();
+
+			// 去掉的查询字段和ORDER BY中包含参数时改写后参数位置会变化
+			if ("?".equals(token) && (fromIndex == -1 || orderIndex != -1)) {
+				return getWrappedCountSql(sql);
+			}
+
+			if (fromIndex == -1) {
+				if (UNSUPPORTED_SELECT_WORDS.contains(word)) {
+					return getWrappedCountSql(sql);
+				} else if (depth == 0 && "from".equals(word)) {
+					if (tokenizer.isInExecutableComment()) {
+						return getWrappedCountSql(sql);
+					}
+
+					fromIndex = tokenizer.getTokenStart();
+				} else if (depth == 0 && UNSUPPORTED_KEYWORDS.contains(word)) {
+					return getWrappedCountSql(sql);
+				}
+			} else if (depth == 0) {
+				if (UNSUPPORTED_KEYWORDS.contains(word)) {
+					return getWrappedCountSql(sql);
+				} else if ("order".equals(word) && orderIndex == -1) {
+					// 从原始SQL截取时不能截断MySQL可执行注释
+					if (tokenizer.isInExecutableComment()) {
+						return getWrappedCountSql(sql);
+					}
+
+					orderIndex = tokenizer.getTokenStart();
+				}
+			}
+		}
+
+		if (fromIndex == -1 || tokenizer.isMalformed()) {
+			return getWrappedCountSql(sql);
+		}
+
+		String body = sql.substring(fromIndex, orderIndex != -1 ? orderIndex : sql.length()).trim();
+
+		while (body.endsWith(";")) {
+			body = body.substring(0, body.length() - 1).trim();
+		}
+
+		return "SELECT count(*) " + body;
+	}
+
+	/**
+	 * 清空count语句缓存
+	 */
+	public static void clearCache() {
+		synchronized (COUNT_SQL_CACHE) {
+			COUNT_SQL_CACHE.clear();
+		}
+	}
+
+	/**
+	 * 简单SQL词法分析,返回标识符、关键字、参数占位符和其他单个符号,跳过字符串、带引号的标识符和注释。
+	 * MySQL可执行注释(如: /*!50000 ... *&#47;)中的内容按普通SQL解析,token位置都是原始SQL中的位置
+	 */
+	static class SqlTokenizer {
+
+		private final String sql;
+
+		/**
+		 * 是否把带引号的标识符作为token返回(不含引号),为false时和字符串一样跳过
+		 */
+		private final boolean quotedIdentifiers;
+
+		private int position;
+
+		private int tokenStart;
+
+		/**
+		 * 当前token所在的括号深度
+		 */
+		private int depth;
+
+		private int nextDepth;
+
+		private boolean malformed;
+
+		/**
+		 * 当前是否在MySQL可执行注释中
+		 */
+		private boolean executableComment;
+
+		/**
+		 * 当前token是否紧跟在"."之后,如t.order中的order
+		 */
+		private boolean qualified;
+
+		private String lastToken;
+
+		SqlTokenizer(String sql) {
+			this(sql, false);
+		}
+
+		SqlTokenizer(String sql, boolean quotedIdentifiers) {
+			this.sql = sql;
+			this.quotedIdentifiers = quotedIdentifiers;
+		}
+
+		String next() {
+			int length = sql.length();
+			depth = nextDepth;
+
+			while (position < length) {
+				char c = sql.charAt(position);
+
+				if (Character.isWhitespace(c)) {
+					position++;
+				} else if (c == '-' && position + 1 < length && sql.charAt(position + 1) == '-' ||
+						c == '#') {
+
+					skipLineComment();
+				} else if (c == '/' && position + 2 < length && sql.charAt(position + 1) == '*' &&
+						sql.charAt(position + 2) == '!' && !executableComment) {
+
+					// 跳过可执行注释的开始标记和版本号
+					position += 3;
+					executableComment = true;
+
+					while (position < length && Character.isDigit(sql.charAt(position))) {
+						position++;
+					}
+				} else if (c == '*' && executableComment && position + 1 < length && sql.charAt(position + 1) == '/') {
+					position += 2;
+					executableComment = false;
+				} else if (c == '/' && position + 1 < length && sql.charAt(position + 1) == '*') {
+					skipBlockComment();
+				} else if (c == '\'') {
+					skipQuoted(c);
+				} else if (c == '"' || c == '`' || c == '[') {
+					int start = position + 1;
+					skipQuoted(c == '[' ? ']' : c);
+
+					if (quotedIdentifiers && position > start) {
+						tokenStart = start;
+
+						return token(sql.substring(start, position - 1));
+					}
+				} else if (c == '(') {
+					position++;
+					nextDepth++;
+					depth = nextDepth;
+				} else if (c == ')') {
+					position++;
+					nextDepth--;
+					depth = nextDepth;
+
+					if (nextDepth < 0) {
+						malformed = true;
+					}
+				} else {
+					tokenStart = position;
+
+					if (isWordChar(c)) {
+						while (position < length && isWordChar(sql.charAt(position))) {
+							position++;
+						}
+					} else {
+						position++;
+					}
+
+					return token(sql.substring(tokenStart, position));
+				}
+			}
+
+			if (nextDepth != 0 || executableComment) {
+				malformed = true;
+			}
+
+			return null;
+		}
+
+		private String token(String token) {
+			qualified = ".".equals(lastToken);
+			lastToken = token;
+
+			return token;
+		}
+
+		private void skipLineComment() {
+			int end = sql.indexOf('\n', position);
+			position = end == -1 ? sql.length() : end + 1;
+		}
+
+		private void skipBlockComment() {
+			int end = sql.indexOf("*/", position + 2);
+
+			if (end == -1) {
+				malformed = true;
+				position = sql.length();
+			} else {
+				position = end + 2;
+			}
+		}
+
+		/**
+		 * 跳过字符串或带引号的标识符,支持重复引号和反斜杠转义
+		 */
+		private void skipQuoted(char quote) {
+			int length = sql.length();
+			position++;
+
+			while (position < length) {
+				char c = sql.charAt(position++);
+
+				if (c == '\\' && quote != ']') {
+					position++;
+				} else if (c == quote) {
+					if (position < length && sql.charAt(position) == quote && quote != ']') {
+						position++;
+					} else {
+						return;
+					}
+				}
+			}
+
+			malformed = true;
+		}
+
+		private static boolean isWordChar(char c) {
+			return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+		}
+
+		int getTokenStart() {
+			return tokenStart;
+		}
+
+		int getDepth() {
+			return depth;
+		}
+
+		boolean isMalformed() {
+			return malformed;
+		}
+
+		boolean isQualified() {
+			return qualified;
+		}
+
+		boolean isInExecutableComment() {
+			return executableComment;
+		}
+
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+/**
+ * 分页查询统计总记录数的方式
+ *
+ * @author yz
+ */
+public enum CountStrategy {
+
+	/**
+	 * 每次分页查询前执行count(*)统计总记录数
+	 */
+	EXACT,
+
+	/**
+	 * 不统计总记录数,多查询一行判断是否还有下一页,总记录数为当前已知的最少记录数
+	 */
+	NONE,
+
+	/**
+	 * 按SQL语句和参数缓存count(*)结果,缓存过期前总记录数可能和数据库不一致
+	 */
+	CACHED,
+
+	/**
+	 * 使用两个数据库连接同时执行count(*)和分页查询,使用构造时传入的Connection或在TransactionScope事务范围内时
+	 * 在当前线程中依次执行。count(*)执行失败时抛出SQLException
+	 */
+	PARALLEL
+
+}
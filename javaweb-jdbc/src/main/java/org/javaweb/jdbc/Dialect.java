@@ -0,0 +1,234 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.javaweb.jdbc.mapper.EntityMetadata;
+import org.javaweb.jdbc.mapper.EntityProperty;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 数据库方言,根据JDBC连接的数据库产品名称识别
+ *
+ * @author yz
+ */
+public enum Dialect {
+
+	MYSQL(true, 65535, true),
+
+	SQLITE(true, 999, false),
+
+	POSTGRESQL(true, 32767, true),
+
+	H2(true, 32767, true),
+
+	ORACLE(false, 65535, false),
+
+	SQLSERVER(false, 2100, false),
+
+	UNKNOWN(false, 999, false);
+
+	/**
+	 * 是否支持insert into ... values (...),(...)多行插入语句
+	 */
+	private final boolean multiRowInsert;
+
+	/**
+	 * 单条SQL语句允许的最大绑定参数数量
+	 */
+	private final int maxBindParameters;
+
+	/**
+	 * 批量执行插入语句后getGeneratedKeys()是否返回每一行的自增主键,不支持时只能逐行插入获取主键
+	 */
+	private final boolean batchGeneratedKeys;
+
+	/**
+	 * 实体类的插入或更新语句缓存
+	 */
+	private final ConcurrentMap<Class<?>, String> upsertSqlCache = new ConcurrentHashMap<Class<?>, String>();
+
+	Dialect(boolean multiRowInsert, int maxBindParameters, boolean batchGeneratedKeys) {
+		this.multiRowInsert = multiRowInsert;
+		this.maxBindParameters = maxBindParameters;
+		this.batchGeneratedKeys = batchGeneratedKeys;
+	}
+
+	/**
+	 * 获取JDBC连接对应的数据库方言
+	 *
+	 * @param connection 一个已打开的JDBC 连接
+	 * @return
+	 * @throws SQLException
+	 */
+	public static Dialect of(Connection connection) throws SQLException {
+		return of(connection.getMetaData().getDatabaseProductName());
+	}
+
+	/**
+	 * 根据数据库产品名称获取数据库方言
+	 *
+	 * @param productName DatabaseMetaData.getDatabaseProductName()
+	 * @return
+	 */
+	public static Dialect of(String productName) {
+		String name = productName != null ? productName.toLowerCase() : "";
+
+		if (name.contains("mysql") || name.contains("mariadb")) {
+			return MYSQL;
+		} else if (name.contains("sqlite")) {
+			return SQLITE;
+		} else if (name.contains("postgresql")) {
+			return POSTGRESQL;
+		} else if (name.equals("h2")) {
+			return H2;
+		} else if (name.contains("oracle")) {
+			return ORACLE;
+		} else if (name.contains("microsoft sql server")) {
+			return SQLSERVER;
+		}
+
+		return UNKNOWN;
+	}
+
+	public boolean supportsMultiRowInsert() {
+		return multiRowInsert;
+	}
+
+	public int getMaxBindParameters() {
+		return maxBindParameters;
+	}
+
+	public boolean supportsBatchGeneratedKeys() {
+		return batchGeneratedKeys;
+	}
+
+	/**
+	 * 获取实体类按主键插入或更新的语句,主键已存在时只更新允许更新的字段。语句参数为实体类所有映射字段的值,
+	 * 顺序和EntityMetadata.getProperties()一致。MySQL使用on duplicate key update,SQLite(3.24+)和PostgreSQL使用
+	 * on conflict,H2、Oracle和SQL Server使用merge
+	 *
+	 * @param metadata 实体类映射信息
+	 * @return
+	 * @throws SQLException 实体类未配置主键或数据库不支持
+	 */
+	public String getUpsertSql(EntityMetadata metadata) throws SQLException {
+		String sql = upsertSqlCache.get(metadata.getEntityClass());
+
+		if (sql == null) {
+			sql = buildUpsertSql(metadata);
+			upsertSqlCache.putIfAbsent(metadata.getEntityClass(), sql);
+		}
+
+		return sql;
+	}
+
+	private String buildUpsertSql(EntityMetadata metadata) throws SQLException {
+		String               id        = metadata.requireIdProperty().getColumnName();
+		List<EntityProperty> columns   = metadata.getProperties();
+		List<EntityProperty> updatable = metadata.getUpdatableProperties();
+		StringBuilder        sb        = new StringBuilder();
+
+		switch (this) {
+			case MYSQL:
+				sb.append(metadata.getInsertSql(true)).append(" on duplicate key update ");
+
+				if (updatable.isEmpty()) {
+					sb.append(id).append("=").append(id);
+				}
+
+				for (int i = 0; i < updatable.size(); i++) {
+					String column = updatable.get(i).getColumnName();
+					sb.append(i > 0 ? ", " : "").append(column).append("=values(").append(column).append(")");
+				}
+
+				return sb.toString();
+			case SQLITE:
+			case POSTGRESQL:
+				sb.append(metadata.getInsertSql(true)).append(" on conflict (").append(id).append(") do ");
+
+				if (updatable.isEmpty()) {
+					return sb.append("nothing").toString();
+				}
+
+				sb.append("update set ");
+
+				for (int i = 0; i < updatable.size(); i++) {
+					String column = updatable.get(i).getColumnName();
+					sb.append(i > 0 ? ", " : "").append(column).append("=excluded.").append(column);
+				}
+
+				return sb.toString();
+			case H2:
+			case ORACLE:
+			case SQLSERVER:
+				sb.append("merge into ").append(metadata.getTableName()).append(" t using ");
+
+				if (this == ORACLE) {
+					sb.append("(select ");
+
+					for (int i = 0; i < columns.size(); i++) {
+						sb.append(i > 0 ? ", ? " : "? ").append(columns.get(i).getColumnName());
+					}
+
+					sb.append(" from dual) s");
+				} else {
+					sb.append("(values (");
+
+					for (int i = 0; i < columns.size(); i++) {
+						sb.append(i > 0 ? ", ?" : "?");
+					}
+
+					sb.append(")) s (");
+					appendColumns(sb, columns, "");
+					sb.append(")");
+				}
+
+				sb.append(" on (t.").append(id).append("=s.").append(id).append(")");
+
+				if (!updatable.isEmpty()) {
+					sb.append(" when matched then update set ");
+
+					for (int i = 0; i < updatable.size(); i++) {
+						String column = updatable.get(i).getColumnName();
+						sb.append(i > 0 ? ", " : "").append("t.").append(column).append("=s.").append(column);
+					}
+				}
+
+				sb.append(" when not matched then insert (");
+				appendColumns(sb, columns, "");
+				sb.append(") values (");
+				appendColumns(sb, columns, "s.");
+				sb.append(")");
+
+				// SQL Server的merge语句必须以分号结束
+				return this == SQLSERVER ? sb.append(";").toString() : sb.toString();
+			default:
+				throw new SQLException("数据库" + this + "不支持插入或更新语句.");
+		}
+	}
+
+	private static void appendColumns(StringBuilder sb, List<EntityProperty> columns, String prefix) {
+		for (int i = 0; i < columns.size(); i++) {
+			sb.append(i > 0 ? ", " : "").append(prefix).append(columns.get(i).getColumnName());
+		}
+	}
+
+}
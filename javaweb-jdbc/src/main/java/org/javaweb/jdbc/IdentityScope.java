@@ -0,0 +1,261 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 线程绑定的实体对象身份映射,范围内JdbcTemplate.findByIds按主键查询过的实体对象会被记录,
+ * 再次查询相同主键时直接返回同一个对象而不访问数据库,适合在一次请求的范围内使用:
+ * <pre>
+ * IdentityScope scope = IdentityScope.begin();
+ *
+ * try {
+ *     ...
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * 通过JdbcTemplate写入表时会移除当前范围和所有外层范围中该表的实体对象,其他方式修改数据库后需要调用evict或clear。
+ * 嵌套的范围各自记录查询过的实体对象
+ *
+ * @author yz
+ */
+public class IdentityScope {
+
+	private static final ThreadLocal<IdentityScope> CURRENT = new ThreadLocal<IdentityScope>();
+
+	private final IdentityScope parent;
+
+	/**
+	 * 实体类和按主键索引的实体对象
+	 */
+	private final Map<Class<?>, EntityMap> entities = new HashMap<Class<?>, EntityMap>();
+
+	private boolean closed;
+
+	private IdentityScope(IdentityScope parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * 开始身份映射范围并绑定到当前线程
+	 *
+	 * @return 身份映射范围, 使用完成后必须调用close()
+	 */
+	public static IdentityScope begin() {
+		IdentityScope scope = new IdentityScope(CURRENT.get());
+		CURRENT.set(scope);
+
+		return scope;
+	}
+
+	/**
+	 * 当前线程的身份映射范围
+	 *
+	 * @return 不在范围内时返回null
+	 */
+	public static IdentityScope current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * 外层范围
+	 *
+	 * @return 最外层范围返回null
+	 */
+	IdentityScope getParent() {
+		return parent;
+	}
+
+	/**
+	 * 获取主键对应的实体对象
+	 *
+	 * @param entityClass 实体类
+	 * @param id          主键值
+	 * @param <T>
+	 * @return 未记录时返回null
+	 */
+	public <T> T get(Class<T> entityClass, Object id) {
+		EntityMap map = entities.get(entityClass);
+
+		return map != null ? entityClass.cast(map.byId.get(normalizeId(id))) : null;
+	}
+
+	/**
+	 * 记录实体对象
+	 *
+	 * @param entityClass 实体类
+	 * @param tableName   实体类对应的表名
+	 * @param id          主键值
+	 * @param entity      实体对象
+	 */
+	void put(Class<?> entityClass, String tableName, Object id, Object entity) {
+		EntityMap map = entities.get(entityClass);
+
+		if (map == null) {
+			map = new EntityMap(tableName);
+			entities.put(entityClass, map);
+		}
+
+		map.byId.put(normalizeId(id), entity);
+	}
+
+	/**
+	 * 移除实体类的所有实体对象
+	 *
+	 * @param entityClass 实体类
+	 */
+	public void evict(Class<?> entityClass) {
+		entities.remove(entityClass);
+	}
+
+	/**
+	 * 移除映射到表的所有实体对象
+	 *
+	 * @param tableName 表名
+	 */
+	public void evictTable(String tableName) {
+		for (Iterator<EntityMap> it = entities.values().iterator(); it.hasNext(); ) {
+			if (it.next().tableName.equalsIgnoreCase(tableName)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 移除所有实体对象
+	 */
+	public void clear() {
+		entities.clear();
+	}
+
+	/**
+	 * 记录的实体对象数量
+	 *
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+
+		for (EntityMap map : entities.values()) {
+			size += map.byId.size();
+		}
+
+		return size;
+	}
+
+	/**
+	 * 结束范围,恢复外层范围
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+
+		if (CURRENT.get() != this) {
+			throw new IllegalStateException("身份映射范围必须在创建线程中按嵌套顺序关闭.");
+		}
+
+		closed = true;
+		entities.clear();
+
+		if (parent != null) {
+			CURRENT.set(parent);
+		} else {
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * 统一主键值类型,数据库返回的整数主键可能是Integer或Long,字符串主键保持不变
+	 *
+	 * @param id 主键值
+	 * @return
+	 */
+	static Object normalizeId(Object id) {
+		if (id instanceof Integer || id instanceof Long || id instanceof Short || id instanceof Byte) {
+			return ((Number) id).longValue();
+		} else if (id instanceof BigInteger && ((BigInteger) id).bitLength() < 64) {
+			return ((BigInteger) id).longValue();
+		} else if (id instanceof BigDecimal) {
+			BigDecimal value = ((BigDecimal) id).stripTrailingZeros();
+
+			if (value.scale() <= 0 && value.precision() - value.scale() < 19) {
+				return value.longValue();
+			}
+		}
+
+		return id;
+	}
+
+	/**
+	 * 把主键值转换成实体类主键字段的类型,如Long主键传入字符串"5"时转换成5L,数字传给字符串主键时转换成字符串,
+	 * 无法转换时返回原值
+	 *
+	 * @param id     主键值
+	 * @param idType 主键字段类型
+	 * @return
+	 */
+	static Object convertId(Object id, Class<?> idType) {
+		if (id == null || idType.isInstance(id)) {
+			return id;
+		} else if (idType == String.class) {
+			return id instanceof Number ? id.toString() : id;
+		} else if (!(id instanceof String)) {
+			return id;
+		}
+
+		String str = ((String) id).trim();
+
+		try {
+			if (idType == long.class || idType == Long.class) {
+				return Long.valueOf(str);
+			} else if (idType == int.class || idType == Integer.class) {
+				return Integer.valueOf(str);
+			} else if (idType == short.class || idType == Short.class) {
+				return Short.valueOf(str);
+			} else if (idType == byte.class || idType == Byte.class) {
+				return Byte.valueOf(str);
+			} else if (idType == BigInteger.class) {
+				return new BigInteger(str);
+			} else if (idType == BigDecimal.class) {
+				return new BigDecimal(str);
+			}
+		} catch (NumberFormatException e) {
+			return id;
+		}
+
+		return id;
+	}
+
+	private static class EntityMap {
+
+		private final String tableName;
+
+		private final Map<Object, Object> byId = new HashMap<Object, Object>();
+
+		EntityMap(String tableName) {
+			this.tableName = tableName;
+		}
+
+	}
+
+}
@@ -1,33 +1,115 @@
 package org.javaweb.jdbc;
 
-import org.javaweb.jdbc.annotation.Column;
-import org.javaweb.jdbc.annotation.Table;
+import org.javaweb.jdbc.columnar.ColumnarResult;
 import org.javaweb.jdbc.exception.IncorrectResultSizeDataAccessException;
 import org.javaweb.jdbc.exception.JDBCIDException;
-import org.javaweb.utils.ReflectionUtils;
+import org.javaweb.jdbc.mapper.ColumnIndex;
+import org.javaweb.jdbc.mapper.ColumnValueReader;
+import org.javaweb.jdbc.mapper.DirtyTracker;
+import org.javaweb.jdbc.mapper.EntityMetadata;
+import org.javaweb.jdbc.mapper.EntityProperty;
+import org.javaweb.jdbc.mapper.RowMapper;
+import org.javaweb.jdbc.mapper.RowMapperFactory;
+import org.javaweb.jdbc.metrics.JdbcMetrics;
+import org.javaweb.jdbc.pool.PooledDataSource;
+import org.javaweb.jdbc.routing.RoutingDataSource;
 import org.javaweb.utils.StringUtils;
 
 import javax.sql.DataSource;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by yz on 2017/7/4.
  */
 public class JdbcTemplate {
 
+	/**
+	 * 列式查询和queryForRows每次从数据库读取的行数
+	 */
+	private static final int COLUMNAR_FETCH_SIZE = 1000;
+
+	/**
+	 * findByIds使用的in参数个数,主键按这几个固定大小分组查询,使预编译语句可以复用
+	 */
+	private static final int[] ID_BUCKET_SIZES = {1, 8, 32, 128, 512};
+
 	private DataSource dataSource;
 
 	private Connection connection;
 
+	/**
+	 * 批量写入时每批提交的记录数
+	 */
+	private int batchSize = 1000;
+
+	/**
+	 * 批量插入时是否改写成insert into ... values (...),(...)多行插入语句,仅对支持的数据库生效
+	 */
+	private boolean rewriteBatchedInserts;
+
+	/**
+	 * 分页查询统计总记录数的方式
+	 */
+	private CountStrategy countStrategy = CountStrategy.EXACT;
+
+	/**
+	 * CountStrategy.CACHED方式使用的总记录数缓存
+	 */
+	private CountCache countCache = new CountCache(1024, 60 * 1000);
+
+	/**
+	 * CountStrategy.PARALLEL方式执行count(*)的线程池,未设置时使用默认线程池
+	 */
+	private volatile ExecutorService countExecutor;
+
+	/**
+	 * queryForList、queryForEntity查询结果缓存,默认不缓存。通过当前对象写入数据时按表名失效缓存,
+	 * 开启dirtyTracking时缓存和每次命中返回的都是实体对象副本
+	 */
+	private QueryCache queryCache;
+
+	/**
+	 * 异步查询线程池,未设置时使用getAsyncExecutor()创建的默认线程池
+	 */
+	private volatile ExecutorService asyncExecutor;
+
+	/**
+	 * 默认异步查询线程池的线程数,小于1时使用连接池最大连接数
+	 */
+	private int asyncPoolSize;
+
+	/**
+	 * 默认异步查询线程池的任务队列长度,队列已满时拒绝提交新的异步任务
+	 */
+	private int asyncQueueCapacity = 1000;
+
+	/**
+	 * 实体对象修改跟踪,为null时不跟踪
+	 */
+	private volatile DirtyTracker dirtyTracker;
+
 	public JdbcTemplate(DataSource dataSource) {
 		this.dataSource = dataSource;
 	}
@@ -36,49 +118,100 @@ public class JdbcTemplate {
 		this.connection = connection;
 	}
 
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public boolean isRewriteBatchedInserts() {
+		return rewriteBatchedInserts;
+	}
+
+	public void setRewriteBatchedInserts(boolean rewriteBatchedInserts) {
+		this.rewriteBatchedInserts = rewriteBatchedInserts;
+	}
+
+	public CountStrategy getCountStrategy() {
+		return countStrategy;
+	}
+
+	public void setCountStrategy(CountStrategy countStrategy) {
+		this.countStrategy = countStrategy;
+	}
+
+	public CountCache getCountCache() {
+		return countCache;
+	}
+
+	public void setCountCache(CountCache countCache) {
+		this.countCache = countCache;
+	}
+
+	public ExecutorService getCountExecutor() {
+		return countExecutor;
+	}
+
+	public void setCountExecutor(ExecutorService countExecutor) {
+		this.countExecutor = countExecutor;
+	}
+
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	public void setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	public boolean isDirtyTracking() {
+		return dirtyTracker != null;
+	}
+
 	/**
-	 * 查找实体类中的表主键ID映射
+	 * 设置是否开启实体对象修改跟踪,开启后queryForList等方法查询的@Table实体对象会记录快照,update(Object)只更新变化的字段
 	 *
-	 * @param table    数据库表名
-	 * @param fieldMap 实体类里的所有的字段map
-	 * @return
-	 * @throws JDBCIDException
+	 * @param dirtyTracking 是否开启
 	 */
-	private static String findId(String table, Map<String, Field> fieldMap) throws JDBCIDException {
-		String id = null;
+	public void setDirtyTracking(boolean dirtyTracking) {
+		this.dirtyTracker = dirtyTracking ? new DirtyTracker() : null;
+	}
 
-		for (String fieldName : fieldMap.keySet()) {
-			Field  field  = fieldMap.get(fieldName);
-			Column column = field.getAnnotation(Column.class);
+	public DirtyTracker getDirtyTracker() {
+		return dirtyTracker;
+	}
 
-			if (column != null && column.id()) {
-				if (id == null) {
-					id = fieldName;
-				} else {
-					throw new JDBCIDException(table, fieldName);
-				}
-			}
-		}
+	public int getAsyncPoolSize() {
+		return asyncPoolSize;
+	}
 
-		if (id == null) {
-			throw new JDBCIDException(table);
-		}
-		return id;
+	public void setAsyncPoolSize(int asyncPoolSize) {
+		this.asyncPoolSize = asyncPoolSize;
 	}
 
-	public DataSource getDataSource() {
-		return dataSource;
+	public int getAsyncQueueCapacity() {
+		return asyncQueueCapacity;
+	}
+
+	public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+		this.asyncQueueCapacity = asyncQueueCapacity;
 	}
 
 	/**
-	 * 获取数据库链接对象
+	 * 获取数据库链接对象,当前线程在TransactionScope事务范围内时返回事务链接
 	 *
 	 * @return
 	 */
 	public Connection getConnection() {
 		if (connection == null && dataSource != null) {
 			try {
-				return dataSource.getConnection();
+				return TransactionScope.getConnection(dataSource);
 			} catch (SQLException e) {
 				e.printStackTrace();
 			}
@@ -87,6 +220,72 @@ public class JdbcTemplate {
 		return connection;
 	}
 
+	/**
+	 * 获取执行SQL使用的数据库链接,通过DataSource获取的链接使用完成后必须调用releaseConnection释放。
+	 * 当前线程在TransactionScope事务范围内时使用事务链接,释放事务链接不会关闭链接
+	 *
+	 * @return
+	 * @throws SQLException
+	 */
+	private Connection borrowConnection() throws SQLException {
+		if (connection == null && dataSource != null) {
+			Connection bound = TransactionScope.getBoundConnection(dataSource);
+
+			if (bound != null) {
+				return bound;
+			}
+
+			JdbcMetrics m     = SqlHelp.getMetrics();
+			long        start = m != null ? System.nanoTime() : 0;
+			Connection  conn  = dataSource.getConnection();
+
+			if (m != null) {
+				m.recordConnectionWait(System.nanoTime() - start);
+			}
+
+			return conn;
+		}
+
+		return connection;
+	}
+
+	/**
+	 * 获取查询使用的数据库链接,DataSource为RoutingDataSource时使用从库链接,在事务范围内时使用事务链接
+	 *
+	 * @return
+	 * @throws SQLException
+	 */
+	private Connection borrowReadConnection() throws SQLException {
+		if (connection == null && dataSource instanceof RoutingDataSource && !TransactionScope.isActive(dataSource)) {
+			JdbcMetrics m     = SqlHelp.getMetrics();
+			long        start = m != null ? System.nanoTime() : 0;
+			Connection  conn  = ((RoutingDataSource) dataSource).getReadConnection();
+
+			if (m != null) {
+				m.recordConnectionWait(System.nanoTime() - start);
+			}
+
+			return conn;
+		}
+
+		return borrowConnection();
+	}
+
+	/**
+	 * 释放通过DataSource获取的数据库链接,构造时传入的Connection由调用方自行管理
+	 *
+	 * @param conn 数据库链接
+	 */
+	private void releaseConnection(Connection conn) {
+		if (conn != null && conn != connection) {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * 更新查询
 	 *
@@ -96,13 +295,20 @@ public class JdbcTemplate {
 	 * @throws SQLException
 	 */
 	public int update(String sql, Object... args) throws SQLException {
-		return SqlHelp.executeUpdate(
-				this.getConnection(), sql, args
-		);
+		Connection conn = borrowConnection();
+
+		try {
+			return SqlHelp.executeUpdate(conn, sql, args);
+		} finally {
+			releaseConnection(conn);
+			invalidateCaches(sql);
+		}
 	}
 
 	/**
-	 * 映射数据库表实现更新实体类即可更新对应的表，需要先查询出对应的column信息后update
+	 * 映射数据库表实现更新实体类即可更新对应的表,实体类需要添加@Table注解并配置主键,更新语句按实体类缓存,不会更新主键字段。
+	 * 开启dirtyTracking时,通过当前对象查询或更新过的实体对象只更新和快照不一致的字段,没有字段变化时不访问数据库并返回0。
+	 * 更新到记录时刷新快照,在事务范围内时事务提交后才刷新
 	 *
 	 * @param <T>
 	 * @param obj
@@ -110,206 +316,1086 @@ public class JdbcTemplate {
 	 * @throws Exception
 	 */
 	public <T> int update(Object obj) throws SQLException {
-		Class<T> entityClass = (Class<T>) obj.getClass();
-
-		try {
-			if (entityClass.isAnnotationPresent(Table.class)) {
-				Table               table      = entityClass.getAnnotation(Table.class);
-				StringBuilder       sqlBuilder = new StringBuilder("update ");
-				Map<String, Method> methodMap  = ReflectionUtils.getMethodsMap(entityClass);
-				Map<String, Field>  fieldMap   = ReflectionUtils.getAllFieldsMap(entityClass);
-				String              id         = table.id();// 主键字段名称
-				String              tableName  = table.table();// 表名
-
-				// 如果Table注解没设置主键名则从实体类成员变量中找Column注解中ID=true
-				if (id == null) {
-					id = findId(tableName, fieldMap);
-				}
-
-				Object       idValue = methodMap.get("get" + table.id()).invoke(obj);
-				List<Object> ls      = new ArrayList<Object>();
-
-				if (!StringUtils.isNotEmpty(idValue)) {
-					throw new JDBCIDException("JDBC字段映射异常,数据表[" + table + "]ID值不能为空.");
-				}
+		EntityMetadata metadata = EntityMetadata.of(obj.getClass());
+		Object         idValue  = metadata.requireIdProperty().getValue(obj);
 
-				sqlBuilder.append(tableName).append(" set ").append(id).append("=").append("?");
-				ls.add(idValue);
+		if (!StringUtils.isNotEmpty(idValue)) {
+			throw new JDBCIDException("JDBC字段映射异常,数据表[" + metadata.getTableName() + "]ID值不能为空.");
+		}
 
-				for (String str : fieldMap.keySet()) {
-					String field = str.toLowerCase();
+		DirtyTracker tracker = dirtyTracker;
+		BitSet       changed = tracker != null ? tracker.getChangedProperties(metadata, obj) : null;
+		int          count;
 
-					if (!table.id().equals(field) &&
-							methodMap.containsKey("set" + field) && methodMap.containsKey("get" + field)) {
+		if (changed == null) {
+			if (metadata.getUpdatableProperties().isEmpty()) {
+				return 0;
+			}
 
-						Method  method     = methodMap.get("set" + str);
-						String  columnName = field;
-						boolean updatable  = true;
+			count = update(metadata.getUpdateSql(), metadata.getUpdateParameters(obj));
+		} else if (changed.isEmpty()) {
+			return 0;
+		} else {
+			count = update(metadata.getPartialUpdateSql(changed), metadata.getPartialUpdateParameters(obj, changed));
+		}
 
-						if (method.isAnnotationPresent(Column.class)) {
-							Column column = method.getAnnotation(Column.class);
-							columnName = column.name();
-							updatable = column.updatable();// 是否允许更新
-						}
+		// 快照在更新时生成,事务提交后才记录,事务回滚或没有更新到记录时保留原快照
+		if (tracker != null && count > 0) {
+			final DirtyTracker t        = tracker;
+			final Object       entity   = obj;
+			final Object[]     snapshot = tracker.snapshot(metadata, obj);
 
-						if (updatable) {
-							Method getMethod = methodMap.get("get" + str);
-							sqlBuilder.append(", ").append(columnName).append("=").append("?");
-							ls.add(getMethod.invoke(obj));
-						}
-					}
+			TransactionScope.afterCommit(dataSource, new Runnable() {
+				@Override
+				public void run() {
+					t.track(entity, snapshot);
 				}
+			});
+		}
+
+		return count;
+	}
 
-				sqlBuilder.append(" where ").append(table.id()).append("=").append("? ");
-				ls.add(idValue);
+	/**
+	 * 插入实体对象,实体类需要添加@Table注解。主键值为空时不插入主键字段,插入后把数据库生成的主键写回实体对象
+	 *
+	 * @param entity 实体对象
+	 * @param <T>
+	 * @return 影响行数
+	 * @throws SQLException
+	 */
+	public <T> int insert(T entity) throws SQLException {
+		EntityMetadata metadata = EntityMetadata.of(entity.getClass());
+		Connection     conn     = borrowConnection();
 
+		try {
+			if (!metadata.isIdAbsent(entity)) {
 				return SqlHelp.executeUpdate(
-						this.getConnection(),
-						sqlBuilder.toString(),
-						ls.toArray(new Object[ls.size()])
+						conn, metadata.getInsertSql(true),
+						EntityMetadata.getValues(entity, metadata.getInsertProperties(true))
 				);
-			} else {
-				throw new JDBCIDException("映射实体异常: " + entityClass + "未添加@Table注解.");
 			}
-		} catch (RuntimeException e) {
-			throw e;
-		} catch (Throwable t) {
-			throw new JDBCIDException("映射实体[" + entityClass + "]异常: " + t.toString());
+
+			List<Object> entities = new ArrayList<Object>(1);
+			entities.add(entity);
+
+			return executeInsertWithKeys(conn, false, metadata, entities);
+		} finally {
+			releaseConnection(conn);
+			invalidateCaches(metadata);
 		}
 	}
 
 	/**
-	 * 反射映射数据库表字段到实体层，需要实体层必须包括成员变量和对应的public set方法 如: private int id; 对应public
-	 * void setId(int id);方法 成员变量不考虑大小写，默认会忽略数据库字段下划线。如：user_id 等于userId
+	 * 插入多个实体对象并把数据库生成的主键写回实体对象,实体类需要添加@Table注解。
+	 * 按batchSize分批执行,MySQL、PostgreSQL、H2批量插入后一次读取所有生成的主键,其他数据库逐行插入读取主键。
+	 * 链接处于自动提交模式时每批执行后提交一次,已在事务中的链接由调用方提交
 	 *
+	 * @param entities 实体对象集合,实体类型必须一致
 	 * @param <T>
-	 * @param entityClass 需要返回的实体类类型
-	 * @param sql         参数 sql 查询语句
-	 * @param arr         可变参数，有则传，没有可忽略
-	 * @return
-	 * @throws java.sql.SQLException
+	 * @return 影响行数
+	 * @throws SQLException
 	 */
-	protected <T> List<T> tableMapping(String sql, Class<T> entityClass, Object... arr) throws SQLException {
-		List<T>   ls = new ArrayList<T>();
-		ResultSet rs = null;
+	public <T> int insertAll(Collection<T> entities) throws SQLException {
+		if (entities.isEmpty()) {
+			return 0;
+		}
+
+		EntityMetadata metadata   = EntityMetadata.of(entities.iterator().next().getClass());
+		int            chunkSize  = batchSize < 1 ? 1 : batchSize;
+		List<Object[]> withId     = new ArrayList<Object[]>();
+		List<Object>   withoutId  = new ArrayList<Object>();
+		Connection     conn       = borrowConnection();
+		boolean        autoCommit = conn.getAutoCommit();
+		boolean        success    = false;
+		int            count      = 0;
 
 		try {
-			rs = SqlHelp.executeQuery(connection, sql, arr);
-			ResultSetMetaData   rsm       = rs.getMetaData();
-			Map<String, Method> methodMap = ReflectionUtils.getMethodsMap(entityClass);
-			Map<String, Field>  fieldMap  = ReflectionUtils.getAllFieldsMap(entityClass);
+			boolean batchKeys = Dialect.of(conn).supportsBatchGeneratedKeys();
 
-			while (rs.next()) {
-				try {
-					T c = entityClass.newInstance();
-
-					//反射设值
-					for (int i = 1; i < rsm.getColumnCount() + 1; i++) {
-						String columnName    = rsm.getColumnName(i);
-						String fieldStr      = columnName.toLowerCase().replaceAll("_", "");
-						String setColumnName = "set" + fieldStr;
-
-						if (methodMap.containsKey(setColumnName) && fieldMap.containsKey(fieldStr)) {
-							Method method   = methodMap.get(setColumnName);
-							Type[] types    = method.getGenericParameterTypes();
-							Object objValue = rs.getObject(columnName);
-
-							if (types.length == 1) {
-								try {
-									method.invoke(c, objValue);
-								} catch (IllegalArgumentException e) {
-									throw new SQLException("方法:" + method + ",值:" + objValue + ",映射异常:" + e);
-								}
-							}
-						}
+			if (autoCommit) {
+				conn.setAutoCommit(false);
+			}
+
+			for (T entity : entities) {
+				checkEntityClass(metadata, entity);
+
+				if (metadata.isIdAbsent(entity)) {
+					withoutId.add(entity);
+
+					if (withoutId.size() >= chunkSize) {
+						count += executeInsertWithKeys(conn, batchKeys, metadata, withoutId);
+						commitChunk(conn, autoCommit);
 					}
+				} else {
+					withId.add(EntityMetadata.getValues(entity, metadata.getInsertProperties(true)));
 
-					ls.add(c);
-				} catch (Exception e) {
-					e.printStackTrace();
+					if (withId.size() >= chunkSize) {
+						count += sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, metadata.getInsertSql(true), withId));
+						commitChunk(conn, autoCommit);
+					}
 				}
 			}
-		} catch (SQLException e) {
-			throw e;
-		} finally {
-			if (rs != null) {
-				rs.close();
+
+			if (!withId.isEmpty()) {
+				count += sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, metadata.getInsertSql(true), withId));
 			}
-		}
 
-		return ls;
+			if (!withoutId.isEmpty()) {
+				count += executeInsertWithKeys(conn, batchKeys, metadata, withoutId);
+			}
+
+			commitChunk(conn, autoCommit);
+			success = true;
+
+			return count;
+		} finally {
+			endChunkedTransaction(conn, autoCommit, success, metadata);
+		}
 	}
 
 	/**
-	 * 查询数据库中一条记录并映射成对应的实体类类型 如果查询结果数大于一条抛出数据访问异常
+	 * 插入主键为空的实体对象并把生成的主键写回实体对象,执行后清空entities
 	 *
-	 * @param <T>
-	 * @param sql
-	 * @param entityClass
-	 * @param arr
-	 * @return
-	 * @throws java.sql.SQLException
+	 * @param batchKeys 是否批量执行后一次读取所有生成的主键
 	 */
-	public <T> T queryForEntity(String sql, Class<T> entityClass, Object... arr) throws SQLException {
-		List<T> ls = tableMapping(sql, entityClass, arr);
+	private int executeInsertWithKeys(Connection conn, boolean batchKeys, EntityMetadata metadata,
+	                                  List<Object> entities) throws SQLException {
 
-		if (ls.size() > 1) {
-			throw new IncorrectResultSizeDataAccessException(ls.size());
-		} else if (ls.size() == 1) {
-			return ls.get(0);
+		List<EntityProperty> properties = metadata.getInsertProperties(false);
+		EntityProperty       idProperty = metadata.getIdProperty();
+		String               sql        = metadata.getInsertSql(false);
+		List<Object[]>       parameters = new ArrayList<Object[]>(entities.size());
+		int                  count;
+
+		for (Object entity : entities) {
+			parameters.add(EntityMetadata.getValues(entity, properties));
+		}
+
+		if (idProperty == null) {
+			count = sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, sql, parameters));
 		} else {
-			return null;
+			List<Object> keys = new ArrayList<Object>(entities.size());
+			count = sumUpdateCounts(SqlHelp.executeInsertWithKeys(
+					conn, sql, parameters, batchKeys && entities.size() > 1, getGeneratedKeyMapper(idProperty), keys
+			));
+
+			for (int i = 0; i < keys.size() && i < entities.size(); i++) {
+				if (keys.get(i) != null) {
+					idProperty.setValue(entities.get(i), keys.get(i));
+				}
+			}
 		}
+
+		entities.clear();
+
+		return count;
 	}
 
 	/**
-	 * 查询数据库中任意条记录并映射成对应的实体类集合类型
+	 * 读取getGeneratedKeys()返回的主键,结果集中包含主键字段名时按字段名读取,否则读取第一列
+	 */
+	private static RowMapper<Object> getGeneratedKeyMapper(final EntityProperty idProperty) {
+		final int valueType = ColumnValueReader.getValueType(idProperty.getType());
+
+		return new RowMapper<Object>() {
+			@Override
+			public Object mapRow(ResultSet rs) throws SQLException {
+				ResultSetMetaData metaData = rs.getMetaData();
+				int               index    = 1;
+
+				for (int i = 1; i <= metaData.getColumnCount(); i++) {
+					if (idProperty.getColumnName().equalsIgnoreCase(metaData.getColumnLabel(i))) {
+						index = i;
+						break;
+					}
+				}
+
+				return ColumnValueReader.getValue(rs, index, valueType);
+			}
+		};
+	}
+
+	/**
+	 * 批量插入实体对象,实体类需要添加@Table注解。按batchSize分批执行,链接处于自动提交模式时每批执行后提交一次,
+	 * 已在事务中的链接由调用方提交。主键值为空的实体不插入主键字段,由数据库生成。
+	 * 开启rewriteBatchedInserts时MySQL、SQLite等数据库会改写成多行VALUES插入语句
 	 *
+	 * @param entities 实体对象集合,实体类型必须一致
 	 * @param <T>
-	 * @param sql
-	 * @param entityClass
-	 * @param arr
-	 * @return
+	 * @return 影响行数
+	 * @throws SQLException
 	 */
-	public <T> List<T> queryForList(String sql, Class<T> entityClass, Object... arr) throws SQLException {
-		return tableMapping(sql, entityClass, arr);
-	}
+	public <T> int batchInsert(List<T> entities) throws SQLException {
+		if (entities.isEmpty()) {
+			return 0;
+		}
 
-	public int queryForInteger(String sql, Object... objs) throws SQLException {
-		ResultSet rs = null;
+		EntityMetadata metadata   = EntityMetadata.of(entities.get(0).getClass());
+		int            chunkSize  = batchSize < 1 ? 1 : batchSize;
+		List<Object[]> withId     = new ArrayList<Object[]>();
+		List<Object[]> withoutId  = new ArrayList<Object[]>();
+		Connection     conn       = borrowConnection();
+		boolean        autoCommit = conn.getAutoCommit();
+		boolean        success    = false;
+		int            count      = 0;
 
 		try {
-			rs = SqlHelp.executeQuery(getConnection(), sql, objs);
+			Dialect dialect = Dialect.of(conn);
 
-			if (rs.next()) {
-				return rs.getInt(1);
+			if (autoCommit) {
+				conn.setAutoCommit(false);
 			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		} finally {
-			if (rs != null) {
-				rs.close();
+
+			for (T entity : entities) {
+				checkEntityClass(metadata, entity);
+
+				boolean        includeId = !metadata.isIdAbsent(entity);
+				List<Object[]> rows      = includeId ? withId : withoutId;
+				rows.add(EntityMetadata.getValues(entity, metadata.getInsertProperties(includeId)));
+
+				if (rows.size() >= chunkSize) {
+					count += executeInsertChunk(conn, dialect, metadata, includeId, rows);
+					commitChunk(conn, autoCommit);
+				}
 			}
-		}
 
-		return 0;
+			if (!withId.isEmpty()) {
+				count += executeInsertChunk(conn, dialect, metadata, true, withId);
+			}
+
+			if (!withoutId.isEmpty()) {
+				count += executeInsertChunk(conn, dialect, metadata, false, withoutId);
+			}
+
+			commitChunk(conn, autoCommit);
+			success = true;
+
+			return count;
+		} finally {
+			endChunkedTransaction(conn, autoCommit, success, metadata);
+		}
 	}
 
 	/**
-	 * 分页查询
+	 * 按主键批量更新实体对象所有允许更新的字段,实体类需要添加@Table注解并配置主键。
+	 * 按batchSize分批执行,链接处于自动提交模式时每批执行后提交一次,已在事务中的链接由调用方提交
 	 *
-	 * @param sql
-	 * @param entityClass
-	 * @param pageNum
-	 * @param pageSize
-	 * @param objs
+	 * @param entities 实体对象集合,实体类型必须一致
 	 * @param <T>
-	 * @return
+	 * @return 影响行数
+	 * @throws SQLException
+	 */
+	public <T> int batchUpdate(List<T> entities) throws SQLException {
+		if (entities.isEmpty()) {
+			return 0;
+		}
+
+		EntityMetadata metadata = EntityMetadata.of(entities.get(0).getClass());
+		String         sql      = metadata.getUpdateSql();
+
+		if (metadata.getUpdatableProperties().isEmpty()) {
+			return 0;
+		}
+
+		int            chunkSize  = batchSize < 1 ? 1 : batchSize;
+		List<Object[]> rows       = new ArrayList<Object[]>();
+		Connection     conn       = borrowConnection();
+		boolean        autoCommit = conn.getAutoCommit();
+		boolean        success    = false;
+		int            count      = 0;
+
+		try {
+			if (autoCommit) {
+				conn.setAutoCommit(false);
+			}
+
+			for (T entity : entities) {
+				checkEntityClass(metadata, entity);
+				rows.add(metadata.getUpdateParameters(entity));
+
+				if (rows.size() >= chunkSize) {
+					count += sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, sql, rows));
+					commitChunk(conn, autoCommit);
+				}
+			}
+
+			if (!rows.isEmpty()) {
+				count += sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, sql, rows));
+			}
+
+			commitChunk(conn, autoCommit);
+			success = true;
+
+			return count;
+		} finally {
+			endChunkedTransaction(conn, autoCommit, success, metadata);
+		}
+	}
+
+	/**
+	 * 按主键批量更新实体类所有允许更新的字段,参数由EntityMetadata.getUpdateParameters()生成。
+	 * 分批和提交方式与batchUpdate一致
+	 *
+	 * @param metadata   实体类映射信息
+	 * @param parameters 更新语句参数,不会被修改
+	 * @return 影响行数
+	 * @throws SQLException
+	 */
+	int batchUpdateParameters(EntityMetadata metadata, List<Object[]> parameters) throws SQLException {
+		String sql = metadata.getUpdateSql();
+
+		if (parameters.isEmpty() || metadata.getUpdatableProperties().isEmpty()) {
+			return 0;
+		}
+
+		int        chunkSize  = batchSize < 1 ? 1 : batchSize;
+		Connection conn       = borrowConnection();
+		boolean    autoCommit = conn.getAutoCommit();
+		boolean    success    = false;
+		int        count      = 0;
+
+		try {
+			if (autoCommit) {
+				conn.setAutoCommit(false);
+			}
+
+			for (int i = 0; i < parameters.size(); i += chunkSize) {
+				List<Object[]> rows = new ArrayList<Object[]>(
+						parameters.subList(i, Math.min(i + chunkSize, parameters.size()))
+				);
+
+				count += sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, sql, rows));
+				commitChunk(conn, autoCommit);
+			}
+
+			success = true;
+
+			return count;
+		} finally {
+			endChunkedTransaction(conn, autoCommit, success, metadata);
+		}
+	}
+
+	/**
+	 * 按主键批量插入或更新实体对象,实体类需要添加@Table注解并配置主键,主键值不能为空。
+	 * 使用数据库方言的插入或更新语句(on duplicate key update、on conflict或merge),主键已存在时只更新允许更新的字段,
+	 * 每行只需要一次数据库操作。按batchSize分批执行,链接处于自动提交模式时每批执行后提交一次,已在事务中的链接由调用方提交
+	 *
+	 * @param entities 实体对象集合,实体类型必须一致
+	 * @param <T>
+	 * @return 驱动返回的影响行数,MySQL更新已存在的行时每行计为2
+	 * @throws SQLException
+	 */
+	public <T> int upsertAll(Collection<T> entities) throws SQLException {
+		if (entities.isEmpty()) {
+			return 0;
+		}
+
+		EntityMetadata metadata   = EntityMetadata.of(entities.iterator().next().getClass());
+		int            chunkSize  = batchSize < 1 ? 1 : batchSize;
+		List<Object[]> rows       = new ArrayList<Object[]>();
+		Connection     conn       = borrowConnection();
+		boolean        autoCommit = conn.getAutoCommit();
+		boolean        success    = false;
+		int            count      = 0;
+
+		try {
+			String sql = Dialect.of(conn).getUpsertSql(metadata);
+
+			if (autoCommit) {
+				conn.setAutoCommit(false);
+			}
+
+			for (T entity : entities) {
+				checkEntityClass(metadata, entity);
+
+				if (metadata.isIdAbsent(entity)) {
+					throw new JDBCIDException("JDBC字段映射异常,数据表[" + metadata.getTableName() + "]ID值不能为空.");
+				}
+
+				rows.add(EntityMetadata.getValues(entity, metadata.getProperties()));
+
+				if (rows.size() >= chunkSize) {
+					count += sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, sql, rows));
+					commitChunk(conn, autoCommit);
+				}
+			}
+
+			if (!rows.isEmpty()) {
+				count += sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, sql, rows));
+			}
+
+			commitChunk(conn, autoCommit);
+			success = true;
+
+			return count;
+		} finally {
+			endChunkedTransaction(conn, autoCommit, success, metadata);
+		}
+	}
+
+	/**
+	 * 执行一批插入,执行后清空rows
+	 */
+	private int executeInsertChunk(Connection conn, Dialect dialect, EntityMetadata metadata,
+	                               boolean includeId, List<Object[]> rows) throws SQLException {
+
+		if (!rewriteBatchedInserts || !dialect.supportsMultiRowInsert()) {
+			return sumUpdateCounts(SqlHelp.executeBatchUpdate(conn, metadata.getInsertSql(includeId), rows));
+		}
+
+		int columns          = metadata.getInsertProperties(includeId).size();
+		int rowsPerStatement = Math.max(1, Math.min(rows.size(), dialect.getMaxBindParameters() / Math.max(1, columns)));
+		int count            = 0;
+
+		for (int offset = 0; offset < rows.size(); offset += rowsPerStatement) {
+			int      size       = Math.min(rowsPerStatement, rows.size() - offset);
+			Object[] parameters = new Object[size * columns];
+
+			for (int i = 0; i < size; i++) {
+				System.arraycopy(rows.get(offset + i), 0, parameters, i * columns, columns);
+			}
+
+			count += SqlHelp.executeUpdate(conn, metadata.getMultiRowInsertSql(includeId, size), parameters);
+		}
+
+		rows.clear();
+
+		return count;
+	}
+
+	private static void checkEntityClass(EntityMetadata metadata, Object entity) throws SQLException {
+		if (entity.getClass() != metadata.getEntityClass()) {
+			throw new SQLException("批量写入的实体类型必须一致: " + metadata.getEntityClass() + "," + entity.getClass());
+		}
+	}
+
+	/**
+	 * 统计批量执行的影响行数,驱动返回SUCCESS_NO_INFO时按1行计算
+	 */
+	private static int sumUpdateCounts(int[] counts) {
+		int count = 0;
+
+		for (int c : counts) {
+			if (c > 0) {
+				count += c;
+			} else if (c == Statement.SUCCESS_NO_INFO) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * 分批提交,链接原本不是自动提交模式时由调用方提交
+	 */
+	private static void commitChunk(Connection conn, boolean autoCommit) throws SQLException {
+		if (autoCommit) {
+			conn.commit();
+		}
+	}
+
+	/**
+	 * 结束分批提交,执行失败时回滚当前批次,恢复自动提交并释放链接,失效实体对应表的查询缓存
+	 */
+	private void endChunkedTransaction(Connection conn, boolean autoCommit, boolean success,
+	                                   EntityMetadata metadata) throws SQLException {
+		try {
+			if (autoCommit) {
+				try {
+					if (!success) {
+						conn.rollback();
+					}
+				} finally {
+					conn.setAutoCommit(true);
+				}
+			}
+		} finally {
+			releaseConnection(conn);
+			invalidateCaches(metadata);
+		}
+	}
+
+	/**
+	 * 失效实体对应表的查询缓存和当前线程所有身份映射范围中该表的实体对象
+	 */
+	private void invalidateCaches(final EntityMetadata metadata) {
+		final QueryCache cache = queryCache;
+
+		for (IdentityScope scope = IdentityScope.current(); scope != null; scope = scope.getParent()) {
+			scope.evictTable(metadata.getTableName());
+		}
+
+		if (cache != null) {
+			invalidateQueryCache(new Runnable() {
+				@Override
+				public void run() {
+					cache.invalidate(metadata.getTableName());
+				}
+			});
+		}
+	}
+
+	/**
+	 * 失效SQL写入的表的查询缓存和当前线程所有身份映射范围中该表的实体对象,无法识别写入的表时清空
+	 */
+	private void invalidateCaches(final String sql) {
+		final QueryCache cache = queryCache;
+		IdentityScope    scope = IdentityScope.current();
+
+		if (scope != null) {
+			String tableName = QueryCache.getWriteTableName(sql);
+
+			for (; scope != null; scope = scope.getParent()) {
+				if (tableName != null) {
+					scope.evictTable(tableName);
+				} else {
+					scope.clear();
+				}
+			}
+		}
+
+		if (cache != null) {
+			invalidateQueryCache(new Runnable() {
+				@Override
+				public void run() {
+					cache.invalidateBySql(sql);
+				}
+			});
+		}
+	}
+
+	/**
+	 * 立即失效查询缓存,在事务范围内时事务提交后再次失效,避免其他线程在提交前缓存了旧数据
+	 */
+	private void invalidateQueryCache(Runnable invalidation) {
+		invalidation.run();
+
+		if (TransactionScope.isActive(dataSource)) {
+			TransactionScope.afterCommit(dataSource, invalidation);
+		}
+	}
+
+	/**
+	 * 反射映射数据库表字段到实体层，需要实体层必须包括成员变量和对应的public set方法 如: private int id; 对应public
+	 * void setId(int id);方法 成员变量不考虑大小写，默认会忽略数据库字段下划线。如：user_id 等于userId
+	 *
+	 * @param <T>
+	 * @param entityClass 需要返回的实体类类型
+	 * @param sql         参数 sql 查询语句
+	 * @param arr         可变参数，有则传，没有可忽略
+	 * @return
+	 * @throws java.sql.SQLException
+	 */
+	protected <T> List<T> tableMapping(String sql, Class<T> entityClass, Object... arr) throws SQLException {
+		Connection conn = borrowReadConnection();
+
+		try {
+			return mapRows(conn, sql, entityClass, arr);
+		} finally {
+			releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * 获取实体类的RowMapper,开启dirtyTracking时映射后记录实体对象的快照
+	 */
+	private <T> RowMapper<T> getRowMapper(Class<T> entityClass, ResultSetMetaData metaData) throws SQLException {
+		return getRowMapper(entityClass, metaData, true);
+	}
+
+	/**
+	 * 获取实体类的RowMapper,track为true且开启dirtyTracking时映射后记录实体对象的快照
+	 */
+	private <T> RowMapper<T> getRowMapper(Class<T> entityClass, ResultSetMetaData metaData,
+	                                      boolean track) throws SQLException {
+
+		final RowMapper<T>   rowMapper = RowMapperFactory.getRowMapper(entityClass, metaData);
+		final DirtyTracker   tracker   = track ? dirtyTracker : null;
+		final EntityMetadata metadata  = tracker != null ? DirtyTracker.getTrackableMetadata(entityClass) : null;
+
+		if (metadata == null) {
+			return rowMapper;
+		}
+
+		return new RowMapper<T>() {
+			@Override
+			public T mapRow(ResultSet rs) throws SQLException {
+				T entity = rowMapper.mapRow(rs);
+				tracker.track(metadata, entity);
+
+				return entity;
+			}
+		};
+	}
+
+	/**
+	 * 使用指定的数据库链接执行查询并映射成实体类,不释放链接
+	 */
+	private <T> List<T> mapRows(Connection conn, String sql, Class<T> entityClass, Object... arr) throws SQLException {
+		List<T>   ls = new ArrayList<T>();
+		ResultSet rs = null;
+
+		try {
+			rs = SqlHelp.executeQuery(conn, sql, arr);
+			JdbcMetrics  metrics   = SqlHelp.getMetrics();
+			long         start     = metrics != null ? System.nanoTime() : 0;
+			RowMapper<T> rowMapper = getRowMapper(entityClass, rs.getMetaData());
+
+			while (rs.next()) {
+				try {
+					ls.add(rowMapper.mapRow(rs));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+
+			if (metrics != null) {
+				metrics.recordMapping(sql, System.nanoTime() - start);
+			}
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+		}
+
+		return ls;
+	}
+
+	/**
+	 * 列式查询,每列的值保存在基本类型数组或字典编码的字符串列中,不创建实体对象也不为每行创建包装类型对象,
+	 * 适用于报表等大结果集的统计计算。使用只进游标分批读取,不会缓存整个结果集
+	 *
+	 * @param sql  查询语句
+	 * @param args 查询语句参数
+	 * @return
+	 * @throws SQLException
+	 */
+	public ColumnarResult queryForColumns(String sql, Object... args) throws SQLException {
+		Connection     conn   = borrowReadConnection();
+		ResultSet      rs     = null;
+		ColumnarResult result = null;
+
+		try {
+			rs = SqlHelp.executeStreamQuery(conn, COLUMNAR_FETCH_SIZE, sql, args);
+			result = ColumnarResult.read(rs, Dialect.of(conn) == Dialect.SQLITE);
+
+			return result;
+		} finally {
+			try {
+				SqlHelp.close(rs, result != null ? result.getRowCount() : -1);
+			} finally {
+				releaseConnection(conn);
+			}
+		}
+	}
+
+	/**
+	 * 查询数据库中任意条记录,每行返回一个按列顺序保存字段值的Object[],不需要实体类。
+	 * 所有行共用同一个字段名索引,可以通过RowList.get(row, columnName)按字段名(不区分大小写并忽略下划线)读取
+	 *
+	 * @param sql  查询语句
+	 * @param args 查询语句参数
+	 * @return
+	 * @throws SQLException
+	 */
+	public RowList queryForRows(String sql, Object... args) throws SQLException {
+		Connection     conn = borrowReadConnection();
+		ResultSet      rs   = null;
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		try {
+			rs = SqlHelp.executeStreamQuery(conn, COLUMNAR_FETCH_SIZE, sql, args);
+			ColumnIndex columnIndex = ColumnIndex.of(rs.getMetaData());
+			int         columns     = columnIndex.getColumnCount();
+
+			while (rs.next()) {
+				Object[] row = new Object[columns];
+
+				for (int i = 0; i < columns; i++) {
+					row[i] = rs.getObject(i + 1);
+				}
+
+				rows.add(row);
+			}
+
+			return new RowList(columnIndex, rows);
+		} finally {
+			try {
+				SqlHelp.close(rs, rows.size());
+			} finally {
+				releaseConnection(conn);
+			}
+		}
+	}
+
+	/**
+	 * 查询数据库中一条记录并映射成对应的实体类类型 如果查询结果数大于一条抛出数据访问异常
+	 *
+	 * @param <T>
+	 * @param sql
+	 * @param entityClass
+	 * @param arr
+	 * @return
+	 * @throws java.sql.SQLException
+	 */
+	public <T> T queryForEntity(String sql, Class<T> entityClass, Object... arr) throws SQLException {
+		List<T> ls = cachedTableMapping(sql, entityClass, arr);
+
+		if (ls.size() > 1) {
+			throw new IncorrectResultSizeDataAccessException(ls.size());
+		} else if (ls.size() == 1) {
+			return ls.get(0);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * 查询数据库中任意条记录并映射成对应的实体类集合类型
+	 *
+	 * @param <T>
+	 * @param sql
+	 * @param entityClass
+	 * @param arr
+	 * @return
+	 */
+	public <T> List<T> queryForList(String sql, Class<T> entityClass, Object... arr) throws SQLException {
+		return cachedTableMapping(sql, entityClass, arr);
+	}
+
+	/**
+	 * 按主键批量查询实体对象,实体类需要添加@Table注解并配置主键。主键按固定的几个in参数个数分组查询,
+	 * 不足的参数用最后一个主键补齐,每组参数个数不超过数据库的绑定参数限制,所有分组使用同一个数据库链接。
+	 * 当前线程在IdentityScope范围内时优先返回范围内已查询过的实体对象
+	 *
+	 * @param entityClass 实体类
+	 * @param ids         主键值,按主键字段类型转换后匹配,忽略null和重复的值
+	 * @param <T>
+	 * @return 按主键传入顺序排列的实体对象, 不存在的主键被忽略
+	 * @throws SQLException
+	 */
+	public <T> List<T> findByIds(Class<T> entityClass, Collection<?> ids) throws SQLException {
+		EntityMetadata      metadata   = EntityMetadata.of(entityClass);
+		EntityProperty      idProperty = metadata.requireIdProperty();
+		IdentityScope       scope      = IdentityScope.current();
+		Map<Object, Object> requested  = new LinkedHashMap<Object, Object>();
+		Map<Object, T>      found      = new HashMap<Object, T>();
+		List<Object>        missing    = new ArrayList<Object>();
+
+		for (Object value : ids) {
+			Object id  = IdentityScope.convertId(value, idProperty.getType());
+			Object key = IdentityScope.normalizeId(id);
+
+			if (id == null || requested.containsKey(key)) {
+				continue;
+			}
+
+			requested.put(key, id);
+			T entity = scope != null ? scope.get(entityClass, key) : null;
+
+			if (entity != null) {
+				found.put(key, entity);
+			} else {
+				missing.add(id);
+			}
+		}
+
+		if (!missing.isEmpty()) {
+			Connection conn = borrowReadConnection();
+
+			try {
+				int maxSize = Dialect.of(conn).getMaxBindParameters();
+				int offset  = 0;
+
+				while (offset < missing.size()) {
+					int      remaining = missing.size() - offset;
+					int      size      = getIdBucketSize(remaining, maxSize);
+					int      count     = Math.min(size, remaining);
+					Object[] args      = new Object[size];
+
+					for (int i = 0; i < size; i++) {
+						args[i] = missing.get(offset + Math.min(i, count - 1));
+					}
+
+					for (T entity : mapRows(conn, metadata.getSelectByIdsSql(size), entityClass, args)) {
+						Object key = IdentityScope.normalizeId(idProperty.getValue(entity));
+						found.put(key, entity);
+
+						if (scope != null) {
+							scope.put(entityClass, metadata.getTableName(), key, entity);
+						}
+					}
+
+					offset += count;
+				}
+			} finally {
+				releaseConnection(conn);
+			}
+		}
+
+		List<T> ls = new ArrayList<T>(found.size());
+
+		for (Object key : requested.keySet()) {
+			T entity = found.get(key);
+
+			if (entity != null) {
+				ls.add(entity);
+			}
+		}
+
+		return ls;
+	}
+
+	/**
+	 * 选择能容纳剩余主键的最小分组大小,超过最大分组或绑定参数限制时使用不超过限制的最大分组
+	 */
+	private static int getIdBucketSize(int remaining, int maxBindParameters) {
+		int size = 1;
+
+		for (int bucket : ID_BUCKET_SIZES) {
+			if (bucket > maxBindParameters) {
+				break;
+			}
+
+			size = bucket;
+
+			if (bucket >= remaining) {
+				break;
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * 设置了queryCache时优先从缓存中获取查询结果,返回的集合可以修改,集合中的实体对象和缓存共用,不能修改。
+	 * 开启dirtyTracking时可跟踪的实体对象在放入缓存和命中缓存时复制,每次返回新的实体对象并记录快照,
+	 * 避免一个调用方修改的值和快照影响其他调用方。
+	 * 事务范围内可能读到未提交的数据,RoutingDataSource.pinPrimary()范围内需要读取主库最新数据,都不使用缓存。
+	 * 从从库读取时,引用的表在从库复制延迟(RoutingDataSource.getReplicationLagMillis())内写入过的结果不放入缓存
+	 */
+	private <T> List<T> cachedTableMapping(String sql, Class<T> entityClass, Object... arr) throws SQLException {
+		QueryCache        cache   = queryCache;
+		RoutingDataSource routing = dataSource instanceof RoutingDataSource ? (RoutingDataSource) dataSource : null;
+
+		if (cache == null || TransactionScope.isActive(dataSource) || routing != null && routing.isPinnedToPrimary()) {
+			return tableMapping(sql, entityClass, arr);
+		}
+
+		DirtyTracker   tracker  = dirtyTracker;
+		EntityMetadata metadata = tracker != null ? DirtyTracker.getTrackableMetadata(entityClass) : null;
+		CacheKey       key      = QueryCache.getCacheKey(entityClass, sql, arr);
+		List<?>        cached   = cache.get(key);
+
+		if (cached != null) {
+			List<T> result = new ArrayList<T>(cached.size());
+
+			for (Object row : cached) {
+				T entity = entityClass.cast(row);
+
+				if (metadata != null) {
+					entity = DirtyTracker.copy(metadata, entityClass, entity);
+					tracker.track(metadata, entity);
+				}
+
+				result.add(entity);
+			}
+
+			return result;
+		}
+
+		long    version = cache.getVersion();
+		List<T> result  = tableMapping(sql, entityClass, arr);
+		long    lag     = routing != null && !routing.getReplicas().isEmpty() ? routing.getReplicationLagMillis() : 0;
+
+		if (metadata != null) {
+			List<T> copies = new ArrayList<T>(result.size());
+
+			for (T entity : result) {
+				copies.add(DirtyTracker.copy(metadata, entityClass, entity));
+			}
+
+			cache.put(key, sql, copies, version, lag);
+		} else {
+			cache.put(key, sql, result, version, lag);
+		}
+
+		return result;
+	}
+
+	/**
+	 * 流式查询,不缓存结果集,从数据库游标逐行读取并映射成实体类后交给回调处理,适用于导出等大结果集查询。
+	 * 查询结束后会关闭结果集、Statement和通过DataSource获取的数据库链接
+	 *
+	 * @param sql         参数 sql 查询语句
+	 * @param entityClass 需要返回的实体类类型
+	 * @param fetchSize   每次从数据库读取的行数,小于等于0时使用驱动默认值,MySQL固定使用流式读取
+	 * @param callback    行处理回调
+	 * @param arr         可变参数，有则传，没有可忽略
+	 * @param <T>
+	 * @return 处理的行数
+	 * @throws SQLException
+	 */
+	public <T> long queryForStream(String sql, Class<T> entityClass, int fetchSize,
+	                               RowCallback<T> callback, Object... arr) throws SQLException {
+
+		return queryForStream(sql, entityClass, fetchSize, true, callback, arr);
+	}
+
+	/**
+	 * 流式查询,dirtyTracking为false时即使开启了dirtyTracking也不记录实体对象快照。
+	 * 扫描、导出等只读的大结果集查询不需要快照,避免每一行都记录快照占用内存和竞争DirtyTracker的锁
+	 *
+	 * @param sql           参数 sql 查询语句
+	 * @param entityClass   需要返回的实体类类型
+	 * @param fetchSize     每次从数据库读取的行数,小于等于0时使用驱动默认值,MySQL固定使用流式读取
+	 * @param dirtyTracking 开启dirtyTracking时是否记录实体对象快照
+	 * @param callback      行处理回调
+	 * @param arr           可变参数，有则传，没有可忽略
+	 * @param <T>
+	 * @return 处理的行数
+	 * @throws SQLException
+	 */
+	public <T> long queryForStream(String sql, Class<T> entityClass, int fetchSize, boolean dirtyTracking,
+	                               RowCallback<T> callback, Object... arr) throws SQLException {
+
+		Connection conn = borrowReadConnection();
+		ResultSet  rs   = null;
+		long       rows = 0;
+
+		try {
+			rs = SqlHelp.executeStreamQuery(conn, fetchSize, sql, arr);
+			RowMapper<T> rowMapper = getRowMapper(entityClass, rs.getMetaData(), dirtyTracking);
+
+			while (rs.next()) {
+				rows++;
+				callback.processRow(rowMapper.mapRow(rs));
+			}
+		} finally {
+			try {
+				SqlHelp.close(rs, rows);
+			} finally {
+				releaseConnection(conn);
+			}
+		}
+
+		return rows;
+	}
+
+	/**
+	 * 流式查询,返回逐行读取并映射的结果迭代器,遍历结束后自动关闭,提前结束遍历时必须调用ResultIterator.close()
+	 *
+	 * @param sql         参数 sql 查询语句
+	 * @param entityClass 需要返回的实体类类型
+	 * @param fetchSize   每次从数据库读取的行数,小于等于0时使用驱动默认值,MySQL固定使用流式读取
+	 * @param arr         可变参数，有则传，没有可忽略
+	 * @param <T>
+	 * @return
+	 * @throws SQLException
+	 */
+	public <T> ResultIterator<T> queryForIterator(String sql, Class<T> entityClass,
+	                                              int fetchSize, Object... arr) throws SQLException {
+
+		Connection conn = borrowReadConnection();
+		ResultSet  rs   = null;
+
+		try {
+			rs = SqlHelp.executeStreamQuery(conn, fetchSize, sql, arr);
+			RowMapper<T> rowMapper = getRowMapper(entityClass, rs.getMetaData());
+
+			return new ResultIterator<T>(rs, rowMapper, conn != connection ? conn : null);
+		} catch (SQLException e) {
+			try {
+				SqlHelp.close(rs);
+			} finally {
+				releaseConnection(conn);
+			}
+
+			throw e;
+		}
+	}
+
+	public int queryForInteger(String sql, Object... objs) throws SQLException {
+		Connection conn = borrowReadConnection();
+		ResultSet  rs   = null;
+
+		try {
+			rs = SqlHelp.executeQuery(conn, sql, objs);
+
+			if (rs.next()) {
+				return rs.getInt(1);
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (rs != null) {
+					rs.close();
+				}
+			} finally {
+				releaseConnection(conn);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * 分页查询,按countStrategy统计总记录数
+	 *
+	 * @param sql
+	 * @param entityClass
+	 * @param pageNum
+	 * @param pageSize
+	 * @param objs
+	 * @param <T>
+	 * @return
 	 */
 	public <T> Page<T> queryForPage(String sql, Class<T> entityClass,
 	                                int pageNum, int pageSize, Object... objs) throws SQLException {
 
-		int recordCount = queryForInteger(Page.getResultCountSql(sql), objs);
+		return queryForPage(sql, entityClass, pageNum, pageSize, countStrategy, objs);
+	}
+
+	/**
+	 * 分页查询
+	 *
+	 * @param sql
+	 * @param entityClass
+	 * @param pageNum
+	 * @param pageSize
+	 * @param strategy    统计总记录数的方式
+	 * @param objs
+	 * @param <T>
+	 * @return
+	 */
+	public <T> Page<T> queryForPage(String sql, Class<T> entityClass, int pageNum, int pageSize,
+	                                CountStrategy strategy, Object... objs) throws SQLException {
+
+		String countSql = Page.getResultCountSql(sql);
+
+		if (strategy == CountStrategy.NONE) {
+			return queryForProbePage(sql, entityClass, pageNum, pageSize, objs);
+		} else if (strategy == CountStrategy.CACHED) {
+			CacheKey key         = CountCache.getCacheKey(countSql, objs);
+			Integer  recordCount = countCache.get(key);
+
+			if (recordCount == null) {
+				recordCount = queryForInteger(countSql, objs);
+				countCache.put(key, recordCount);
+			}
+
+			List<T> ls = tableMapping(Page.getPageSql(sql, pageNum, pageSize), entityClass, objs);
+
+			return new Page<T>(pageNum, pageSize, ls, recordCount);
+		} else if (strategy == CountStrategy.PARALLEL && connection == null) {
+			return queryForParallelPage(sql, countSql, entityClass, pageNum, pageSize, objs);
+		}
+
+		int recordCount = queryForInteger(countSql, objs);
 		List<T> ls = tableMapping(
 				Page.getPageSql(sql, pageNum, pageSize),
 				entityClass,
@@ -319,4 +1405,384 @@ public class JdbcTemplate {
 		return new Page<T>(pageNum, pageSize, ls, recordCount);
 	}
 
+	/**
+	 * 不统计总记录数的分页查询,多查询一行判断是否还有下一页
+	 */
+	private <T> Page<T> queryForProbePage(String sql, Class<T> entityClass,
+	                                      int pageNum, int pageSize, Object... objs) throws SQLException {
+
+		int     num     = pageNum < 1 ? 1 : pageNum;
+		int     size    = pageSize < 1 ? 1 : pageSize;
+		List<T> ls      = tableMapping(Page.getProbePageSql(sql, num, size), entityClass, objs);
+		boolean hasNext = ls.size() > size;
+
+		if (hasNext) {
+			ls.remove(size);
+		}
+
+		// 总记录数为已知的最少记录数,有下一页时总页数为当前页加一
+		Page<T> page = new Page<T>(num, size, ls, (long) (num - 1) * size + ls.size() + (hasNext ? 1 : 0));
+		page.setHasNext(hasNext);
+
+		return page;
+	}
+
+	/**
+	 * 使用两个数据库连接同时执行count(*)和分页查询。当前线程在事务范围内时count(*)需要使用事务连接才能统计到未提交的数据,
+	 * count线程池队列已满时也改为在当前线程中依次执行;在RoutingDataSource.pinPrimary()范围内时count(*)也使用主库,
+	 * count(*)使用当前线程的查询截止时间
+	 */
+	private <T> Page<T> queryForParallelPage(final String sql, final String countSql, Class<T> entityClass,
+	                                         int pageNum, int pageSize, final Object... objs) throws SQLException {
+
+		if (TransactionScope.isActive(dataSource)) {
+			return queryForSerialPage(sql, countSql, entityClass, pageNum, pageSize, objs);
+		}
+
+		final RoutingDataSource routing = dataSource instanceof RoutingDataSource ? (RoutingDataSource) dataSource : null;
+		final boolean           pinned  = routing != null && routing.isPinnedToPrimary();
+		Future<Integer>         future;
+
+		try {
+			future = getCountExecutor0().submit(withDeadline(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					RoutingDataSource.PrimaryScope scope = pinned ? routing.pinPrimary() : null;
+
+					try {
+						return queryForCount(countSql, objs);
+					} finally {
+						if (scope != null) {
+							scope.close();
+						}
+					}
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			return queryForSerialPage(sql, countSql, entityClass, pageNum, pageSize, objs);
+		}
+
+		List<T> ls;
+
+		try {
+			ls = tableMapping(Page.getPageSql(sql, pageNum, pageSize), entityClass, objs);
+		} catch (SQLException e) {
+			future.cancel(true);
+			throw e;
+		}
+
+		try {
+			return new Page<T>(pageNum, pageSize, ls, future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("统计总记录数被中断.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+
+			throw new SQLException("统计总记录数异常: " + cause, cause);
+		}
+	}
+
+	/**
+	 * 在当前线程中依次执行count(*)和分页查询
+	 */
+	private <T> Page<T> queryForSerialPage(String sql, String countSql, Class<T> entityClass,
+	                                       int pageNum, int pageSize, Object... objs) throws SQLException {
+
+		int     recordCount = queryForCount(countSql, objs);
+		List<T> ls          = tableMapping(Page.getPageSql(sql, pageNum, pageSize), entityClass, objs);
+
+		return new Page<T>(pageNum, pageSize, ls, recordCount);
+	}
+
+	/**
+	 * 执行count(*)语句,和queryForInteger不同,执行异常时抛出SQLException而不是返回0
+	 */
+	private int queryForCount(String countSql, Object... objs) throws SQLException {
+		Connection conn = borrowReadConnection();
+		ResultSet  rs   = null;
+
+		try {
+			rs = SqlHelp.executeQuery(conn, countSql, objs);
+
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			try {
+				if (rs != null) {
+					rs.close();
+				}
+			} finally {
+				releaseConnection(conn);
+			}
+		}
+	}
+
+	/**
+	 * 获取执行count(*)的线程池,未设置时创建有界线程池,线程数等于连接池最大连接数,
+	 * 队列已满时拒绝提交,由queryForParallelPage在调用线程中依次执行
+	 */
+	private ExecutorService getCountExecutor0() {
+		ExecutorService executor = countExecutor;
+
+		if (executor == null) {
+			synchronized (this) {
+				if (countExecutor == null) {
+					countExecutor = newBoundedExecutor(getDefaultPoolSize(), "javaweb-jdbc-count-");
+				}
+
+				executor = countExecutor;
+			}
+		}
+
+		return executor;
+	}
+
+	/**
+	 * 默认线程池的线程数,使用连接池时等于连接池最大连接数,否则等于CPU核数
+	 */
+	private int getDefaultPoolSize() {
+		return dataSource instanceof PooledDataSource ?
+				((PooledDataSource) dataSource).getMaxPoolSize() :
+				Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * 创建有界线程池,空闲线程超时回收,队列已满时抛出RejectedExecutionException,避免无限堆积任务。
+	 * 不在调用线程中执行,否则异步方法会阻塞调用线程,并在调用线程的事务范围内执行
+	 */
+	private ExecutorService newBoundedExecutor(int threads, String namePrefix) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+				threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, asyncQueueCapacity)),
+				newDaemonThreadFactory(namePrefix), new ThreadPoolExecutor.AbortPolicy()
+		);
+
+		pool.allowCoreThreadTimeOut(true);
+
+		return pool;
+	}
+
+	/**
+	 * 获取异步查询线程池,未设置时创建有界线程池,线程数等于连接池最大连接数,
+	 * 使用构造时传入的Connection时只创建一个线程保证同一链接不会被并发使用。
+	 * 队列长度为asyncQueueCapacity,队列已满时提交任务抛出RejectedExecutionException。异步任务使用提交时当前线程的查询截止时间(QueryDeadline)
+	 *
+	 * @return
+	 */
+	public ExecutorService getAsyncExecutor() {
+		ExecutorService executor = asyncExecutor;
+
+		if (executor == null) {
+			synchronized (this) {
+				if (asyncExecutor == null) {
+					int threads = asyncPoolSize;
+
+					if (connection != null) {
+						threads = 1;
+					} else if (threads < 1) {
+						threads = getDefaultPoolSize();
+					}
+
+					asyncExecutor = newBoundedExecutor(threads, "javaweb-jdbc-async-");
+				}
+
+				executor = asyncExecutor;
+			}
+		}
+
+		return executor;
+	}
+
+	public void setAsyncExecutor(ExecutorService asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * 在其他线程中执行的任务使用提交任务时当前线程的查询截止时间
+	 */
+	private static <V> Callable<V> withDeadline(final Callable<V> task) {
+		final QueryDeadline deadline = QueryDeadline.current();
+
+		if (deadline == null) {
+			return task;
+		}
+
+		return new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				QueryDeadline scope = QueryDeadline.begin(deadline.getRemainingMillis());
+
+				try {
+					return task.call();
+				} finally {
+					scope.close();
+				}
+			}
+		};
+	}
+
+	private static ThreadFactory newDaemonThreadFactory(final String namePrefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * 异步查询数据库中任意条记录并映射成对应的实体类集合类型
+	 *
+	 * @param sql         查询语句
+	 * @param entityClass 需要返回的实体类类型
+	 * @param arr         查询语句参数
+	 * @param <T>
+	 * @return
+	 * @throws RejectedExecutionException 异步线程池队列已满
+	 */
+	public <T> Future<List<T>> queryForListAsync(final String sql, final Class<T> entityClass, final Object... arr) {
+		return getAsyncExecutor().submit(withDeadline(new Callable<List<T>>() {
+			@Override
+			public List<T> call() throws Exception {
+				return queryForList(sql, entityClass, arr);
+			}
+		}));
+	}
+
+	/**
+	 * 异步执行更新语句
+	 *
+	 * @param sql  更新语句
+	 * @param args 更新语句参数
+	 * @return 影响行数
+	 * @throws RejectedExecutionException 异步线程池队列已满
+	 */
+	public Future<Integer> updateAsync(final String sql, final Object... args) {
+		return getAsyncExecutor().submit(withDeadline(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return update(sql, args);
+			}
+		}));
+	}
+
+	/**
+	 * 异步分页查询,按countStrategy统计总记录数
+	 *
+	 * @param sql         查询语句
+	 * @param entityClass 需要返回的实体类类型
+	 * @param pageNum     当前页
+	 * @param pageSize    每页显示数量
+	 * @param objs        查询语句参数
+	 * @param <T>
+	 * @return
+	 * @throws RejectedExecutionException 异步线程池队列已满
+	 */
+	public <T> Future<Page<T>> queryForPageAsync(final String sql, final Class<T> entityClass,
+	                                             final int pageNum, final int pageSize, final Object... objs) {
+
+		return getAsyncExecutor().submit(withDeadline(new Callable<Page<T>>() {
+			@Override
+			public Page<T> call() throws Exception {
+				return queryForPage(sql, entityClass, pageNum, pageSize, objs);
+			}
+		}));
+	}
+
+	/**
+	 * 键集分页查询,按排序字段升序从上一页最后一行之后开始查询,每页查询耗时不随页码增加而增加,不统计总记录数。
+	 * 返回的Page包含当前页最后一行的排序字段值,可以传给nextKeysetPage查询下一页
+	 *
+	 * @param sql           查询语句,排序字段必须是查询结果中的字段
+	 * @param entityClass   需要返回的实体类类型
+	 * @param keyColumns    排序字段,必须能唯一确定一行记录且不为NULL,如主键,多表查询时可以带表别名(如u.id)
+	 * @param lastKeyValues 上一页最后一行的排序字段值,查询第一页时传null
+	 * @param pageSize      每页显示数量
+	 * @param objs          查询语句参数
+	 * @param <T>
+	 * @return
+	 * @throws SQLException
+	 */
+	public <T> Page<T> queryForKeysetPage(String sql, Class<T> entityClass, String[] keyColumns,
+	                                      Object[] lastKeyValues, int pageSize, Object... objs) throws SQLException {
+
+		if (lastKeyValues != null && lastKeyValues.length != keyColumns.length) {
+			throw new SQLException("键集分页排序字段值数量和排序字段数量不一致.");
+		}
+
+		String     pageSql    = Page.getKeysetPageSql(sql, keyColumns, lastKeyValues != null, pageSize);
+		Object[]   parameters = Page.getKeysetParameters(objs, lastKeyValues);
+		int        size       = pageSize < 1 ? 1 : pageSize;
+		List<T>    ls         = new ArrayList<T>(size);
+		Object[]   lastKey    = null;
+		boolean    hasNext    = false;
+		Connection conn       = borrowReadConnection();
+		ResultSet  rs         = null;
+
+		try {
+			rs = SqlHelp.executeStreamQuery(conn, size + 1, pageSql, parameters);
+			RowMapper<T> rowMapper  = getRowMapper(entityClass, rs.getMetaData());
+			int[]        keyIndexes = null;
+
+			while (rs.next()) {
+				if (ls.size() == size) {
+					hasNext = true;
+					break;
+				}
+
+				// 部分驱动(如SQLite)没有数据时结果集已关闭,读取到第一行后再查找排序字段
+				if (keyIndexes == null) {
+					keyIndexes = new int[keyColumns.length];
+
+					for (int i = 0; i < keyColumns.length; i++) {
+						keyIndexes[i] = rs.findColumn(Page.getKeyColumnLabel(keyColumns[i]));
+					}
+				}
+
+				ls.add(rowMapper.mapRow(rs));
+				lastKey = new Object[keyIndexes.length];
+
+				for (int i = 0; i < keyIndexes.length; i++) {
+					lastKey[i] = rs.getObject(keyIndexes[i]);
+				}
+			}
+		} finally {
+			try {
+				SqlHelp.close(rs, hasNext ? ls.size() + 1 : ls.size());
+			} finally {
+				releaseConnection(conn);
+			}
+		}
+
+		return new Page<T>(size, ls, keyColumns, lastKey != null ? lastKey : lastKeyValues, hasNext);
+	}
+
+	/**
+	 * 根据上一次键集分页查询结果查询下一页
+	 *
+	 * @param sql         查询语句,必须和上一页使用的查询语句一致
+	 * @param entityClass 需要返回的实体类类型
+	 * @param page        上一页查询结果
+	 * @param objs        查询语句参数
+	 * @param <T>
+	 * @return
+	 * @throws SQLException
+	 */
+	public <T> Page<T> nextKeysetPage(String sql, Class<T> entityClass, Page<T> page, Object... objs)
+			throws SQLException {
+
+		return queryForKeysetPage(
+				sql, entityClass, page.getKeyColumns(), page.getLastKeyValues(), page.getPageSize(), objs
+		);
+	}
+
 }
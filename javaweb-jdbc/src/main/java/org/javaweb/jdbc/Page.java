@@ -1,10 +1,27 @@
 package org.javaweb.jdbc;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 public class Page<T> implements Serializable {
 
+	/**
+	 * 键集分页排序字段名格式,只允许字母、数字和下划线,可以带表别名(如u.id),去掉表别名后必须是查询结果中的字段名
+	 */
+	private static final Pattern KEY_COLUMN_PATTERN = Pattern.compile("([A-Za-z_]\\w*\\.)?[A-Za-z_]\\w*");
+
+	/**
+	 * 出现在最外层时键集分页条件不能直接追加到WHERE中的关键字
+	 */
+	private static final Set<String> KEYSET_UNSUPPORTED_KEYWORDS = new HashSet<String>(Arrays.asList(
+			"group", "having", "union", "intersect", "except", "minus", "limit", "offset", "fetch",
+			"into", "for", "lock", "window", "connect", "start", "procedure", "distinct", "distinctrow"
+	));
+
 	/**
 	 * 查询的结果数组
 	 */
@@ -40,6 +57,21 @@ public class Page<T> implements Serializable {
 	 */
 	private int pageEnd;
 
+	/**
+	 * 键集分页的排序字段,必须能唯一确定一行记录,普通分页时为null
+	 */
+	private String[] keyColumns;
+
+	/**
+	 * 键集分页当前页最后一行记录的排序字段值,查询下一页时作为起始位置
+	 */
+	private Object[] lastKeyValues;
+
+	/**
+	 * 是否还有下一页
+	 */
+	private boolean hasNext;
+
 	public Page() {
 
 	}
@@ -61,6 +93,24 @@ public class Page<T> implements Serializable {
 		this.pageBegin = this.getPageNum() - 5 <= 0 ? 1 : this.getPageNum() - 5;
 		this.pageEnd = pageCount - this.getPageNum() <= 4 ? pageCount : this.getPageNum() + 4;
 		this.setRecordCount(recordCount);
+		this.hasNext = this.getPageNum() < pageCount;
+	}
+
+	/**
+	 * 键集分页,不统计总记录数
+	 *
+	 * @param pageSize      每页显示数量
+	 * @param result        查询结果
+	 * @param keyColumns    排序字段
+	 * @param lastKeyValues 最后一行记录的排序字段值
+	 * @param hasNext       是否还有下一页
+	 */
+	public Page(int pageSize, List<T> result, String[] keyColumns, Object[] lastKeyValues, boolean hasNext) {
+		this.setPageSize(pageSize);
+		this.setResult(result);
+		this.keyColumns = keyColumns;
+		this.lastKeyValues = lastKeyValues;
+		this.hasNext = hasNext;
 	}
 
 	public static String getPageSql(String sql, int currentPage, int pageSize) {
@@ -69,8 +119,233 @@ public class Page<T> implements Serializable {
 		return sql + " limit " + (currentPage - 1) * pageSize + "," + pageSize;
 	}
 
+	/**
+	 * 生成多查询一行的分页SQL,用于不统计总记录数时判断是否还有下一页
+	 *
+	 * @param sql         查询语句
+	 * @param currentPage 当前页
+	 * @param pageSize    每页显示数量
+	 * @return
+	 */
+	public static String getProbePageSql(String sql, int currentPage, int pageSize) {
+		currentPage = currentPage < 1 ? 1 : currentPage;
+		pageSize = pageSize < 1 ? 1 : pageSize;
+		return sql + " limit " + (currentPage - 1) * pageSize + "," + (pageSize + 1);
+	}
+
+	/**
+	 * 生成键集分页SQL,按排序字段升序从上一页最后一行之后开始查询,多查询一行用于判断是否还有下一页。
+	 * 排序字段条件展开为: (k1 > ?) or (k1 = ? and k2 > ?),参数顺序见getKeysetParameters。
+	 * 深度翻页时数据库可以直接通过排序字段索引定位起始位置,不需要像limit offset一样扫描并丢弃前面的记录。
+	 * <p>
+	 * 简单查询的排序字段条件直接追加到原查询的WHERE中并替换ORDER BY,如:
+	 * select * from t where a = ? order by x 改写成 select * from t where (a = ?) and ((id > ?)) ORDER BY id limit n。
+	 * 多表查询的排序字段可以带表别名(如u.id),条件和ORDER BY使用带表别名的字段,避免字段名有歧义。
+	 * 包含GROUP BY、HAVING、UNION、DISTINCT、LIMIT,ORDER BY中有参数,或排序字段是查询字段别名的语句使用
+	 * SELECT * FROM ( sql ) rs WHERE ...包装,包装后的条件使用去掉表别名的字段名,这时只有数据库把派生表合并到外层查询时(如MySQL 5.7+、PostgreSQL)
+	 * 才能使用排序字段索引,MySQL 5.6及以下版本会物化派生表,每页都需要扫描全部结果
+	 *
+	 * @param sql         查询语句,排序字段必须是查询结果中的字段
+	 * @param keyColumns  排序字段,必须能唯一确定一行记录且不为NULL,可以带表别名
+	 * @param hasLastKey  是否有上一页最后一行的排序字段值,查询第一页时为false
+	 * @param pageSize    每页显示数量
+	 * @return
+	 */
+	public static String getKeysetPageSql(String sql, String[] keyColumns, boolean hasLastKey, int pageSize) {
+		if (keyColumns == null || keyColumns.length == 0) {
+			throw new IllegalArgumentException("键集分页排序字段不能为空.");
+		}
+
+		for (String column : keyColumns) {
+			if (column == null || !KEY_COLUMN_PATTERN.matcher(column).matches()) {
+				throw new IllegalArgumentException("键集分页排序字段名不合法: " + column);
+			}
+		}
+
+		pageSize = pageSize < 1 ? 1 : pageSize;
+		StringBuilder sb        = new StringBuilder();
+		int[]         clauses   = findKeysetClauses(sql, keyColumns);
+		String        separator = " ";
+
+		if (clauses != null) {
+			int whereIndex = clauses[0];
+			int end        = clauses[1];
+
+			while (end > 0 && (Character.isWhitespace(sql.charAt(end - 1)) || sql.charAt(end - 1) == ';')) {
+				end--;
+			}
+
+			// 原查询可能以行注释结束,追加的内容需要换行
+			if (sql.indexOf("--") != -1 || sql.indexOf('#') != -1) {
+				separator = "\n";
+			}
+
+			if (!hasLastKey) {
+				sb.append(sql, 0, end);
+			} else if (whereIndex != -1) {
+				// 原查询条件加括号,避免和OR条件的优先级问题
+				sb.append(sql, 0, whereIndex).append(" (").append(sql.substring(whereIndex, end).trim()).append(separator);
+				appendKeysetCondition(sb.append(") AND ("), keyColumns).append(")");
+			} else {
+				appendKeysetCondition(sb.append(sql, 0, end).append(separator).append("WHERE "), keyColumns);
+			}
+		} else {
+			// 派生表外只能使用查询结果中的字段名
+			String[] labels = new String[keyColumns.length];
+
+			for (int i = 0; i < keyColumns.length; i++) {
+				labels[i] = getKeyColumnLabel(keyColumns[i]);
+			}
+
+			keyColumns = labels;
+			sb.append("SELECT * FROM ( ").append(sql).append(" ) rs");
+
+			if (hasLastKey) {
+				appendKeysetCondition(sb.append(" WHERE "), keyColumns);
+			}
+		}
+
+		sb.append(separator).append("ORDER BY ");
+
+		for (int i = 0; i < keyColumns.length; i++) {
+			sb.append(i > 0 ? ", " : "").append(keyColumns[i]);
+		}
+
+		return sb.append(" limit ").append(pageSize + 1).toString();
+	}
+
+	/**
+	 * 排序字段在查询结果中的字段名,去掉表别名
+	 *
+	 * @param keyColumn 排序字段
+	 * @return
+	 */
+	public static String getKeyColumnLabel(String keyColumn) {
+		return keyColumn.substring(keyColumn.lastIndexOf('.') + 1);
+	}
+
+	private static StringBuilder appendKeysetCondition(StringBuilder sb, String[] keyColumns) {
+		for (int i = 0; i < keyColumns.length; i++) {
+			sb.append(i > 0 ? " OR (" : "(");
+
+			for (int j = 0; j < i; j++) {
+				sb.append(keyColumns[j]).append(" = ? AND ");
+			}
+
+			sb.append(keyColumns[i]).append(" > ?)");
+		}
+
+		return sb;
+	}
+
+	/**
+	 * 解析可以直接追加键集分页条件的简单查询
+	 *
+	 * @param sql        查询语句
+	 * @param keyColumns 排序字段
+	 * @return {WHERE关键字之后的位置(没有WHERE时为-1), 最外层ORDER BY的位置(没有时为SQL长度)},不能直接追加时返回null
+	 */
+	private static int[] findKeysetClauses(String sql, String[] keyColumns) {
+		CountSqlParser.SqlTokenizer tokenizer  = new CountSqlParser.SqlTokenizer(sql);
+		String                      token      = tokenizer.next();
+		String                      previous   = null;
+		boolean                     selectList = true;
+		int                         whereIndex = -1;
+		int                         orderIndex = -1;
+
+		if (token == null || !"select".equalsIgnoreCase(token)) {
+			return null;
+		}
+
+		previous = token.toLowerCase();
+
+		while ((token = tokenizer.next()) != null) {
+			String  word     = token.toLowerCase();
+			boolean topLevel = tokenizer.getDepth() == 0 && !tokenizer.isQualified();
+
+			// 删除的ORDER BY中有参数时改写后参数位置会变化
+			if ("?".equals(token) && orderIndex != -1) {
+				return null;
+			}
+
+			if (topLevel) {
+				if (KEYSET_UNSUPPORTED_KEYWORDS.contains(word)) {
+					return null;
+				} else if (selectList && "from".equals(word)) {
+					selectList = false;
+				} else if (selectList && isAlias(word, previous, keyColumns)) {
+					// 排序字段是查询字段别名时不能在WHERE中使用
+					return null;
+				} else if (!selectList && "where".equals(word) && whereIndex == -1 && orderIndex == -1) {
+					whereIndex = tokenizer.getTokenStart() + token.length();
+				} else if (!selectList && "order".equals(word) && orderIndex == -1) {
+					orderIndex = tokenizer.getTokenStart();
+				}
+
+				// 截取和插入的位置不能在MySQL可执行注释中
+				if (tokenizer.isInExecutableComment() && ("where".equals(word) || "order".equals(word))) {
+					return null;
+				}
+
+				previous = word;
+			} else if (tokenizer.getDepth() == 0) {
+				previous = word;
+			}
+		}
+
+		if (selectList || tokenizer.isMalformed() || tokenizer.isInExecutableComment()) {
+			return null;
+		}
+
+		return new int[]{whereIndex, orderIndex != -1 ? orderIndex : sql.length()};
+	}
+
+	/**
+	 * 查询字段中的标识符是否是排序字段的别名:跟在as或其他表达式之后,而不是查询字段的开头。
+	 * 带表别名的排序字段引用的是表字段,不受查询字段别名影响
+	 */
+	private static boolean isAlias(String word, String previous, String[] keyColumns) {
+		for (String column : keyColumns) {
+			if (column.indexOf('.') == -1 && column.equalsIgnoreCase(word)) {
+				return !",".equals(previous) && !"select".equals(previous) && !"all".equals(previous);
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * 生成键集分页SQL的参数,查询语句参数在前,排序字段条件参数在后
+	 *
+	 * @param args          查询语句参数
+	 * @param lastKeyValues 上一页最后一行的排序字段值,查询第一页时为null
+	 * @return
+	 */
+	public static Object[] getKeysetParameters(Object[] args, Object[] lastKeyValues) {
+		int      keys       = lastKeyValues != null ? lastKeyValues.length : 0;
+		Object[] parameters = new Object[args.length + keys * (keys + 1) / 2];
+		int      index      = args.length;
+
+		System.arraycopy(args, 0, parameters, 0, args.length);
+
+		for (int i = 0; i < keys; i++) {
+			for (int j = 0; j <= i; j++) {
+				parameters[index++] = lastKeyValues[j];
+			}
+		}
+
+		return parameters;
+	}
+
+	/**
+	 * 生成分页count语句,简单查询去掉查询字段和ORDER BY直接统计,复杂查询使用子查询包装,见CountSqlParser
+	 *
+	 * @param sql 查询语句
+	 * @param obj
+	 * @return
+	 */
 	public static String getResultCountSql(String sql, Object... obj) {
-		return "SELECT count(*) FROM ( " + sql + " ) rs";
+		return CountSqlParser.getCountSql(sql);
 	}
 
 	public List<T> getResult() {
@@ -129,4 +404,28 @@ public class Page<T> implements Serializable {
 		this.pageEnd = pageEnd;
 	}
 
+	public String[] getKeyColumns() {
+		return keyColumns;
+	}
+
+	public void setKeyColumns(String[] keyColumns) {
+		this.keyColumns = keyColumns;
+	}
+
+	public Object[] getLastKeyValues() {
+		return lastKeyValues;
+	}
+
+	public void setLastKeyValues(Object[] lastKeyValues) {
+		this.lastKeyValues = lastKeyValues;
+	}
+
+	public boolean isHasNext() {
+		return hasNext;
+	}
+
+	public void setHasNext(boolean hasNext) {
+		this.hasNext = hasNext;
+	}
+
 }
\ No newline at end of file
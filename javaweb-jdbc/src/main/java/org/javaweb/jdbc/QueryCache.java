@@ -0,0 +1,377 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询结果缓存,key为实体类型、SQL语句和参数,超过最大数量时淘汰最久未使用的记录,超过有效期的记录在读取时移除。
+ * 通过JdbcTemplate写入数据时按表名失效引用了该表的缓存,多个JdbcTemplate可以共用同一个缓存对象。
+ * 直接修改数据库或通过其他方式写入的数据只能等待缓存过期,适用于字典、配置等数据量小且很少修改的表
+ *
+ * @author yz
+ */
+public class QueryCache {
+
+	/**
+	 * 可以识别修改表名的写入语句
+	 */
+	private static final Set<String> WRITE_COMMANDS = new HashSet<String>(Arrays.asList(
+			"insert", "replace", "update", "delete", "merge", "upsert", "truncate"
+	));
+
+	/**
+	 * 写入语句和表名之间的修饰符
+	 */
+	private static final Set<String> WRITE_MODIFIERS = new HashSet<String>(Arrays.asList(
+			"into", "from", "table", "ignore", "low_priority", "high_priority", "delayed", "quick", "only",
+			"or", "replace", "rollback", "abort", "fail"
+	));
+
+	private final long ttlMillis;
+
+	private final Map<CacheKey, Entry> cache;
+
+	/**
+	 * 每次失效缓存时加一,查询开始后发生过失效的结果不放入缓存
+	 */
+	private volatile long version;
+
+	/**
+	 * 每个表最后一次失效缓存的时间,key为小写表名
+	 */
+	private final Map<String, Long> invalidationTimes = new HashMap<String, Long>();
+
+	/**
+	 * 最后一次清空缓存的时间
+	 */
+	private long clearTime;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private final AtomicLong invalidationCount = new AtomicLong();
+
+	/**
+	 * @param maxSize   最大缓存数量
+	 * @param ttlMillis 缓存有效期,单位毫秒
+	 */
+	public QueryCache(final int maxSize, long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.cache = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+				if (size() > maxSize) {
+					evictionCount.incrementAndGet();
+
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * 生成缓存key
+	 *
+	 * @param entityClass 实体类型
+	 * @param sql         查询语句
+	 * @param args        参数
+	 * @return
+	 */
+	public static CacheKey getCacheKey(Class<?> entityClass, String sql, Object... args) {
+		return new CacheKey(entityClass.getName(), sql, args);
+	}
+
+	/**
+	 * 获取未过期的查询结果
+	 *
+	 * @param key 缓存key
+	 * @return 查询结果, 未缓存或已过期时返回null
+	 */
+	public synchronized List<?> get(CacheKey key) {
+		Entry entry = cache.get(key);
+
+		if (entry != null && entry.expireTime <= System.currentTimeMillis()) {
+			cache.remove(key);
+			entry = null;
+		}
+
+		if (entry == null) {
+			missCount.incrementAndGet();
+
+			return null;
+		}
+
+		hitCount.incrementAndGet();
+
+		return entry.result;
+	}
+
+	/**
+	 * 缓存查询结果,查询开始后缓存发生过失效时不缓存
+	 *
+	 * @param key     缓存key
+	 * @param sql     查询语句,用于解析引用的表名
+	 * @param result  查询结果
+	 * @param version 查询开始前调用getVersion()获取的版本号
+	 */
+	public void put(CacheKey key, String sql, List<?> result, long version) {
+		put(key, sql, result, version, 0);
+	}
+
+	/**
+	 * 缓存查询结果,查询开始后缓存发生过失效,或引用的表在quietMillis毫秒内失效过时不缓存。
+	 * 从从库读取的结果使用从库复制延迟作为quietMillis,避免从库还未同步写入时把旧数据重新放入缓存
+	 *
+	 * @param key         缓存key
+	 * @param sql         查询语句,用于解析引用的表名
+	 * @param result      查询结果
+	 * @param version     查询开始前调用getVersion()获取的版本号
+	 * @param quietMillis 引用的表最后一次失效后需要经过的时间,单位毫秒
+	 */
+	public void put(CacheKey key, String sql, List<?> result, long version, long quietMillis) {
+		long  now   = System.currentTimeMillis();
+		Entry entry = new Entry(
+				Collections.unmodifiableList(new ArrayList<Object>(result)), getIdentifiers(sql), now + ttlMillis
+		);
+
+		synchronized (this) {
+			if (this.version == version && !isInvalidatedSince(entry.identifiers, now - quietMillis)) {
+				cache.put(key, entry);
+			}
+		}
+	}
+
+	/**
+	 * 引用的表在time之后是否失效过
+	 */
+	private boolean isInvalidatedSince(Set<String> identifiers, long time) {
+		if (clearTime > time) {
+			return true;
+		}
+
+		for (Map.Entry<String, Long> entry : invalidationTimes.entrySet()) {
+			if (entry.getValue() > time && identifiers.contains(entry.getKey())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * 失效所有引用了表的缓存
+	 *
+	 * @param tableName 表名
+	 */
+	public synchronized void invalidate(String tableName) {
+		String name = tableName.toLowerCase();
+		version++;
+		invalidationCount.incrementAndGet();
+		invalidationTimes.put(name, System.currentTimeMillis());
+
+		for (Iterator<Entry> it = cache.values().iterator(); it.hasNext(); ) {
+			if (it.next().identifiers.contains(name)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 按写入语句修改的表失效缓存,无法识别修改的表(多表更新、DDL等)时清空缓存
+	 *
+	 * @param sql insert、replace、update、delete、merge或truncate语句
+	 */
+	public void invalidateBySql(String sql) {
+		String tableName = getWriteTableName(sql);
+
+		if (tableName != null) {
+			invalidate(tableName);
+		} else {
+			clear();
+		}
+	}
+
+	/**
+	 * 清空缓存,无法识别写入语句修改的表时调用
+	 */
+	public synchronized void clear() {
+		version++;
+		invalidationCount.incrementAndGet();
+		invalidationTimes.clear();
+		clearTime = System.currentTimeMillis();
+		cache.clear();
+	}
+
+	/**
+	 * 解析单表写入语句修改的表名,无法识别时返回null
+	 *
+	 * @param sql 写入语句
+	 * @return
+	 */
+	static String getWriteTableName(String sql) {
+		CountSqlParser.SqlTokenizer tokenizer = new CountSqlParser.SqlTokenizer(sql, true);
+		String                      token     = tokenizer.next();
+
+		if (token == null) {
+			return null;
+		}
+
+		String command = token.toLowerCase();
+
+		if (!WRITE_COMMANDS.contains(command)) {
+			return null;
+		}
+
+		while ((token = tokenizer.next()) != null && WRITE_MODIFIERS.contains(token.toLowerCase())) {
+			// 跳过into、from、ignore等修饰符
+		}
+
+		String tableName = token;
+		token = tokenizer.next();
+
+		// schema.table格式取表名
+		while (".".equals(token)) {
+			tableName = tokenizer.next();
+			token = tableName != null ? tokenizer.next() : null;
+		}
+
+		if (tableName == null || !isIdentifier(tableName)) {
+			return null;
+		}
+
+		// update a, b或update a join b等多表写入无法确定修改的表
+		if ("update".equals(command) || "delete".equals(command)) {
+			for (; token != null; token = tokenizer.next()) {
+				String word = token.toLowerCase();
+
+				if ("set".equals(word) && "update".equals(command)) {
+					break;
+				} else if (tokenizer.getDepth() == 0 && (",".equals(word) || "join".equals(word) ||
+						"using".equals(word) || "from".equals(word))) {
+
+					return null;
+				}
+			}
+		}
+
+		return tableName;
+	}
+
+	private static boolean isIdentifier(String token) {
+		for (int i = 0; i < token.length(); i++) {
+			char c = token.charAt(i);
+
+			if (!Character.isLetterOrDigit(c) && c != '_' && c != '$') {
+				return false;
+			}
+		}
+
+		return token.length() > 0;
+	}
+
+	/**
+	 * 解析SQL语句中出现的所有标识符,用于判断缓存是否引用了某个表
+	 */
+	private static Set<String> getIdentifiers(String sql) {
+		Set<String>                 identifiers = new HashSet<String>();
+		CountSqlParser.SqlTokenizer tokenizer   = new CountSqlParser.SqlTokenizer(sql, true);
+		String                      token;
+
+		while ((token = tokenizer.next()) != null) {
+			identifiers.add(token.toLowerCase());
+		}
+
+		return identifiers;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	/**
+	 * 缓存命中率,未查询过时返回0
+	 *
+	 * @return
+	 */
+	public double getHitRatio() {
+		long hits     = hitCount.get();
+		long requests = hits + missCount.get();
+
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	private static class Entry {
+
+		private final List<?> result;
+
+		/**
+		 * 查询语句中出现的标识符(小写)
+		 */
+		private final Set<String> identifiers;
+
+		private final long expireTime;
+
+		Entry(List<?> result, Set<String> identifiers, long expireTime) {
+			this.result = result;
+			this.identifiers = identifiers;
+			this.expireTime = expireTime;
+		}
+
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.sql.SQLTimeoutException;
+
+/**
+ * 线程绑定的查询截止时间,范围内通过JdbcTemplate和SqlHelp执行的所有语句共享同一个截止时间,
+ * 超过截止时间的语句会被取消并抛出SQLTimeoutException,截止时间已过时不再执行新的语句:
+ * <pre>
+ * QueryDeadline deadline = QueryDeadline.begin(3000);
+ *
+ * try {
+ *     jdbcTemplate.queryForList(...);
+ *     jdbcTemplate.queryForPage(...);
+ * } finally {
+ *     deadline.close();
+ * }
+ * </pre>
+ * 嵌套范围的截止时间不会晚于外层范围。未设置截止时间的语句使用SqlHelp.setDefaultQueryTimeoutMillis设置的默认超时时间,
+ * JdbcTemplate的异步查询、并行count以及KeyRangeScan、BulkLoader在其他线程中执行的语句使用提交时当前线程的截止时间
+ *
+ * @author yz
+ */
+public class QueryDeadline {
+
+	private static final ThreadLocal<QueryDeadline> CURRENT = new ThreadLocal<QueryDeadline>();
+
+	private final QueryDeadline parent;
+
+	/**
+	 * 截止时间,System.nanoTime()
+	 */
+	private final long deadlineNanos;
+
+	private boolean closed;
+
+	private QueryDeadline(QueryDeadline parent, long deadlineNanos) {
+		this.parent = parent;
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * 开始截止时间范围并绑定到当前线程
+	 *
+	 * @param timeoutMillis 从现在开始的超时时间(毫秒)
+	 * @return 截止时间范围, 使用完成后必须调用close()
+	 */
+	public static QueryDeadline begin(long timeoutMillis) {
+		QueryDeadline parent   = CURRENT.get();
+		long          deadline = System.nanoTime() + Math.max(0, timeoutMillis) * 1000000;
+
+		if (parent != null && parent.deadlineNanos - deadline < 0) {
+			deadline = parent.deadlineNanos;
+		}
+
+		QueryDeadline scope = new QueryDeadline(parent, deadline);
+		CURRENT.set(scope);
+
+		return scope;
+	}
+
+	/**
+	 * 当前线程的截止时间范围
+	 *
+	 * @return 不在范围内时返回null
+	 */
+	public static QueryDeadline current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * 剩余时间(毫秒),不足1毫秒时向上取整
+	 *
+	 * @return 已超过截止时间时返回0
+	 */
+	public long getRemainingMillis() {
+		long remaining = deadlineNanos - System.nanoTime();
+
+		return remaining > 0 ? (remaining + 999999) / 1000000 : 0;
+	}
+
+	public boolean isExpired() {
+		return deadlineNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * 结束范围,恢复外层范围
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+
+		if (CURRENT.get() != this) {
+			throw new IllegalStateException("截止时间范围必须在创建线程中按嵌套顺序关闭.");
+		}
+
+		closed = true;
+
+		if (parent != null) {
+			CURRENT.set(parent);
+		} else {
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * 获取当前线程执行语句的超时时间,截止时间已过时抛出SQLTimeoutException
+	 *
+	 * @param defaultTimeoutMillis 不在截止时间范围内时使用的默认超时时间
+	 * @return 超时时间(毫秒), 0表示不限制
+	 * @throws SQLTimeoutException
+	 */
+	static long getTimeoutMillis(long defaultTimeoutMillis) throws SQLTimeoutException {
+		QueryDeadline deadline = CURRENT.get();
+
+		if (deadline == null) {
+			return defaultTimeoutMillis > 0 ? defaultTimeoutMillis : 0;
+		}
+
+		long remaining = deadline.getRemainingMillis();
+
+		if (remaining == 0) {
+			throw new SQLTimeoutException("已超过查询截止时间,不再执行SQL.");
+		}
+
+		return remaining;
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 语句超时监控,超过截止时间时调用Statement.cancel()取消执行中的语句。
+ * 部分驱动只支持秒级的setQueryTimeout或不支持,由监控线程保证毫秒级的截止时间
+ *
+ * @author yz
+ */
+final class QueryWatchdog {
+
+	private static final Logger LOG = Logger.getLogger(QueryWatchdog.class.getName());
+
+	private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(
+			1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "javaweb-jdbc-query-watchdog");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	});
+
+	private QueryWatchdog() {
+	}
+
+	/**
+	 * 开始监控语句,同时设置驱动的setQueryTimeout(向上取整到秒),监控结束后恢复原来的值
+	 *
+	 * @param statement     执行的语句
+	 * @param sql           SQL语句
+	 * @param timeoutMillis 超时时间(毫秒)
+	 * @return 监控, 语句执行完成后必须调用done()
+	 * @throws SQLException
+	 */
+	static Watch watch(Statement statement, String sql, long timeoutMillis) throws SQLException {
+		int previous = statement.getQueryTimeout();
+		statement.setQueryTimeout((int) ((timeoutMillis + 999) / 1000));
+
+		Watch watch = new Watch(statement, sql, timeoutMillis, previous);
+		watch.future = EXECUTOR.schedule(watch, timeoutMillis, TimeUnit.MILLISECONDS);
+
+		return watch;
+	}
+
+	static class Watch implements Runnable {
+
+		private final Statement statement;
+
+		private final String sql;
+
+		private final long timeoutMillis;
+
+		/**
+		 * 监控前语句的setQueryTimeout值
+		 */
+		private final int previousQueryTimeout;
+
+		private volatile ScheduledFuture<?> future;
+
+		private volatile boolean fired;
+
+		private boolean done;
+
+		Watch(Statement statement, String sql, long timeoutMillis, int previousQueryTimeout) {
+			this.statement = statement;
+			this.sql = sql;
+			this.timeoutMillis = timeoutMillis;
+			this.previousQueryTimeout = previousQueryTimeout;
+		}
+
+		@Override
+		public synchronized void run() {
+			// 和done()互斥,语句执行完成后不会再取消,避免取消缓存中被其他查询复用的Statement
+			if (done) {
+				return;
+			}
+
+			fired = true;
+
+			try {
+				statement.cancel();
+			} catch (SQLException e) {
+				LOG.log(Level.FINE, "取消超时的SQL语句失败: " + e, e);
+			}
+		}
+
+		/**
+		 * 语句执行完成,停止监控并恢复语句的setQueryTimeout值
+		 */
+		void done() {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+
+				done = true;
+			}
+
+			if (future != null && future.cancel(false)) {
+				EXECUTOR.remove((Runnable) future);
+			}
+
+			try {
+				statement.setQueryTimeout(previousQueryTimeout);
+			} catch (SQLException e) {
+				// 语句已关闭
+			}
+		}
+
+		String getSql() {
+			return sql;
+		}
+
+		long getTimeoutMillis() {
+			return timeoutMillis;
+		}
+
+		/**
+		 * 是否因超时取消了语句
+		 *
+		 * @return
+		 */
+		boolean isFired() {
+			return fired;
+		}
+
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.javaweb.jdbc.exception.JDBCRuntimeException;
+import org.javaweb.jdbc.mapper.RowMapper;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 流式查询结果迭代器,每次迭代从数据库游标读取并映射一行,遍历结束或调用close()时关闭结果集、
+ * Statement和查询时获取的数据库连接。提前结束遍历时必须调用close()
+ *
+ * @author yz
+ */
+public class ResultIterator<T> implements Iterator<T>, Closeable {
+
+	private final ResultSet rs;
+
+	private final RowMapper<T> rowMapper;
+
+	/**
+	 * 迭代结束后需要释放的数据库连接,为null时不释放
+	 */
+	private final Connection connection;
+
+	private T nextRow;
+
+	/**
+	 * 已读取的行数,关闭时记录到JdbcMetrics
+	 */
+	private long rows;
+
+	private boolean fetched;
+
+	private boolean closed;
+
+	public ResultIterator(ResultSet rs, RowMapper<T> rowMapper, Connection connection) {
+		this.rs = rs;
+		this.rowMapper = rowMapper;
+		this.connection = connection;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+
+		if (!fetched) {
+			try {
+				if (rs.next()) {
+					rows++;
+					nextRow = rowMapper.mapRow(rs);
+					fetched = true;
+				} else {
+					close();
+				}
+			} catch (SQLException e) {
+				close();
+				throw new JDBCRuntimeException(e);
+			} catch (RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		return fetched;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		T row = nextRow;
+		nextRow = null;
+		fetched = false;
+
+		return row;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+
+			try {
+				SqlHelp.close(rs, rows);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			} finally {
+				if (connection != null) {
+					try {
+						connection.close();
+					} catch (SQLException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+}
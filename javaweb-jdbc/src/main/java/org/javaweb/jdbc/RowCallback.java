@@ -0,0 +1,35 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * 流式查询回调接口,结果集每映射一行调用一次
+ *
+ * @author yz
+ */
+public interface RowCallback<T> {
+
+	/**
+	 * 处理一行映射后的数据
+	 *
+	 * @param row 映射后的实体对象
+	 * @throws SQLException
+	 */
+	void processRow(T row) throws SQLException;
+
+}
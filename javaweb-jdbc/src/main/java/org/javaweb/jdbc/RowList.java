@@ -0,0 +1,71 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.javaweb.jdbc.mapper.ColumnIndex;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * queryForRows查询结果,每行是一个按列顺序保存字段值的Object[],所有行共用同一个ColumnIndex按字段名查找列
+ *
+ * @author yz
+ */
+public class RowList extends AbstractList<Object[]> implements RandomAccess {
+
+	private final ColumnIndex columnIndex;
+
+	private final List<Object[]> rows;
+
+	public RowList(ColumnIndex columnIndex, List<Object[]> rows) {
+		this.columnIndex = columnIndex;
+		this.rows = rows;
+	}
+
+	@Override
+	public Object[] get(int index) {
+		return rows.get(index);
+	}
+
+	@Override
+	public int size() {
+		return rows.size();
+	}
+
+	/**
+	 * 按字段名获取某一行的值
+	 *
+	 * @param row        行号,从0开始
+	 * @param columnName 字段名或别名,不区分大小写并忽略下划线
+	 * @return
+	 */
+	public Object get(int row, String columnName) {
+		int index = columnIndex.indexOf(columnName);
+
+		if (index == -1) {
+			throw new IllegalArgumentException("查询结果中不存在字段: " + columnName);
+		}
+
+		return rows.get(row)[index];
+	}
+
+	public ColumnIndex getColumnIndex() {
+		return columnIndex;
+	}
+
+}
@@ -16,16 +16,114 @@
 package org.javaweb.jdbc;
 
 import com.sun.rowset.CachedRowSetImpl;
+import org.javaweb.jdbc.mapper.RowMapper;
+import org.javaweb.jdbc.metrics.JdbcMetrics;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class SqlHelp {
 
+	/**
+	 * MySQL驱动逐行流式读取结果集时使用的fetchSize
+	 */
+	public static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+	/**
+	 * SQL执行统计,为null时不统计
+	 */
+	private static volatile JdbcMetrics metrics;
+
+	public static JdbcMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * 设置SQL执行统计,所有通过SqlHelp执行的语句都会记录耗时和行数
+	 *
+	 * @param metrics 执行统计,为null时关闭统计
+	 */
+	public static void setMetrics(JdbcMetrics metrics) {
+		SqlHelp.metrics = metrics;
+	}
+
+	/**
+	 * 不在QueryDeadline范围内时语句的默认超时时间(毫秒),小于等于0时不限制
+	 */
+	private static volatile long defaultQueryTimeoutMillis;
+
+	/**
+	 * 未关闭的流式查询结果集的超时监控和执行统计,close(ResultSet, long)时停止监控并记录
+	 */
+	private static final ConcurrentMap<ResultSet, StreamQuery> STREAM_QUERIES =
+			new ConcurrentHashMap<ResultSet, StreamQuery>();
+
+	public static long getDefaultQueryTimeoutMillis() {
+		return defaultQueryTimeoutMillis;
+	}
+
+	/**
+	 * 设置语句的默认超时时间,超时的语句由监控线程调用Statement.cancel()取消并抛出SQLTimeoutException。
+	 * 单次调用的截止时间使用QueryDeadline设置
+	 *
+	 * @param defaultQueryTimeoutMillis 超时时间(毫秒),小于等于0时不限制
+	 */
+	public static void setDefaultQueryTimeoutMillis(long defaultQueryTimeoutMillis) {
+		SqlHelp.defaultQueryTimeoutMillis = defaultQueryTimeoutMillis;
+	}
+
+	/**
+	 * 获取当前线程执行语句的超时时间,截止时间已过时记录超时并抛出SQLTimeoutException
+	 */
+	private static long getTimeoutMillis(JdbcMetrics m, String sql) throws SQLTimeoutException {
+		try {
+			return QueryDeadline.getTimeoutMillis(defaultQueryTimeoutMillis);
+		} catch (SQLTimeoutException e) {
+			if (m != null) {
+				m.recordTimeout(sql);
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * 超时时间大于0时开始监控语句
+	 */
+	private static QueryWatchdog.Watch watch(Statement statement, String sql, long timeoutMillis)
+			throws SQLException {
+
+		return timeoutMillis > 0 ? QueryWatchdog.watch(statement, sql, timeoutMillis) : null;
+	}
+
+	/**
+	 * 语句因超时被取消或驱动抛出SQLTimeoutException时记录超时,被取消的语句转换成SQLTimeoutException
+	 */
+	private static SQLException translateException(JdbcMetrics m, SQLException e, QueryWatchdog.Watch watch) {
+		boolean cancelled = watch != null && watch.isFired();
+
+		if (m != null && (cancelled || e instanceof SQLTimeoutException)) {
+			m.recordTimeout(watch != null ? watch.getSql() : null);
+		}
+
+		if (cancelled && !(e instanceof SQLTimeoutException)) {
+			return new SQLTimeoutException(
+					"SQL执行超过" + watch.getTimeoutMillis() + "ms被取消: " + e.getMessage(),
+					e.getSQLState(), e.getErrorCode(), e
+			);
+		}
+
+		return e;
+	}
+
 	/**
 	 * 执行任意的SQL查询语句并返回结果集
 	 *
@@ -36,8 +134,13 @@ public class SqlHelp {
 	 * @throws SQLException
 	 */
 	public static ResultSet executeQuery(Connection connection, String sql, Object... prr) throws SQLException {
-		PreparedStatement pstt = null;
-		ResultSet         rs   = null;
+		JdbcMetrics         m       = metrics;
+		long                start   = m != null ? System.nanoTime() : 0;
+		long                timeout = getTimeoutMillis(m, sql);
+		int                 rows    = -1;
+		PreparedStatement   pstt    = null;
+		ResultSet           rs      = null;
+		QueryWatchdog.Watch watch   = null;
 
 		try {
 			pstt = connection.prepareStatement(sql);
@@ -47,13 +150,23 @@ public class SqlHelp {
 				pstt.setObject(i + 1, prr[i]);
 			}
 
+			watch = watch(pstt, sql, timeout);
 			rs = pstt.executeQuery();
 			cachedRowSetImpl.populate(rs);
+			rows = cachedRowSetImpl.size();
 
 			return cachedRowSetImpl;
 		} catch (SQLException e) {
-			throw e;
+			throw translateException(m, e, watch);
 		} finally {
+			if (watch != null) {
+				watch.done();
+			}
+
+			if (m != null) {
+				m.recordStatement(sql, prr, System.nanoTime() - start, rows, rows < 0);
+			}
+
 			if (pstt != null) {
 				pstt.close();
 			}
@@ -64,6 +177,126 @@ public class SqlHelp {
 		}
 	}
 
+	/**
+	 * 执行SQL查询语句并返回未缓存的只读、只进结果集,结果集按fetchSize分批从数据库游标读取。
+	 * MySQL数据库会使用Integer.MIN_VALUE开启逐行流式读取,PostgreSQL需要连接关闭自动提交才会使用游标。
+	 * MySQL逐行流式读取期间同一连接不能执行其他语句,所以事务范围(TransactionScope)的连接不开启逐行读取,
+	 * 使用fetchSize(需要连接参数useCursorFetch=true才会使用游标,否则一次读取全部结果)。
+	 * 使用完成后必须调用close(ResultSet, long)关闭结果集和Statement,关闭时记录执行耗时和读取的行数
+	 *
+	 * @param connection 一个已打开的JDBC 连接
+	 * @param fetchSize  每次从数据库读取的行数,小于等于0时使用驱动默认值
+	 * @param sql        需要执行的SQL语句
+	 * @param prr        SQL语句中参数预编译
+	 * @return rs SQL查询结果集
+	 * @throws SQLException
+	 */
+	public static ResultSet executeStreamQuery(Connection connection, int fetchSize, String sql, Object... prr)
+			throws SQLException {
+
+		JdbcMetrics         m       = metrics;
+		long                start   = m != null ? System.nanoTime() : 0;
+		long                timeout = getTimeoutMillis(m, sql);
+		boolean             success = false;
+		PreparedStatement   pstt    = null;
+		QueryWatchdog.Watch watch   = null;
+
+		try {
+			pstt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+			if (Dialect.of(connection) == Dialect.MYSQL && !TransactionScope.isScopedConnection(connection)) {
+				pstt.setFetchSize(MYSQL_STREAMING_FETCH_SIZE);
+			} else if (fetchSize > 0) {
+				pstt.setFetchSize(fetchSize);
+			}
+
+			for (int i = 0; i < prr.length; i++) {
+				pstt.setObject(i + 1, prr[i]);
+			}
+
+			watch = watch(pstt, sql, timeout);
+			ResultSet rs = pstt.executeQuery();
+
+			// 读取结果集期间继续监控,关闭结果集时停止监控并记录执行耗时和读取的行数
+			if (watch != null || m != null) {
+				long nanos = m != null ? System.nanoTime() - start : 0;
+				STREAM_QUERIES.put(rs, new StreamQuery(sql, prr, nanos, watch, m));
+			}
+
+			success = true;
+
+			return rs;
+		} catch (SQLException e) {
+			if (watch != null) {
+				watch.done();
+			}
+
+			if (pstt != null) {
+				pstt.close();
+			}
+
+			throw translateException(m, e, watch);
+		} finally {
+			// 执行成功时在关闭结果集时记录
+			if (m != null && !success) {
+				m.recordStatement(sql, prr, System.nanoTime() - start, -1, true);
+			}
+		}
+	}
+
+	/**
+	 * 关闭结果集和创建结果集的Statement,停止流式查询的超时监控,流式查询记录的行数未知
+	 *
+	 * @param rs 结果集
+	 * @throws SQLException
+	 */
+	public static void close(ResultSet rs) throws SQLException {
+		close(rs, -1);
+	}
+
+	/**
+	 * 关闭结果集和创建结果集的Statement,停止流式查询的超时监控。流式查询记录执行到返回结果集的耗时和读取的行数,
+	 * 超时被取消的查询记录为执行失败
+	 *
+	 * @param rs   结果集
+	 * @param rows 从结果集读取的行数,未知时传-1
+	 * @throws SQLException
+	 */
+	public static void close(ResultSet rs, long rows) throws SQLException {
+		if (rs != null) {
+			StreamQuery query = STREAM_QUERIES.remove(rs);
+
+			if (query != null) {
+				QueryWatchdog.Watch watch = query.watch;
+				JdbcMetrics         m     = query.metrics;
+				boolean             fired = false;
+
+				if (watch != null) {
+					watch.done();
+					fired = watch.isFired();
+
+					if (m != null && fired) {
+						m.recordTimeout(watch.getSql());
+					}
+				}
+
+				if (m != null) {
+					m.recordStatement(query.sql, query.prr, query.nanos, rows, fired);
+				}
+			}
+
+			Statement statement = rs.getStatement();
+
+			try {
+				rs.close();
+			} finally {
+				if (statement != null) {
+					statement.close();
+				}
+			}
+		}
+	}
+
 	/**
 	 * 执行任意的SQL更新语句并影响行数
 	 *
@@ -74,7 +307,12 @@ public class SqlHelp {
 	 * @throws SQLException
 	 */
 	public static int executeUpdate(Connection connection, String sql, Object... prr) throws SQLException {
-		PreparedStatement pstt = null;
+		JdbcMetrics         m       = metrics;
+		long                start   = m != null ? System.nanoTime() : 0;
+		long                timeout = getTimeoutMillis(m, sql);
+		int                 rows    = -1;
+		PreparedStatement   pstt    = null;
+		QueryWatchdog.Watch watch   = null;
 		try {
 			pstt = connection.prepareStatement(sql);
 
@@ -82,10 +320,20 @@ public class SqlHelp {
 				pstt.setObject(i + 1, prr[i]);
 			}
 
-			return pstt.executeUpdate();
+			watch = watch(pstt, sql, timeout);
+
+			return rows = pstt.executeUpdate();
 		} catch (SQLException e) {
-			throw e;
+			throw translateException(m, e, watch);
 		} finally {
+			if (watch != null) {
+				watch.done();
+			}
+
+			if (m != null) {
+				m.recordStatement(sql, prr, System.nanoTime() - start, rows, rows < 0);
+			}
+
 			if (pstt != null) {
 				pstt.close();
 			}
@@ -102,7 +350,13 @@ public class SqlHelp {
 	 * @throws SQLException
 	 */
 	public static int[] executeBatchUpdate(Connection connection, String sql, List<Object[]> parameters) throws SQLException {
-		PreparedStatement pstt = null;
+		JdbcMetrics         m         = metrics;
+		long                start     = m != null ? System.nanoTime() : 0;
+		long                timeout   = getTimeoutMillis(m, sql);
+		int                 batchSize = parameters.size();
+		int[]               counts    = null;
+		PreparedStatement   pstt      = null;
+		QueryWatchdog.Watch watch     = null;
 		try {
 			pstt = connection.prepareStatement(sql);
 
@@ -116,14 +370,175 @@ public class SqlHelp {
 				pstt.addBatch();
 				it.remove();
 			}
-			return pstt.executeBatch();
+
+			watch = watch(pstt, sql, timeout);
+
+			return counts = pstt.executeBatch();
 		} catch (SQLException e) {
-			throw e;
+			throw translateException(m, e, watch);
 		} finally {
+			if (watch != null) {
+				watch.done();
+			}
+
+			if (m != null) {
+				m.recordBatch(sql, batchSize, System.nanoTime() - start, sumRows(counts), counts == null);
+			}
+
 			if (pstt != null) {
 				pstt.close();
 			}
 		}
 	}
 
+	/**
+	 * 执行插入语句并按插入顺序读取数据库生成的主键,执行后会清空传入的参数List对象。
+	 * batch为true时批量执行后一次读取所有生成的主键,否则逐行执行并读取,某行没有返回主键时添加null
+	 *
+	 * @param connection 一个已打开的JDBC 连接
+	 * @param sql        需要执行的SQL语句
+	 * @param parameters SQL语句中参数预编译
+	 * @param batch      是否批量执行,驱动支持批量执行后返回所有生成的主键时使用
+	 * @param keyMapper  生成主键结果集的行映射
+	 * @param keys       按插入顺序添加生成的主键
+	 * @param <K>
+	 * @return 每行的影响行数
+	 * @throws SQLException
+	 */
+	public static <K> int[] executeInsertWithKeys(Connection connection, String sql, List<Object[]> parameters,
+	                                              boolean batch, RowMapper<K> keyMapper, List<K> keys)
+			throws SQLException {
+
+		JdbcMetrics         m         = metrics;
+		long                start     = m != null ? System.nanoTime() : 0;
+		long                timeout   = getTimeoutMillis(m, sql);
+		int                 batchSize = parameters.size();
+		int[]               counts    = null;
+		PreparedStatement   pstt      = null;
+		QueryWatchdog.Watch watch     = null;
+		try {
+			pstt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			watch = watch(pstt, sql, timeout);
+
+			if (batch) {
+				for (Iterator<Object[]> it = parameters.iterator(); it.hasNext(); ) {
+					setParameters(pstt, it.next());
+					pstt.addBatch();
+					it.remove();
+				}
+
+				int[] results = pstt.executeBatch();
+				readGeneratedKeys(pstt, keyMapper, keys, false);
+
+				return counts = results;
+			}
+
+			int[] results = new int[batchSize];
+
+			for (int i = 0; i < batchSize; i++) {
+				setParameters(pstt, parameters.get(i));
+				results[i] = pstt.executeUpdate();
+				readGeneratedKeys(pstt, keyMapper, keys, true);
+			}
+
+			parameters.clear();
+
+			return counts = results;
+		} catch (SQLException e) {
+			throw translateException(m, e, watch);
+		} finally {
+			if (watch != null) {
+				watch.done();
+			}
+
+			if (m != null) {
+				m.recordBatch(sql, batchSize, System.nanoTime() - start, sumRows(counts), counts == null);
+			}
+
+			if (pstt != null) {
+				pstt.close();
+			}
+		}
+	}
+
+	private static void setParameters(PreparedStatement pstt, Object[] parameters) throws SQLException {
+		for (int i = 0; i < parameters.length; i++) {
+			pstt.setObject(i + 1, parameters[i]);
+		}
+	}
+
+	/**
+	 * 读取getGeneratedKeys()返回的主键,single为true时只读取一行,没有返回主键时添加null
+	 */
+	private static <K> void readGeneratedKeys(Statement statement, RowMapper<K> keyMapper, List<K> keys,
+	                                          boolean single) throws SQLException {
+
+		ResultSet rs    = statement.getGeneratedKeys();
+		boolean   found = false;
+
+		if (rs != null) {
+			try {
+				while ((!single || !found) && rs.next()) {
+					keys.add(keyMapper.mapRow(rs));
+					found = true;
+				}
+			} finally {
+				rs.close();
+			}
+		}
+
+		if (single && !found) {
+			keys.add(null);
+		}
+	}
+
+	/**
+	 * 批量更新影响的总行数,驱动未返回行数时返回-1
+	 */
+	private static long sumRows(int[] counts) {
+		long rows = 0;
+
+		if (counts == null) {
+			return -1;
+		}
+
+		for (int count : counts) {
+			if (count < 0) {
+				return -1;
+			}
+
+			rows += count;
+		}
+
+		return rows;
+	}
+
+	/**
+	 * 未关闭的流式查询,关闭结果集时使用
+	 */
+	private static class StreamQuery {
+
+		private final String sql;
+
+		private final Object[] prr;
+
+		/**
+		 * 执行到返回结果集的耗时(纳秒)
+		 */
+		private final long nanos;
+
+		private final QueryWatchdog.Watch watch;
+
+		private final JdbcMetrics metrics;
+
+		StreamQuery(String sql, Object[] prr, long nanos, QueryWatchdog.Watch watch, JdbcMetrics metrics) {
+			this.sql = sql;
+			this.prr = prr;
+			this.nanos = nanos;
+			this.watch = watch;
+			this.metrics = metrics;
+		}
+
+	}
+
 }
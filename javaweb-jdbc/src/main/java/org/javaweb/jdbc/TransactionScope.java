@@ -0,0 +1,443 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 线程绑定的事务范围,范围内同一个DataSource只使用一个数据库连接,JdbcTemplate的所有方法都使用该连接执行,
+ * 使用SqlHelp时通过getConnection(DataSource)获取连接。未调用commit()就close()时回滚事务,
+ * 在已有事务范围的线程中对同一个DataSource再次begin()时使用保存点实现嵌套事务:
+ * <pre>
+ * TransactionScope tx = TransactionScope.begin(dataSource);
+ *
+ * try {
+ *     jdbcTemplate.update(...);
+ *     jdbcTemplate.update(...);
+ *     tx.commit();
+ * } finally {
+ *     tx.close();
+ * }
+ * </pre>
+ * 异步查询、并行count等在其他线程中执行的操作不在事务范围内
+ *
+ * @author yz
+ */
+public class TransactionScope {
+
+	private static final ThreadLocal<TransactionScope> CURRENT = new ThreadLocal<TransactionScope>();
+
+	private final DataSource dataSource;
+
+	/**
+	 * 物理连接,关闭范围时释放
+	 */
+	private final Connection connection;
+
+	/**
+	 * 提供给调用方的连接代理,close()、commit()、rollback()和setAutoCommit()由事务范围管理
+	 */
+	private final Connection scopedConnection;
+
+	/**
+	 * 外层事务范围,可能属于其他DataSource
+	 */
+	private final TransactionScope parent;
+
+	/**
+	 * 嵌套事务的保存点,最外层事务为null
+	 */
+	private final Savepoint savepoint;
+
+	private final boolean autoCommit;
+
+	private final Thread owner;
+
+	/**
+	 * 事务提交后执行的回调,嵌套事务提交时移交给外层事务,回滚时丢弃
+	 */
+	private List<Runnable> commitCallbacks;
+
+	private boolean completed;
+
+	private boolean closed;
+
+	private TransactionScope(DataSource dataSource, Connection connection, Connection scopedConnection,
+	                         TransactionScope parent, Savepoint savepoint, boolean autoCommit) {
+
+		this.dataSource = dataSource;
+		this.connection = connection;
+		this.scopedConnection = scopedConnection;
+		this.parent = parent;
+		this.savepoint = savepoint;
+		this.autoCommit = autoCommit;
+		this.owner = Thread.currentThread();
+	}
+
+	/**
+	 * 开始事务并绑定到当前线程,当前线程已有该DataSource的事务时创建保存点作为嵌套事务
+	 *
+	 * @param dataSource 数据源
+	 * @return 事务范围, 使用完成后必须调用close()
+	 * @throws SQLException
+	 */
+	public static TransactionScope begin(DataSource dataSource) throws SQLException {
+		TransactionScope current = CURRENT.get();
+		TransactionScope outer   = find(dataSource);
+		TransactionScope scope;
+
+		if (outer != null) {
+			Savepoint savepoint = outer.connection.setSavepoint();
+			scope = new TransactionScope(
+					dataSource, outer.connection, outer.scopedConnection, current, savepoint, false
+			);
+		} else {
+			Connection conn = dataSource.getConnection();
+
+			try {
+				boolean autoCommit = conn.getAutoCommit();
+
+				if (autoCommit) {
+					conn.setAutoCommit(false);
+				}
+
+				scope = new TransactionScope(dataSource, conn, newScopedConnection(conn), current, null, autoCommit);
+			} catch (SQLException e) {
+				conn.close();
+				throw e;
+			}
+		}
+
+		CURRENT.set(scope);
+
+		return scope;
+	}
+
+	/**
+	 * 获取当前线程中DataSource所在事务的连接
+	 *
+	 * @param dataSource 数据源
+	 * @return 事务连接, 不在事务范围内时返回null
+	 */
+	public static Connection getBoundConnection(DataSource dataSource) {
+		TransactionScope scope = find(dataSource);
+
+		return scope != null ? scope.scopedConnection : null;
+	}
+
+	/**
+	 * 获取数据库连接,在事务范围内时返回事务连接,否则从DataSource获取新连接。两种情况使用完成后都调用close(),
+	 * 事务连接的close()不会释放连接
+	 *
+	 * @param dataSource 数据源
+	 * @return 数据库连接
+	 * @throws SQLException
+	 */
+	public static Connection getConnection(DataSource dataSource) throws SQLException {
+		Connection conn = getBoundConnection(dataSource);
+
+		return conn != null ? conn : dataSource.getConnection();
+	}
+
+	/**
+	 * 当前线程是否在DataSource的事务范围内
+	 *
+	 * @param dataSource 数据源
+	 * @return
+	 */
+	public static boolean isActive(DataSource dataSource) {
+		return find(dataSource) != null;
+	}
+
+	/**
+	 * 当前线程最内层的事务范围
+	 *
+	 * @return 不在事务范围内时返回null
+	 */
+	public static TransactionScope current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * 在DataSource所在事务提交后执行回调,不在事务范围内时立即执行。回调在最外层事务提交后执行,
+	 * 当前事务或任意外层事务回滚时不执行
+	 *
+	 * @param dataSource 数据源
+	 * @param callback   回调
+	 */
+	static void afterCommit(DataSource dataSource, Runnable callback) {
+		TransactionScope scope = find(dataSource);
+
+		if (scope == null) {
+			callback.run();
+		} else {
+			scope.addCommitCallbacks(Collections.singletonList(callback));
+		}
+	}
+
+	private void addCommitCallbacks(List<Runnable> callbacks) {
+		if (commitCallbacks == null) {
+			commitCallbacks = new ArrayList<Runnable>();
+		}
+
+		commitCallbacks.addAll(callbacks);
+	}
+
+	/**
+	 * 是否是事务范围的连接,事务范围内的语句共用一个连接
+	 *
+	 * @param connection 数据库连接
+	 * @return
+	 */
+	static boolean isScopedConnection(Connection connection) {
+		return Proxy.isProxyClass(connection.getClass()) &&
+				Proxy.getInvocationHandler(connection) instanceof ScopedConnectionHandler;
+	}
+
+	private static TransactionScope find(DataSource dataSource) {
+		return dataSource != null ? find(CURRENT.get(), dataSource) : null;
+	}
+
+	private static TransactionScope find(TransactionScope scope, DataSource dataSource) {
+		while (scope != null && scope.dataSource != dataSource) {
+			scope = scope.parent;
+		}
+
+		return scope;
+	}
+
+	/**
+	 * 提交事务,嵌套事务释放保存点,由外层事务统一提交
+	 *
+	 * @throws SQLException
+	 */
+	public void commit() throws SQLException {
+		checkActive();
+
+		if (savepoint != null) {
+			releaseSavepoint(savepoint);
+
+			if (commitCallbacks != null) {
+				find(parent, dataSource).addCommitCallbacks(commitCallbacks);
+				commitCallbacks = null;
+			}
+		} else {
+			connection.commit();
+
+			if (commitCallbacks != null) {
+				for (Runnable callback : commitCallbacks) {
+					callback.run();
+				}
+
+				commitCallbacks = null;
+			}
+		}
+
+		completed = true;
+	}
+
+	/**
+	 * 回滚事务,嵌套事务回滚到开始时的保存点
+	 *
+	 * @throws SQLException
+	 */
+	public void rollback() throws SQLException {
+		checkActive();
+		completed = true;
+		commitCallbacks = null;
+
+		if (savepoint != null) {
+			connection.rollback(savepoint);
+		} else {
+			connection.rollback();
+		}
+	}
+
+	/**
+	 * 在事务中创建保存点
+	 *
+	 * @param name 保存点名称,为null时创建匿名保存点
+	 * @return 保存点
+	 * @throws SQLException
+	 */
+	public Savepoint setSavepoint(String name) throws SQLException {
+		checkActive();
+
+		return name != null ? connection.setSavepoint(name) : connection.setSavepoint();
+	}
+
+	/**
+	 * 回滚到保存点,事务继续有效
+	 *
+	 * @param savepoint 保存点
+	 * @throws SQLException
+	 */
+	public void rollback(Savepoint savepoint) throws SQLException {
+		checkActive();
+		connection.rollback(savepoint);
+	}
+
+	/**
+	 * 释放保存点,部分数据库不支持时忽略
+	 *
+	 * @param savepoint 保存点
+	 * @throws SQLException
+	 */
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		checkActive();
+
+		try {
+			connection.releaseSavepoint(savepoint);
+		} catch (SQLException e) {
+			if (!(e instanceof SQLFeatureNotSupportedException)) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * 结束事务范围,未提交或回滚时回滚事务。最外层事务恢复连接自动提交状态并释放连接
+	 *
+	 * @throws SQLException
+	 */
+	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+
+		if (CURRENT.get() != this) {
+			throw new SQLException("事务范围必须在创建线程中按嵌套顺序关闭.");
+		}
+
+		closed = true;
+
+		if (parent != null) {
+			CURRENT.set(parent);
+		} else {
+			CURRENT.remove();
+		}
+
+		if (savepoint != null) {
+			if (!completed) {
+				connection.rollback(savepoint);
+			}
+
+			return;
+		}
+
+		try {
+			if (!completed) {
+				connection.rollback();
+			}
+		} finally {
+			try {
+				if (autoCommit) {
+					connection.setAutoCommit(true);
+				}
+			} finally {
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * 事务范围使用的连接,调用方不能关闭连接或修改提交方式
+	 *
+	 * @return
+	 */
+	public Connection getConnection() {
+		return scopedConnection;
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * 是否是嵌套事务
+	 *
+	 * @return
+	 */
+	public boolean isNested() {
+		return savepoint != null;
+	}
+
+	private void checkActive() throws SQLException {
+		if (closed || completed) {
+			throw new SQLException("事务已" + (closed ? "关闭" : "结束") + ".");
+		}
+
+		if (Thread.currentThread() != owner) {
+			throw new SQLException("事务范围只能在创建线程中使用.");
+		}
+	}
+
+	private static Connection newScopedConnection(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new ScopedConnectionHandler(connection)
+		);
+	}
+
+	/**
+	 * 事务连接代理,close()不释放连接,commit()、rollback()和setAutoCommit()由事务范围调用
+	 */
+	private static class ScopedConnectionHandler implements InvocationHandler {
+
+		private final Connection connection;
+
+		ScopedConnectionHandler(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			if ("close".equals(name)) {
+				return null;
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "TransactionScope[" + connection + "]";
+			} else if ("setAutoCommit".equals(name) || ("commit".equals(name) || "rollback".equals(name)) &&
+					(args == null || args.length == 0)) {
+
+				throw new SQLException("事务范围内的连接不能调用" + name + "(),请使用TransactionScope提交或回滚.");
+			}
+
+			try {
+				return method.invoke(connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.javaweb.jdbc.exception.JDBCIDException;
+import org.javaweb.jdbc.mapper.EntityMetadata;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 实体对象延迟写入缓冲,适用于计数器、最后访问时间等频繁更新同一行的场景。update(Object)只记录实体对象当前的字段值,
+ * 同一个(实体类, 主键)在刷新前的多次更新合并成最后一次,按flushIntervalMillis定时或待写入数量达到flushThreshold时
+ * 在后台线程中通过JdbcTemplate批量更新。待写入数量达到maxPending时新的主键需要等待同步刷新完成,
+ * 调用线程在TransactionScope中时在后台线程中刷新,不使用调用线程的事务连接;刷新失败(如数据库不可用)时拒绝新的主键,已缓冲主键的更新仍然合并,内存占用有上限。
+ * start()后注册JVM关闭钩子,关闭时刷新未写入的数据。刷新失败的数据重新放回缓冲,除非期间已有更新的值
+ *
+ * @author yz
+ */
+public class WriteBehindBuffer {
+
+	private static final Logger LOG = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * 待写入的更新,key为(实体类, 主键)
+	 */
+	private final ConcurrentMap<PendingKey, PendingUpdate> pending =
+			new ConcurrentHashMap<PendingKey, PendingUpdate>();
+
+	private final AtomicInteger pendingCount = new AtomicInteger();
+
+	/**
+	 * 同一时间只有一个线程刷新
+	 */
+	private final Object flushLock = new Object();
+
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+	private final AtomicLong submittedCount = new AtomicLong();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	private final AtomicLong writtenCount = new AtomicLong();
+
+	private final AtomicLong flushCount = new AtomicLong();
+
+	private final AtomicLong failedFlushCount = new AtomicLong();
+
+	/**
+	 * 定时刷新间隔
+	 */
+	private long flushIntervalMillis = 1000;
+
+	/**
+	 * 待写入数量达到该值时在后台线程中立即刷新
+	 */
+	private int flushThreshold = 1000;
+
+	/**
+	 * 待写入的最大数量,达到该值时新的主键等待同步刷新,刷新失败时拒绝
+	 */
+	private int maxPending = 10000;
+
+	private ScheduledExecutorService scheduler;
+
+	private Thread shutdownHook;
+
+	public WriteBehindBuffer(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * 启动定时刷新并注册JVM关闭钩子
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "javaweb-jdbc-write-behind");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flushQuietly();
+			}
+		}, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+		shutdownHook = new Thread("javaweb-jdbc-write-behind-shutdown") {
+			@Override
+			public void run() {
+				flushQuietly();
+			}
+		};
+
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * 记录实体对象的更新,实体类需要添加@Table注解并配置主键。记录的是调用时所有允许更新字段的值,之后修改实体对象不影响写入
+	 *
+	 * @param entity 实体对象
+	 * @throws SQLException 实体类映射异常、主键为空或缓冲已满且同步刷新失败,同步刷新失败时本次更新没有被记录
+	 */
+	public void update(Object entity) throws SQLException {
+		EntityMetadata metadata = EntityMetadata.of(entity.getClass());
+		Object         id       = metadata.requireIdProperty().getValue(entity);
+
+		if (metadata.isIdAbsent(entity)) {
+			throw new JDBCIDException("JDBC字段映射异常,数据表[" + metadata.getTableName() + "]ID值不能为空.");
+		}
+
+		if (metadata.getUpdatableProperties().isEmpty()) {
+			return;
+		}
+
+		PendingKey    key    = new PendingKey(metadata.getEntityClass(), IdentityScope.normalizeId(id));
+		PendingUpdate update = new PendingUpdate(key, metadata, metadata.getUpdateParameters(entity));
+		submittedCount.incrementAndGet();
+
+		// 已缓冲的主键直接替换,不增加内存占用
+		if (pending.replace(key, update) != null) {
+			coalescedCount.incrementAndGet();
+			return;
+		}
+
+		if (pendingCount.get() >= maxPending) {
+			flushOutsideScope();
+		}
+
+		if (pending.put(key, update) != null) {
+			coalescedCount.incrementAndGet();
+			return;
+		}
+
+		if (pendingCount.incrementAndGet() >= flushThreshold) {
+			requestFlush();
+		}
+	}
+
+	/**
+	 * 立即写入所有待写入的更新
+	 *
+	 * @return 影响行数
+	 * @throws SQLException 部分实体类写入失败,失败的更新已放回缓冲
+	 */
+	public int flush() throws SQLException {
+		synchronized (flushLock) {
+			flushRequested.set(false);
+			Map<EntityMetadata, List<PendingUpdate>> groups = drain();
+
+			if (groups.isEmpty()) {
+				return 0;
+			}
+
+			SQLException error = null;
+			int          count = 0;
+
+			for (Map.Entry<EntityMetadata, List<PendingUpdate>> entry : groups.entrySet()) {
+				List<PendingUpdate> updates    = entry.getValue();
+				List<Object[]>      parameters = new ArrayList<Object[]>(updates.size());
+
+				for (PendingUpdate update : updates) {
+					parameters.add(update.parameters);
+				}
+
+				try {
+					count += jdbcTemplate.batchUpdateParameters(entry.getKey(), parameters);
+					writtenCount.addAndGet(updates.size());
+				} catch (SQLException e) {
+					failedFlushCount.incrementAndGet();
+					requeue(updates);
+
+					if (error == null) {
+						error = e;
+					}
+				}
+			}
+
+			flushCount.incrementAndGet();
+
+			if (error != null) {
+				throw error;
+			}
+
+			return count;
+		}
+	}
+
+	/**
+	 * 停止定时刷新,写入所有待写入的更新并移除JVM关闭钩子
+	 *
+	 * @throws SQLException
+	 */
+	public void close() throws SQLException {
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdown();
+				scheduler = null;
+			}
+
+			if (shutdownHook != null) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException e) {
+					// JVM正在关闭,由关闭钩子刷新
+				}
+
+				shutdownHook = null;
+			}
+		}
+
+		flush();
+	}
+
+	/**
+	 * 同步刷新,调用线程在事务范围内时在后台线程中刷新并等待完成,避免使用调用线程的事务连接
+	 */
+	private void flushOutsideScope() throws SQLException {
+		if (TransactionScope.current() == null) {
+			flush();
+			return;
+		}
+
+		ScheduledExecutorService executor;
+
+		synchronized (this) {
+			executor = scheduler;
+		}
+
+		FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+			@Override
+			public Integer call() throws SQLException {
+				return flush();
+			}
+		});
+
+		try {
+			if (executor != null) {
+				executor.execute(task);
+			} else {
+				startThread(task);
+			}
+		} catch (RejectedExecutionException e) {
+			startThread(task);
+		}
+
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("等待延迟写入刷新时线程被中断.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+
+			throw new SQLException("延迟写入刷新异常: " + cause, cause);
+		}
+	}
+
+	private static void startThread(Runnable task) {
+		Thread thread = new Thread(task, "javaweb-jdbc-write-behind-flush");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void requestFlush() {
+		ScheduledExecutorService executor;
+
+		synchronized (this) {
+			executor = scheduler;
+		}
+
+		if (executor != null && flushRequested.compareAndSet(false, true)) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						flushQuietly();
+					}
+				});
+			} catch (RuntimeException e) {
+				flushRequested.set(false);
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (SQLException e) {
+			LOG.log(Level.WARNING, "延迟写入刷新失败,待写入的更新已放回缓冲: " + e, e);
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "延迟写入刷新异常: " + e, e);
+		}
+	}
+
+	/**
+	 * 取出所有待写入的更新,按实体类分组
+	 */
+	private Map<EntityMetadata, List<PendingUpdate>> drain() {
+		Map<EntityMetadata, List<PendingUpdate>> groups = new LinkedHashMap<EntityMetadata, List<PendingUpdate>>();
+
+		for (Map.Entry<PendingKey, PendingUpdate> entry : pending.entrySet()) {
+			PendingUpdate update = entry.getValue();
+
+			if (pending.remove(entry.getKey(), update)) {
+				pendingCount.decrementAndGet();
+				List<PendingUpdate> list = groups.get(update.metadata);
+
+				if (list == null) {
+					list = new ArrayList<PendingUpdate>();
+					groups.put(update.metadata, list);
+				}
+
+				list.add(update);
+			}
+		}
+
+		return groups;
+	}
+
+	/**
+	 * 写入失败的更新放回缓冲,期间已有新的更新时丢弃旧值
+	 */
+	private void requeue(List<PendingUpdate> updates) {
+		for (PendingUpdate update : updates) {
+			if (pending.putIfAbsent(update.key, update) == null) {
+				pendingCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * 待写入的更新数量
+	 *
+	 * @return
+	 */
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 * 调用update的次数
+	 *
+	 * @return
+	 */
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	/**
+	 * 被后续更新合并而没有写入数据库的更新次数
+	 *
+	 * @return
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * 已写入数据库的更新次数
+	 *
+	 * @return
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	public long getFailedFlushCount() {
+		return failedFlushCount.get();
+	}
+
+	public long getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+
+	/**
+	 * 设置定时刷新间隔,start()前设置有效
+	 *
+	 * @param flushIntervalMillis 刷新间隔(毫秒)
+	 */
+	public void setFlushIntervalMillis(long flushIntervalMillis) {
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	public int getFlushThreshold() {
+		return flushThreshold;
+	}
+
+	public void setFlushThreshold(int flushThreshold) {
+		this.flushThreshold = flushThreshold;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehindBuffer{pending=" + getPendingCount() + ", submitted=" + getSubmittedCount() +
+				", coalesced=" + getCoalescedCount() + ", written=" + getWrittenCount() +
+				", flushes=" + getFlushCount() + ", failedFlushes=" + getFailedFlushCount() + "}";
+	}
+
+	private static class PendingKey {
+
+		private final Class<?> entityClass;
+
+		private final Object id;
+
+		PendingKey(Class<?> entityClass, Object id) {
+			this.entityClass = entityClass;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+
+			if (!(o instanceof PendingKey)) {
+				return false;
+			}
+
+			PendingKey that = (PendingKey) o;
+
+			return entityClass == that.entityClass && id.equals(that.id);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * entityClass.hashCode() + id.hashCode();
+		}
+
+	}
+
+	private static class PendingUpdate {
+
+		private final PendingKey key;
+
+		private final EntityMetadata metadata;
+
+		/**
+		 * 更新语句参数,允许更新的字段值在前,主键值在最后
+		 */
+		private final Object[] parameters;
+
+		PendingUpdate(PendingKey key, EntityMetadata metadata, Object[] parameters) {
+			this.key = key;
+			this.metadata = metadata;
+			this.parameters = parameters;
+		}
+
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.bulk;
+
+/**
+ * 批量导入统计
+ *
+ * @author yz
+ */
+public class BulkLoadStats {
+
+	private final long rowsRead;
+
+	private final long rowsWritten;
+
+	private final long batches;
+
+	private final long commits;
+
+	private final long elapsedMillis;
+
+	/**
+	 * 读取数据时等待写入线程的时间,反映写入速度跟不上读取速度时的反压
+	 */
+	private final long producerWaitMillis;
+
+	public BulkLoadStats(long rowsRead, long rowsWritten, long batches, long commits,
+	                     long elapsedMillis, long producerWaitMillis) {
+
+		this.rowsRead = rowsRead;
+		this.rowsWritten = rowsWritten;
+		this.batches = batches;
+		this.commits = commits;
+		this.elapsedMillis = elapsedMillis;
+		this.producerWaitMillis = producerWaitMillis;
+	}
+
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+
+	public long getBatches() {
+		return batches;
+	}
+
+	public long getCommits() {
+		return commits;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public long getProducerWaitMillis() {
+		return producerWaitMillis;
+	}
+
+	/**
+	 * 每秒写入行数
+	 *
+	 * @return
+	 */
+	public double getRowsPerSecond() {
+		return elapsedMillis > 0 ? rowsWritten * 1000D / elapsedMillis : rowsWritten;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkLoadStats{rowsRead=" + rowsRead + ", rowsWritten=" + rowsWritten + ", batches=" + batches +
+				", commits=" + commits + ", elapsedMillis=" + elapsedMillis +
+				", producerWaitMillis=" + producerWaitMillis +
+				", rowsPerSecond=" + String.format("%.1f", getRowsPerSecond()) + "}";
+	}
+
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.bulk;
+
+import org.javaweb.jdbc.QueryDeadline;
+import org.javaweb.jdbc.SqlHelp;
+import org.javaweb.jdbc.mapper.EntityMetadata;
+import org.javaweb.jdbc.mapper.EntityProperty;
+import org.javaweb.jdbc.mapper.RowMapperFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * 并行批量导入,读取线程流式解析数据并按batchSize分批放入有界队列,多个写入线程各自使用一个数据库连接执行批量插入,
+ * 每写入commitSize行提交一次。队列已满时读取线程等待写入线程(反压),内存中最多只有queueCapacity个批次的数据。
+ * 任一写入线程失败或读取数据失败时停止读取,写入线程回滚未提交的数据后结束,已提交的数据不会回滚。
+ * 写入线程通过SqlHelp执行插入,使用当前线程的查询截止时间(QueryDeadline)
+ *
+ * @author yz
+ */
+public class BulkLoader {
+
+	private static final Logger LOG = Logger.getLogger(BulkLoader.class.getName());
+
+	/**
+	 * 通知写入线程结束的空批次
+	 */
+	private static final List<Object[]> END_OF_DATA = new ArrayList<Object[]>(0);
+
+	private final DataSource dataSource;
+
+	/**
+	 * 导入的实体类,按SQL导入时为null
+	 */
+	private final Class<?> entityClass;
+
+	/**
+	 * 按位置绑定参数的插入语句,导入实体类时根据CSV表头生成
+	 */
+	private final String sql;
+
+	/**
+	 * 写入线程数
+	 */
+	private int threads = 4;
+
+	/**
+	 * 每批执行的行数
+	 */
+	private int batchSize = 1000;
+
+	/**
+	 * 每个写入线程每写入多少行提交一次
+	 */
+	private int commitSize = 10000;
+
+	/**
+	 * 等待写入的最大批次数
+	 */
+	private int queueCapacity = 16;
+
+	/**
+	 * CSV字段分隔符
+	 */
+	private char delimiter = ',';
+
+	/**
+	 * 按SQL导入CSV时是否跳过第一行表头
+	 */
+	private boolean skipHeader;
+
+	/**
+	 * 导入@Table实体类对应的表,CSV第一行必须是表头,表头按字段名或成员变量名(不区分大小写并忽略下划线)匹配,未匹配的列被忽略
+	 *
+	 * @param dataSource  数据源
+	 * @param entityClass 添加了@Table注解的实体类
+	 */
+	public BulkLoader(DataSource dataSource, Class<?> entityClass) {
+		this.dataSource = dataSource;
+		this.entityClass = entityClass;
+		this.sql = null;
+	}
+
+	/**
+	 * 使用插入语句导入,每行数据按位置绑定参数
+	 *
+	 * @param dataSource 数据源
+	 * @param sql        插入语句,如: insert into t (a, b) values (?, ?)
+	 */
+	public BulkLoader(DataSource dataSource, String sql) {
+		this.dataSource = dataSource;
+		this.entityClass = null;
+		this.sql = sql;
+	}
+
+	/**
+	 * 导入CSV数据
+	 *
+	 * @param reader CSV字符流,导入完成后关闭
+	 * @return 导入统计
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public BulkLoadStats loadCsv(Reader reader) throws SQLException, IOException {
+		final CsvReader csv = new CsvReader(reader, delimiter);
+
+		try {
+			String insertSql = sql;
+			final Class<?>[] types;
+
+			if (entityClass != null) {
+				String[] header = csv.readRecord();
+
+				if (header == null) {
+					return new BulkLoadStats(0, 0, 0, 0, 0, 0);
+				}
+
+				EntityProperty[] properties = mapHeader(EntityMetadata.of(entityClass), header);
+				insertSql = buildInsertSql(EntityMetadata.of(entityClass).getTableName(), properties);
+				types = new Class<?>[header.length];
+
+				for (int i = 0; i < properties.length; i++) {
+					types[i] = properties[i] != null ? properties[i].getType() : null;
+				}
+			} else {
+				types = null;
+
+				if (skipHeader) {
+					csv.readRecord();
+				}
+			}
+
+			return run(insertSql, new RecordSource() {
+				@Override
+				public Object[] next() throws IOException {
+					String[] record = csv.readRecord();
+
+					return record != null && types != null ? convertRecord(record, types) : record;
+				}
+			});
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * 使用插入语句导入任意数据,每行数据按位置绑定参数,只支持使用SQL创建的BulkLoader
+	 *
+	 * @param rows 数据
+	 * @return 导入统计
+	 * @throws SQLException
+	 */
+	public BulkLoadStats load(final Iterator<Object[]> rows) throws SQLException {
+		if (sql == null) {
+			throw new SQLException("导入实体类时只支持CSV数据.");
+		}
+
+		try {
+			return run(sql, new RecordSource() {
+				@Override
+				public Object[] next() {
+					return rows.hasNext() ? rows.next() : null;
+				}
+			});
+		} catch (IOException e) {
+			throw new SQLException("读取导入数据异常: " + e, e);
+		}
+	}
+
+	private BulkLoadStats run(final String insertSql, RecordSource source) throws SQLException, IOException {
+		final BlockingQueue<List<Object[]>> queue    = new ArrayBlockingQueue<List<Object[]>>(Math.max(1, queueCapacity));
+		final AtomicReference<Throwable>    failure  = new AtomicReference<Throwable>();
+		final AtomicLong                    written  = new AtomicLong();
+		final AtomicLong                    batches  = new AtomicLong();
+		final AtomicLong                    commits  = new AtomicLong();
+		final QueryDeadline                 deadline = QueryDeadline.current();
+		int                                 workers  = Math.max(1, threads);
+		int                                 size     = Math.max(1, batchSize);
+		ExecutorService                     pool     = Executors.newFixedThreadPool(workers, newThreadFactory());
+		List<Future<?>>                     futures  = new ArrayList<Future<?>>();
+		long                                start    = System.currentTimeMillis();
+		long                                read     = 0;
+		long                                waited   = 0;
+
+		try {
+			for (int i = 0; i < workers; i++) {
+				futures.add(pool.submit(new Writer(insertSql, queue, failure, written, batches, commits, deadline)));
+			}
+
+			List<Object[]> batch = new ArrayList<Object[]>(size);
+			Object[]       record;
+
+			try {
+				while (failure.get() == null && (record = source.next()) != null) {
+					batch.add(record);
+					read++;
+
+					if (batch.size() >= size) {
+						waited += enqueue(queue, batch, failure);
+						batch = new ArrayList<Object[]>(size);
+					}
+				}
+
+				if (!batch.isEmpty()) {
+					waited += enqueue(queue, batch, failure);
+				}
+			} catch (IOException e) {
+				// 读取失败时先记录失败再放入结束标记,写入线程回滚未提交的数据
+				failure.compareAndSet(null, e);
+			} catch (RuntimeException e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				if (failure.get() != null) {
+					queue.clear();
+				}
+
+				for (int i = 0; i < workers; i++) {
+					queue.put(END_OF_DATA);
+				}
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		} catch (ExecutionException e) {
+			failure.compareAndSet(null, e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		BulkLoadStats stats = new BulkLoadStats(
+				read, written.get(), batches.get(), commits.get(), System.currentTimeMillis() - start, waited
+		);
+
+		Throwable t = failure.get();
+
+		if (t != null) {
+			LOG.warning("批量导入失败: " + t + ", " + stats);
+
+			if (t instanceof SQLException) {
+				throw (SQLException) t;
+			} else if (t instanceof IOException) {
+				throw (IOException) t;
+			}
+
+			throw new SQLException("批量导入失败: " + t, t);
+		}
+
+		LOG.info("批量导入完成: " + stats);
+
+		return stats;
+	}
+
+	/**
+	 * 放入队列,队列已满时等待写入线程,写入线程失败时放弃
+	 *
+	 * @return 等待时间
+	 */
+	private static long enqueue(BlockingQueue<List<Object[]>> queue, List<Object[]> batch,
+	                            AtomicReference<Throwable> failure) throws InterruptedException {
+
+		if (queue.offer(batch)) {
+			return 0;
+		}
+
+		long start = System.currentTimeMillis();
+
+		while (failure.get() == null && !queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+			// 等待写入线程
+		}
+
+		return System.currentTimeMillis() - start;
+	}
+
+	private static ThreadFactory newThreadFactory() {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "javaweb-jdbc-bulk-" + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * CSV表头和实体类成员变量的映射,未匹配的列为null
+	 */
+	private static EntityProperty[] mapHeader(EntityMetadata metadata, String[] header) throws SQLException {
+		EntityProperty[] properties = new EntityProperty[header.length];
+		int              mapped     = 0;
+
+		for (int i = 0; i < header.length; i++) {
+			String name = RowMapperFactory.normalizeColumnName(header[i].trim());
+
+			for (EntityProperty property : metadata.getProperties()) {
+				if (name.equals(RowMapperFactory.normalizeColumnName(property.getColumnName())) ||
+						name.equals(property.getName())) {
+
+					properties[i] = property;
+					mapped++;
+					break;
+				}
+			}
+		}
+
+		if (mapped == 0) {
+			throw new SQLException("CSV表头和实体类" + metadata.getEntityClass().getName() + "没有匹配的字段.");
+		}
+
+		return properties;
+	}
+
+	private static String buildInsertSql(String tableName, EntityProperty[] properties) {
+		StringBuilder columns = new StringBuilder();
+		StringBuilder values  = new StringBuilder();
+
+		for (EntityProperty property : properties) {
+			if (property != null) {
+				columns.append(columns.length() > 0 ? ", " : "").append(property.getColumnName());
+				values.append(values.length() > 0 ? ", ?" : "?");
+			}
+		}
+
+		return "insert into " + tableName + " (" + columns + ") values (" + values + ")";
+	}
+
+	/**
+	 * 按实体类成员变量类型转换CSV字段,忽略未匹配的列
+	 */
+	private static Object[] convertRecord(String[] record, Class<?>[] types) throws IOException {
+		List<Object> values = new ArrayList<Object>(types.length);
+
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] != null) {
+				String value = i < record.length ? record[i] : null;
+
+				try {
+					values.add(convert(value, types[i]));
+				} catch (IllegalArgumentException e) {
+					throw new IOException("CSV字段[" + value + "]转换成" + types[i].getName() + "异常: " + e);
+				}
+			}
+		}
+
+		return values.toArray();
+	}
+
+	private static Object convert(String value, Class<?> type) {
+		if (type == String.class) {
+			return value;
+		} else if (value == null || value.trim().length() == 0) {
+			return null;
+		}
+
+		String str = value.trim();
+
+		if (type == int.class || type == Integer.class) {
+			return Integer.valueOf(str);
+		} else if (type == long.class || type == Long.class) {
+			return Long.valueOf(str);
+		} else if (type == double.class || type == Double.class) {
+			return Double.valueOf(str);
+		} else if (type == float.class || type == Float.class) {
+			return Float.valueOf(str);
+		} else if (type == short.class || type == Short.class) {
+			return Short.valueOf(str);
+		} else if (type == byte.class || type == Byte.class) {
+			return Byte.valueOf(str);
+		} else if (type == boolean.class || type == Boolean.class) {
+			return "1".equals(str) || "true".equalsIgnoreCase(str) || "yes".equalsIgnoreCase(str);
+		} else if (type == BigDecimal.class) {
+			return new BigDecimal(str);
+		} else if (type == java.sql.Date.class) {
+			return java.sql.Date.valueOf(str);
+		} else if (type == Time.class) {
+			return Time.valueOf(str);
+		} else if (type == Timestamp.class || type == java.util.Date.class) {
+			return str.length() == 10 ? new Timestamp(java.sql.Date.valueOf(str).getTime()) : Timestamp.valueOf(str);
+		}
+
+		return value;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getCommitSize() {
+		return commitSize;
+	}
+
+	public void setCommitSize(int commitSize) {
+		this.commitSize = commitSize;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	public boolean isSkipHeader() {
+		return skipHeader;
+	}
+
+	public void setSkipHeader(boolean skipHeader) {
+		this.skipHeader = skipHeader;
+	}
+
+	/**
+	 * 导入数据来源
+	 */
+	private interface RecordSource {
+
+		/**
+		 * @return 下一行数据, 没有更多数据时返回null
+		 */
+		Object[] next() throws IOException;
+
+	}
+
+	/**
+	 * 写入线程,使用独立的数据库连接执行批量插入
+	 */
+	private class Writer implements Runnable {
+
+		private final String insertSql;
+
+		private final BlockingQueue<List<Object[]>> queue;
+
+		private final AtomicReference<Throwable> failure;
+
+		private final AtomicLong written;
+
+		private final AtomicLong batches;
+
+		private final AtomicLong commits;
+
+		private final QueryDeadline deadline;
+
+		/**
+		 * 是否已取出结束标记,取出后不能再从队列中取数据
+		 */
+		private boolean endOfData;
+
+		Writer(String insertSql, BlockingQueue<List<Object[]>> queue, AtomicReference<Throwable> failure,
+		       AtomicLong written, AtomicLong batches, AtomicLong commits, QueryDeadline deadline) {
+
+			this.insertSql = insertSql;
+			this.queue = queue;
+			this.failure = failure;
+			this.written = written;
+			this.batches = batches;
+			this.commits = commits;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			QueryDeadline scope = deadline != null ? QueryDeadline.begin(deadline.getRemainingMillis()) : null;
+
+			try {
+				write();
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+
+				// 未取出结束标记时继续取出数据直到结束标记,避免读取线程阻塞
+				try {
+					while (!endOfData && queue.take() != END_OF_DATA) {
+						// 丢弃
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			} finally {
+				if (scope != null) {
+					scope.close();
+				}
+			}
+		}
+
+		private void write() throws SQLException, InterruptedException {
+			Connection conn       = dataSource.getConnection();
+			boolean    autoCommit = conn.getAutoCommit();
+			boolean    success    = false;
+			long       pending    = 0;
+
+			try {
+				conn.setAutoCommit(false);
+				List<Object[]> batch;
+
+				while ((batch = queue.take()) != END_OF_DATA) {
+					if (failure.get() != null) {
+						continue;
+					}
+
+					// executeBatchUpdate执行后会清空batch
+					int size = batch.size();
+					SqlHelp.executeBatchUpdate(conn, insertSql, batch);
+					pending += size;
+					batches.incrementAndGet();
+
+					if (pending >= commitSize) {
+						conn.commit();
+						commits.incrementAndGet();
+						written.addAndGet(pending);
+						pending = 0;
+					}
+				}
+
+				endOfData = true;
+
+				if (failure.get() == null) {
+					conn.commit();
+					success = true;
+
+					if (pending > 0) {
+						commits.incrementAndGet();
+						written.addAndGet(pending);
+					}
+				}
+			} finally {
+				try {
+					if (!success) {
+						conn.rollback();
+					}
+
+					conn.setAutoCommit(autoCommit);
+				} finally {
+					conn.close();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式CSV解析,每次读取一条记录,支持双引号包裹的字段、字段内的分隔符、换行和两个双引号转义,不会把整个文件读入内存
+ *
+ * @author yz
+ */
+public class CsvReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Reader reader;
+
+	private final char delimiter;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	private int position;
+
+	private int limit;
+
+	private boolean eof;
+
+	/**
+	 * 已读取的记录数
+	 */
+	private long recordCount;
+
+	public CsvReader(Reader reader) {
+		this(reader, ',');
+	}
+
+	/**
+	 * @param reader    字符流
+	 * @param delimiter 字段分隔符
+	 */
+	public CsvReader(Reader reader, char delimiter) {
+		this.reader = reader;
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * 读取下一条记录
+	 *
+	 * @return 记录的所有字段, 没有更多记录时返回null
+	 * @throws IOException
+	 */
+	public String[] readRecord() throws IOException {
+		int c = read();
+
+		// 跳过空行
+		while (c == '\r' || c == '\n') {
+			c = read();
+		}
+
+		if (c == -1) {
+			return null;
+		}
+
+		List<String>  fields   = new ArrayList<String>();
+		StringBuilder field    = new StringBuilder();
+		boolean       quoted   = false;
+		boolean       inQuotes = false;
+
+		while (true) {
+			if (inQuotes) {
+				if (c == -1) {
+					throw new IOException("CSV第" + (recordCount + 1) + "条记录引号未闭合.");
+				} else if (c == '"') {
+					int next = read();
+
+					if (next == '"') {
+						field.append('"');
+					} else {
+						inQuotes = false;
+						c = next;
+
+						continue;
+					}
+				} else {
+					field.append((char) c);
+				}
+			} else if (c == delimiter) {
+				fields.add(field.toString());
+				field.setLength(0);
+				quoted = false;
+			} else if (c == '\r' || c == '\n' || c == -1) {
+				if (c == '\r') {
+					int next = read();
+
+					if (next != '\n' && next != -1) {
+						position--;
+					}
+				}
+
+				fields.add(field.toString());
+				recordCount++;
+
+				return fields.toArray(new String[fields.size()]);
+			} else if (c == '"' && field.length() == 0 && !quoted) {
+				inQuotes = true;
+				quoted = true;
+			} else {
+				field.append((char) c);
+			}
+
+			c = read();
+		}
+	}
+
+	private int read() throws IOException {
+		if (position >= limit) {
+			if (eof) {
+				return -1;
+			}
+
+			limit = reader.read(buffer, 0, buffer.length);
+			position = 0;
+
+			if (limit <= 0) {
+				limit = 0;
+				eof = true;
+
+				return -1;
+			}
+		}
+
+		return buffer[position++];
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.bulk;
+
+import org.javaweb.jdbc.JdbcTemplate;
+import org.javaweb.jdbc.QueryDeadline;
+import org.javaweb.jdbc.RowCallback;
+import org.javaweb.jdbc.RowList;
+import org.javaweb.jdbc.mapper.EntityMetadata;
+import org.javaweb.jdbc.mapper.EntityProperty;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * 按数字主键范围并行扫描大表,把主键范围切分成多个分区,每个分区在线程池中使用各自的数据库连接流式查询并映射成实体对象,
+ * 所有分区的数据交给同一个回调处理。分区边界默认使用min(id)和max(id)等分,主键分布不均匀时可使用ntile窗口函数采样边界,
+ * 使每个分区的行数接近。第一个和最后一个分区不限制下界和上界,扫描期间新插入的超出范围的行也会被查询到。
+ * <p>
+ * 回调默认在多个扫描线程中并发调用,必须是线程安全的,或调用setSerializeCallback(true)串行调用。
+ * 任一分区失败时其他分区停止扫描并抛出第一个异常,已处理的行不会回滚。
+ * 当前线程的查询截止时间(QueryDeadline)会传递给扫描线程,扫描线程中不会使用当前线程的事务连接。
+ * JdbcTemplate开启dirtyTracking时扫描的实体对象也不记录快照
+ *
+ * @author yz
+ */
+public class KeyRangeScan<T> {
+
+	private static final Logger LOG = Logger.getLogger(KeyRangeScan.class.getName());
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final Class<T> entityClass;
+
+	/**
+	 * 并行扫描线程数,每个线程同时占用一个数据库连接
+	 */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * 分区数,小于等于0时为并行线程数的4倍,分区数大于线程数时先完成的线程继续扫描剩余分区
+	 */
+	private int partitions;
+
+	/**
+	 * 流式查询每次从数据库读取的行数
+	 */
+	private int fetchSize = 1000;
+
+	/**
+	 * 是否使用ntile窗口函数采样分区边界,数据库需要支持窗口函数(MySQL 8+、SQLite 3.25+等)
+	 */
+	private boolean sampledBoundaries;
+
+	/**
+	 * 是否串行调用回调
+	 */
+	private boolean serializeCallback;
+
+	/**
+	 * 附加的查询条件,如: status = ?
+	 */
+	private String where;
+
+	private Object[] whereArgs = new Object[0];
+
+	/**
+	 * @param jdbcTemplate 使用DataSource创建的JdbcTemplate,每个分区从数据源借用一个连接
+	 * @param entityClass  添加了@Table注解并且主键为整数类型的实体类
+	 */
+	public KeyRangeScan(JdbcTemplate jdbcTemplate, Class<T> entityClass) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.entityClass = entityClass;
+	}
+
+	/**
+	 * 设置附加的查询条件,只扫描满足条件的行
+	 *
+	 * @param where 查询条件,不包含where关键字
+	 * @param args  查询条件参数
+	 * @return
+	 */
+	public KeyRangeScan<T> where(String where, Object... args) {
+		this.where = where;
+		this.whereArgs = args != null ? args : new Object[0];
+
+		return this;
+	}
+
+	/**
+	 * 并行扫描所有分区
+	 *
+	 * @param callback 行处理回调
+	 * @return 扫描的总行数
+	 * @throws SQLException
+	 */
+	public long scan(RowCallback<? super T> callback) throws SQLException {
+		if (jdbcTemplate.getDataSource() == null) {
+			throw new SQLException("并行扫描需要使用DataSource创建的JdbcTemplate.");
+		}
+
+		EntityMetadata metadata = EntityMetadata.of(entityClass);
+		EntityProperty id       = metadata.requireIdProperty();
+
+		if (!isIntegralType(id.getType())) {
+			throw new SQLException("实体类" + entityClass.getName() + "的主键不是整数类型,不能按主键范围扫描.");
+		}
+
+		long         start  = System.currentTimeMillis();
+		List<Long[]> ranges = getRanges();
+
+		if (ranges.isEmpty()) {
+			return 0;
+		}
+
+		final String                     column   = id.getColumnName();
+		final String                     table    = metadata.getTableName();
+		final AtomicReference<Throwable> failure  = new AtomicReference<Throwable>();
+		final AtomicLong                 rows     = new AtomicLong();
+		final QueryDeadline              deadline = QueryDeadline.current();
+		int                              workers  = Math.max(1, Math.min(parallelism, ranges.size()));
+		ExecutorService                  pool     = Executors.newFixedThreadPool(workers, newThreadFactory());
+		List<Future<?>>                  futures  = new ArrayList<Future<?>>(ranges.size());
+		final RowCallback<? super T>     consumer;
+
+		if (serializeCallback) {
+			consumer = synchronizedCallback(callback);
+		} else {
+			consumer = callback;
+		}
+
+		try {
+			for (final Long[] range : ranges) {
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						QueryDeadline scope = deadline != null ? QueryDeadline.begin(deadline.getRemainingMillis()) : null;
+
+						try {
+							scanRange(table, column, range, consumer, failure, rows);
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						} finally {
+							if (scope != null) {
+								scope.close();
+							}
+						}
+
+						return null;
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		} catch (ExecutionException e) {
+			failure.compareAndSet(null, e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		long      elapsed = System.currentTimeMillis() - start;
+		Throwable t       = failure.get();
+
+		if (t != null) {
+			LOG.warning("并行扫描表[" + table + "]失败: " + t + ", 已扫描" + rows.get() + "行, 耗时" + elapsed + "ms");
+
+			if (t instanceof SQLException) {
+				throw (SQLException) t;
+			} else if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+
+			throw new SQLException("并行扫描表[" + table + "]失败: " + t, t);
+		}
+
+		LOG.info("并行扫描表[" + table + "]完成: " + ranges.size() + "个分区, " + workers + "个线程, " +
+				rows.get() + "行, 耗时" + elapsed + "ms");
+
+		return rows.get();
+	}
+
+	/**
+	 * 计算分区的主键范围,每个范围为{下界, 上界}(都包含),null表示不限制
+	 *
+	 * @return 表中没有满足条件的行时返回空列表
+	 * @throws SQLException
+	 */
+	public List<Long[]> getRanges() throws SQLException {
+		EntityMetadata metadata = EntityMetadata.of(entityClass);
+		String         column   = metadata.requireIdProperty().getColumnName();
+		String         from     = " from " + metadata.getTableName() + (where != null ? " where " + where : "");
+		int            count    = partitions > 0 ? partitions : Math.max(1, parallelism) * 4;
+		List<Long>     bounds   = new ArrayList<Long>();
+
+		if (sampledBoundaries) {
+			// 每个分区的最大主键作为分区上界
+			RowList list = jdbcTemplate.queryForRows(
+					"select max(" + column + ") from (select " + column + ", ntile(" + count + ") over (order by " +
+							column + ") as bucket" + from + ") b group by bucket order by 1", whereArgs
+			);
+
+			for (int i = 0; i < list.size() - 1; i++) {
+				bounds.add(toLong(list.get(i)[0]));
+			}
+
+			if (list.size() == 0) {
+				return new ArrayList<Long[]>();
+			}
+		} else {
+			Object[] row = jdbcTemplate.queryForRows(
+					"select min(" + column + "), max(" + column + ")" + from, whereArgs
+			).get(0);
+
+			if (row[0] == null) {
+				return new ArrayList<Long[]>();
+			}
+
+			long min  = toLong(row[0]);
+			long max  = toLong(row[1]);
+			long step = Math.max(1, max / count - min / count + 1);
+
+			// 分区上界,按步长等分,分区数超过主键范围时合并
+			for (long bound = min + step - 1; bound < max && bound >= min; bound += step) {
+				bounds.add(bound);
+			}
+		}
+
+		List<Long[]> ranges = new ArrayList<Long[]>(bounds.size() + 1);
+		Long         lower  = null;
+
+		for (Long bound : bounds) {
+			ranges.add(new Long[]{lower, bound});
+			lower = bound + 1;
+		}
+
+		ranges.add(new Long[]{lower, null});
+
+		return ranges;
+	}
+
+	/**
+	 * 流式扫描一个分区,其他分区失败时停止
+	 */
+	private void scanRange(String table, String column, Long[] range, final RowCallback<? super T> callback,
+	                       final AtomicReference<Throwable> failure, final AtomicLong rows) throws SQLException {
+
+		StringBuilder sql  = new StringBuilder("select * from ").append(table).append(" where 1 = 1");
+		List<Object>  args = new ArrayList<Object>();
+
+		if (range[0] != null) {
+			sql.append(" and ").append(column).append(" >= ?");
+			args.add(range[0]);
+		}
+
+		if (range[1] != null) {
+			sql.append(" and ").append(column).append(" <= ?");
+			args.add(range[1]);
+		}
+
+		if (where != null) {
+			sql.append(" and (").append(where).append(")");
+			args.addAll(Arrays.asList(whereArgs));
+		}
+
+		if (failure.get() != null) {
+			return;
+		}
+
+		// 扫描的行只交给回调处理,不记录dirtyTracking快照
+		jdbcTemplate.queryForStream(sql.toString(), entityClass, fetchSize, false, new RowCallback<T>() {
+			@Override
+			public void processRow(T row) throws SQLException {
+				if (failure.get() != null) {
+					throw new SQLException("其他分区扫描失败,停止扫描.");
+				}
+
+				callback.processRow(row);
+				rows.incrementAndGet();
+			}
+		}, args.toArray());
+	}
+
+	private RowCallback<T> synchronizedCallback(final RowCallback<? super T> callback) {
+		return new RowCallback<T>() {
+			@Override
+			public synchronized void processRow(T row) throws SQLException {
+				callback.processRow(row);
+			}
+		};
+	}
+
+	private static boolean isIntegralType(Class<?> type) {
+		return type == int.class || type == Integer.class || type == long.class || type == Long.class ||
+				type == short.class || type == Short.class || type == BigInteger.class || type == BigDecimal.class;
+	}
+
+	private static long toLong(Object value) throws SQLException {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		} else if (value != null) {
+			try {
+				return Long.parseLong(value.toString().trim());
+			} catch (NumberFormatException e) {
+				throw new SQLException("主键值[" + value + "]不是整数.");
+			}
+		}
+
+		throw new SQLException("主键值不能为空.");
+	}
+
+	private static ThreadFactory newThreadFactory() {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "javaweb-jdbc-scan-" + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		};
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public boolean isSampledBoundaries() {
+		return sampledBoundaries;
+	}
+
+	public void setSampledBoundaries(boolean sampledBoundaries) {
+		this.sampledBoundaries = sampledBoundaries;
+	}
+
+	public boolean isSerializeCallback() {
+		return serializeCallback;
+	}
+
+	public void setSerializeCallback(boolean serializeCallback) {
+		this.serializeCallback = serializeCallback;
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.columnar;
+
+import org.javaweb.jdbc.mapper.ColumnIndex;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * 列式查询结果,每列的值保存在基本类型数组或字典编码的字符串列中,读取时不为每一行创建对象,
+ * 适用于报表等只需要少量数值字段的大结果集统计。
+ * 整数字段使用IntColumn或LongColumn,浮点数和小数使用DoubleColumn,日期时间使用LongColumn保存毫秒数,其他字段使用StringColumn
+ *
+ * @author yz
+ */
+public class ColumnarResult {
+
+	private final ResultColumn[] columns;
+
+	private final ColumnIndex columnIndex;
+
+	private int rowCount;
+
+	private ColumnarResult(ResultColumn[] columns, ColumnIndex columnIndex) {
+		this.columns = columns;
+		this.columnIndex = columnIndex;
+	}
+
+	/**
+	 * 读取结果集中剩余的所有行
+	 *
+	 * @param rs           结果集
+	 * @param wideIntegers INTEGER字段是否使用LongColumn,SQLite等动态类型数据库的INTEGER可能超出int范围
+	 * @return
+	 * @throws SQLException
+	 */
+	public static ColumnarResult read(ResultSet rs, boolean wideIntegers) throws SQLException {
+		ResultSetMetaData metaData = rs.getMetaData();
+		ResultColumn[]    columns  = new ResultColumn[metaData.getColumnCount()];
+
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = createColumn(metaData, i + 1, wideIntegers);
+		}
+
+		ColumnarResult result = new ColumnarResult(columns, ColumnIndex.of(metaData));
+
+		while (rs.next()) {
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].read(rs, i + 1);
+			}
+
+			result.rowCount++;
+		}
+
+		return result;
+	}
+
+	private static ResultColumn createColumn(ResultSetMetaData metaData, int index, boolean wideIntegers)
+			throws SQLException {
+
+		String name    = metaData.getColumnLabel(index);
+		int    sqlType = metaData.getColumnType(index);
+
+		switch (sqlType) {
+			case Types.BIT:
+			case Types.BOOLEAN:
+			case Types.TINYINT:
+			case Types.SMALLINT:
+				return new IntColumn(name, sqlType);
+			case Types.INTEGER:
+				return wideIntegers || !metaData.isSigned(index) ?
+						new LongColumn(name, sqlType) : new IntColumn(name, sqlType);
+			case Types.BIGINT:
+				return new LongColumn(name, sqlType);
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return metaData.getScale(index) == 0 && metaData.getPrecision(index) > 0 &&
+						metaData.getPrecision(index) < 19 ? new LongColumn(name, sqlType) : new DoubleColumn(name, sqlType);
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return new DoubleColumn(name, sqlType);
+			case Types.DATE:
+			case Types.TIME:
+			case Types.TIMESTAMP:
+				return new DateTimeColumn(name, sqlType);
+			default:
+				return new StringColumn(name, sqlType);
+		}
+	}
+
+	/**
+	 * 行数
+	 *
+	 * @return
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	public ColumnIndex getColumnIndex() {
+		return columnIndex;
+	}
+
+	/**
+	 * 按列索引获取列
+	 *
+	 * @param index 列索引,从0开始
+	 * @return
+	 */
+	public ResultColumn getColumn(int index) {
+		return columns[index];
+	}
+
+	/**
+	 * 按字段名获取列,字段名不区分大小写并忽略下划线
+	 *
+	 * @param name 字段名或别名
+	 * @return 列, 不存在时返回null
+	 */
+	public ResultColumn getColumn(String name) {
+		int index = columnIndex.indexOf(name);
+
+		return index != -1 ? columns[index] : null;
+	}
+
+	public IntColumn getIntColumn(String name) {
+		return getColumn(name, IntColumn.class);
+	}
+
+	public LongColumn getLongColumn(String name) {
+		return getColumn(name, LongColumn.class);
+	}
+
+	public DoubleColumn getDoubleColumn(String name) {
+		return getColumn(name, DoubleColumn.class);
+	}
+
+	public StringColumn getStringColumn(String name) {
+		return getColumn(name, StringColumn.class);
+	}
+
+	private <T extends ResultColumn> T getColumn(String name, Class<T> type) {
+		ResultColumn column = getColumn(name);
+
+		if (column == null) {
+			throw new IllegalArgumentException("查询结果中不存在字段: " + name);
+		} else if (!type.isInstance(column)) {
+			throw new IllegalArgumentException(
+					"字段[" + name + "]类型为" + column.getClass().getSimpleName() + ",不是" + type.getSimpleName()
+			);
+		}
+
+		return type.cast(column);
+	}
+
+}
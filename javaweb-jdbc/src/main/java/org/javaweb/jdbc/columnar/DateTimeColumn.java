@@ -0,0 +1,48 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.columnar;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * 日期时间类型的列,保存毫秒时间戳,NULL值为0
+ *
+ * @author yz
+ */
+public class DateTimeColumn extends LongColumn {
+
+	DateTimeColumn(String name, int sqlType) {
+		super(name, sqlType);
+	}
+
+	@Override
+	void read(ResultSet rs, int index) throws SQLException {
+		Timestamp value = rs.getTimestamp(index);
+
+		values = grow(values, size);
+		values[size] = value != null ? value.getTime() : 0;
+		markNull(value == null);
+		size++;
+	}
+
+	@Override
+	public Object getObject(int row) {
+		return isNull(row) ? null : new Timestamp(values[row]);
+	}
+
+}
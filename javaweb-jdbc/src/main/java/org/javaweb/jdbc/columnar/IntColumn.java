@@ -0,0 +1,60 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.columnar;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * int类型的列,值保存在可扩容的int[]中,NULL值为0
+ *
+ * @author yz
+ */
+public class IntColumn extends ResultColumn {
+
+	private int[] values = new int[INITIAL_CAPACITY];
+
+	IntColumn(String name, int sqlType) {
+		super(name, sqlType);
+	}
+
+	@Override
+	void read(ResultSet rs, int index) throws SQLException {
+		values = grow(values, size);
+		values[size] = rs.getInt(index);
+		markNull(rs.wasNull());
+		size++;
+	}
+
+	@Override
+	public Object getObject(int row) {
+		return isNull(row) ? null : values[row];
+	}
+
+	public int getInt(int row) {
+		return values[row];
+	}
+
+	/**
+	 * 获取保存列值的数组,数组长度可能大于行数,只有前getSize()个元素有效,返回的数组不能修改
+	 *
+	 * @return
+	 */
+	public int[] getValues() {
+		return values;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.columnar;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 列式查询结果中的一列,按行号读取,数据库值为NULL的行通过isNull判断
+ *
+ * @author yz
+ */
+public abstract class ResultColumn {
+
+	/**
+	 * 初始容量
+	 */
+	static final int INITIAL_CAPACITY = 256;
+
+	private final String name;
+
+	/**
+	 * java.sql.Types中的字段类型
+	 */
+	private final int sqlType;
+
+	private final BitSet nulls = new BitSet();
+
+	int size;
+
+	ResultColumn(String name, int sqlType) {
+		this.name = name;
+		this.sqlType = sqlType;
+	}
+
+	/**
+	 * 读取结果集当前行的值追加到列末尾
+	 *
+	 * @param rs    结果集
+	 * @param index 列索引,从1开始
+	 * @throws SQLException
+	 */
+	abstract void read(ResultSet rs, int index) throws SQLException;
+
+	/**
+	 * 获取某一行的值,会创建包装类型对象,批量计算时应使用子类的数组
+	 *
+	 * @param row 行号,从0开始
+	 * @return
+	 */
+	public abstract Object getObject(int row);
+
+	void markNull(boolean isNull) {
+		if (isNull) {
+			nulls.set(size);
+		}
+	}
+
+	static int newCapacity(int capacity) {
+		return capacity < INITIAL_CAPACITY ? INITIAL_CAPACITY : capacity + (capacity >> 1);
+	}
+
+	static int[] grow(int[] values, int size) {
+		return size < values.length ? values : Arrays.copyOf(values, newCapacity(values.length));
+	}
+
+	static long[] grow(long[] values, int size) {
+		return size < values.length ? values : Arrays.copyOf(values, newCapacity(values.length));
+	}
+
+	static double[] grow(double[] values, int size) {
+		return size < values.length ? values : Arrays.copyOf(values, newCapacity(values.length));
+	}
+
+	/**
+	 * 判断某一行的数据库值是否为NULL
+	 *
+	 * @param row 行号,从0开始
+	 * @return
+	 */
+	public boolean isNull(int row) {
+		return nulls.get(row);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSqlType() {
+		return sqlType;
+	}
+
+	/**
+	 * 行数
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.columnar;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 字典编码的字符串列,相同的字符串只保存一份,每行保存字符串在字典中的编号,NULL值的编号为-1。
+ * 适用于状态、类型、地区等重复值较多的字段,可以直接按编号分组统计
+ *
+ * @author yz
+ */
+public class StringColumn extends ResultColumn {
+
+	private int[] codes = new int[INITIAL_CAPACITY];
+
+	private final List<String> dictionary = new ArrayList<String>();
+
+	private final Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+
+	StringColumn(String name, int sqlType) {
+		super(name, sqlType);
+	}
+
+	@Override
+	void read(ResultSet rs, int index) throws SQLException {
+		String value = rs.getString(index);
+		int    code  = -1;
+
+		if (value != null) {
+			Integer existing = dictionaryCodes.get(value);
+
+			if (existing != null) {
+				code = existing;
+			} else {
+				code = dictionary.size();
+				dictionary.add(value);
+				dictionaryCodes.put(value, code);
+			}
+		}
+
+		codes = grow(codes, size);
+		codes[size] = code;
+		markNull(value == null);
+		size++;
+	}
+
+	@Override
+	public Object getObject(int row) {
+		return getString(row);
+	}
+
+	public String getString(int row) {
+		int code = codes[row];
+
+		return code >= 0 ? dictionary.get(code) : null;
+	}
+
+	/**
+	 * 获取某一行字符串在字典中的编号
+	 *
+	 * @param row 行号,从0开始
+	 * @return 编号, NULL值返回-1
+	 */
+	public int getCode(int row) {
+		return codes[row];
+	}
+
+	/**
+	 * 获取保存每行字典编号的数组,数组长度可能大于行数,只有前getSize()个元素有效,返回的数组不能修改
+	 *
+	 * @return
+	 */
+	public int[] getCodes() {
+		return codes;
+	}
+
+	/**
+	 * 获取字典,下标为编号
+	 *
+	 * @return
+	 */
+	public List<String> getDictionary() {
+		return Collections.unmodifiableList(dictionary);
+	}
+
+	/**
+	 * 获取字符串在字典中的编号
+	 *
+	 * @param value 字符串
+	 * @return 编号, 字典中不存在时返回-1
+	 */
+	public int getCode(String value) {
+		Integer code = dictionaryCodes.get(value);
+
+		return code != null ? code : -1;
+	}
+
+}
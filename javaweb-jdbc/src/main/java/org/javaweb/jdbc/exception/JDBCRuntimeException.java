@@ -0,0 +1,38 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.exception;
+
+import java.sql.SQLException;
+
+/**
+ * 无法声明抛出SQLException的场景(如Iterator)中使用的JDBC运行时异常
+ *
+ * @author yz
+ */
+public class JDBCRuntimeException extends RuntimeException {
+
+	private static final long serialVersionUID = 6113581372096532457L;
+
+	public JDBCRuntimeException(SQLException cause) {
+		super(cause.getMessage(), cause);
+	}
+
+	@Override
+	public SQLException getCause() {
+		return (SQLException) super.getCause();
+	}
+
+}
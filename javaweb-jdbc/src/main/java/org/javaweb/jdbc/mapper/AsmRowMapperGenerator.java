@@ -0,0 +1,342 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.javaweb.jdbc.mapper.ColumnValueReader.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 使用ASM为EntityRowMapper生成等价的字节码RowMapper,生成的mapRow直接new实体类并调用setter方法,
+ * 基础类型列使用rs.getInt/getLong/getDouble等方法读取,不经过Method.invoke和装箱。
+ * 实体类、无参构造方法、setter方法及其参数类型必须是public的,否则返回null由调用方使用反射映射
+ *
+ * @author yz
+ */
+public class AsmRowMapperGenerator {
+
+	private static final String RESULT_SET = Type.getInternalName(ResultSet.class);
+
+	private static final String ROW_MAPPER = Type.getInternalName(RowMapper.class);
+
+	private static final String COLUMN_VALUE_READER = Type.getInternalName(ColumnValueReader.class);
+
+	private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+	/**
+	 * 生成字节码RowMapper
+	 *
+	 * @param mapper 已绑定列索引和setter的反射RowMapper
+	 * @param <T>
+	 * @return 生成的RowMapper, 实体类不满足生成条件时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> RowMapper<T> generate(EntityRowMapper<T> mapper) {
+		Class<T>    entityClass = mapper.getEntityClass();
+		ClassLoader parent      = entityClass.getClassLoader();
+
+		if (!isSupported(mapper) || !isVisible(parent)) {
+			return null;
+		}
+
+		String className = entityClass.getName() + "$$JdbcRowMapper$" + CLASS_COUNTER.incrementAndGet();
+		byte[] bytes     = createClassBytes(className.replace('.', '/'), mapper);
+
+		try {
+			Class<?> mapperClass = new MapperClassLoader(parent).defineClass(className, bytes);
+
+			return (RowMapper<T>) mapperClass.newInstance();
+		} catch (Exception e) {
+			e.printStackTrace();
+		} catch (LinkageError e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * 检查实体类和setter是否可以被生成的类直接访问
+	 *
+	 * @param mapper
+	 * @return
+	 */
+	private static boolean isSupported(EntityRowMapper<?> mapper) {
+		Class<?> entityClass = mapper.getEntityClass();
+
+		if (!Modifier.isPublic(entityClass.getModifiers()) || Modifier.isAbstract(entityClass.getModifiers())) {
+			return false;
+		}
+
+		try {
+			Constructor<?> constructor = entityClass.getConstructor();
+
+			if (!Modifier.isPublic(constructor.getModifiers())) {
+				return false;
+			}
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+
+		for (Method setter : mapper.getSetters()) {
+			Class<?> type = setter.getParameterTypes()[0];
+
+			while (type.isArray()) {
+				type = type.getComponentType();
+			}
+
+			if (Modifier.isStatic(setter.getModifiers()) || !Modifier.isPublic(setter.getModifiers())) {
+				return false;
+			}
+
+			if (type.isPrimitive() ? ColumnValueReader.getValueType(type) == TYPE_OBJECT
+					: !Modifier.isPublic(type.getModifiers())) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * 检查实体类的ClassLoader是否能加载到当前的RowMapper接口
+	 *
+	 * @param loader
+	 * @return
+	 */
+	private static boolean isVisible(ClassLoader loader) {
+		if (loader == null) {
+			return false;
+		}
+
+		try {
+			return loader.loadClass(RowMapper.class.getName()) == RowMapper.class;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static byte[] createClassBytes(String internalName, EntityRowMapper<?> mapper) {
+		ClassWriter cw     = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		String      entity = Type.getInternalName(mapper.getEntityClass());
+
+		// 使用1.5版本字节码,不需要计算StackMapTable
+		cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, internalName, null,
+				"java/lang/Object", new String[]{ROW_MAPPER});
+
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(
+				ACC_PUBLIC, "mapRow", "(L" + RESULT_SET + ";)Ljava/lang/Object;",
+				null, new String[]{"java/sql/SQLException"}
+		);
+
+		mv.visitCode();
+		mv.visitTypeInsn(NEW, entity);
+		mv.visitInsn(DUP);
+		mv.visitMethodInsn(INVOKESPECIAL, entity, "<init>", "()V", false);
+		mv.visitVarInsn(ASTORE, 2);
+
+		int[]    columnIndexes = mapper.getColumnIndexes();
+		int[]    valueTypes    = mapper.getValueTypes();
+		Method[] setters       = mapper.getSetters();
+
+		for (int i = 0; i < setters.length; i++) {
+			Method setter = setters[i];
+
+			mv.visitVarInsn(ALOAD, 2);
+			mv.visitVarInsn(ALOAD, 1);
+			pushInt(mv, columnIndexes[i]);
+			visitGetValue(mv, valueTypes[i], setter);
+			mv.visitMethodInsn(INVOKEVIRTUAL, entity, setter.getName(), Type.getMethodDescriptor(setter), false);
+
+			Class<?> returnType = setter.getReturnType();
+
+			if (returnType == long.class || returnType == double.class) {
+				mv.visitInsn(POP2);
+			} else if (returnType != void.class) {
+				mv.visitInsn(POP);
+			}
+		}
+
+		mv.visitVarInsn(ALOAD, 2);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+
+		return cw.toByteArray();
+	}
+
+	/**
+	 * 生成读取列值的字节码,执行前栈顶为[ResultSet, 列索引],执行后栈顶为setter参数类型的值
+	 *
+	 * @param mv
+	 * @param valueType 列值读取类型
+	 * @param setter    setter方法
+	 */
+	private static void visitGetValue(MethodVisitor mv, int valueType, Method setter) {
+		Class<?> paramType = setter.getParameterTypes()[0];
+
+		switch (valueType) {
+			case TYPE_INT:
+				visitGetter(mv, "getInt", "I");
+				break;
+			case TYPE_LONG:
+				visitGetter(mv, "getLong", "J");
+				break;
+			case TYPE_DOUBLE:
+				visitGetter(mv, "getDouble", "D");
+				break;
+			case TYPE_FLOAT:
+				visitGetter(mv, "getFloat", "F");
+				break;
+			case TYPE_SHORT:
+				visitGetter(mv, "getShort", "S");
+				break;
+			case TYPE_BYTE:
+				visitGetter(mv, "getByte", "B");
+				break;
+			case TYPE_BOOLEAN:
+				visitGetter(mv, "getBoolean", "Z");
+				break;
+			case TYPE_INTEGER_WRAPPER:
+				visitWrapperGetter(mv, "getInt", "I", "java/lang/Integer");
+				break;
+			case TYPE_LONG_WRAPPER:
+				visitWrapperGetter(mv, "getLong", "J", "java/lang/Long");
+				break;
+			case TYPE_DOUBLE_WRAPPER:
+				visitWrapperGetter(mv, "getDouble", "D", "java/lang/Double");
+				break;
+			case TYPE_FLOAT_WRAPPER:
+				visitWrapperGetter(mv, "getFloat", "F", "java/lang/Float");
+				break;
+			case TYPE_SHORT_WRAPPER:
+				visitWrapperGetter(mv, "getShort", "S", "java/lang/Short");
+				break;
+			case TYPE_BYTE_WRAPPER:
+				visitWrapperGetter(mv, "getByte", "B", "java/lang/Byte");
+				break;
+			case TYPE_BOOLEAN_WRAPPER:
+				visitWrapperGetter(mv, "getBoolean", "Z", "java/lang/Boolean");
+				break;
+			case TYPE_STRING:
+				visitGetter(mv, "getString", "Ljava/lang/String;");
+				break;
+			case TYPE_BIG_DECIMAL:
+				visitGetter(mv, "getBigDecimal", "Ljava/math/BigDecimal;");
+				break;
+			case TYPE_UTIL_DATE:
+			case TYPE_SQL_TIMESTAMP:
+				visitGetter(mv, "getTimestamp", "Ljava/sql/Timestamp;");
+				break;
+			case TYPE_SQL_DATE:
+				visitGetter(mv, "getDate", "Ljava/sql/Date;");
+				break;
+			case TYPE_SQL_TIME:
+				visitGetter(mv, "getTime", "Ljava/sql/Time;");
+				break;
+			case TYPE_BYTES:
+				visitGetter(mv, "getBytes", "[B");
+				break;
+			default:
+				visitGetter(mv, "getObject", "Ljava/lang/Object;");
+
+				if (paramType != Object.class) {
+					// 先检查类型,不匹配时抛出SQLException
+					mv.visitLdcInsn(Type.getType(paramType));
+					mv.visitLdcInsn(setter.toString());
+					mv.visitMethodInsn(
+							INVOKESTATIC, COLUMN_VALUE_READER, "checkValue",
+							"(Ljava/lang/Object;Ljava/lang/Class;Ljava/lang/String;)Ljava/lang/Object;", false
+					);
+
+					mv.visitTypeInsn(CHECKCAST, Type.getInternalName(paramType));
+				}
+		}
+	}
+
+	private static void visitGetter(MethodVisitor mv, String name, String returnDesc) {
+		mv.visitMethodInsn(INVOKEINTERFACE, RESULT_SET, name, "(I)" + returnDesc, true);
+	}
+
+	/**
+	 * 读取基础类型值后调用rs.wasNull(),为NULL时替换成null,否则调用包装类的valueOf装箱
+	 */
+	private static void visitWrapperGetter(MethodVisitor mv, String name, String primitiveDesc, String wrapper) {
+		Label nonNull = new Label();
+		Label end     = new Label();
+		boolean wide  = "J".equals(primitiveDesc) || "D".equals(primitiveDesc);
+
+		visitGetter(mv, name, primitiveDesc);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitMethodInsn(INVOKEINTERFACE, RESULT_SET, "wasNull", "()Z", true);
+		mv.visitJumpInsn(IFEQ, nonNull);
+		mv.visitInsn(wide ? POP2 : POP);
+		mv.visitInsn(ACONST_NULL);
+		mv.visitJumpInsn(GOTO, end);
+		mv.visitLabel(nonNull);
+		mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + primitiveDesc + ")L" + wrapper + ";", false);
+		mv.visitLabel(end);
+	}
+
+	private static void pushInt(MethodVisitor mv, int value) {
+		if (value >= -1 && value <= 5) {
+			mv.visitInsn(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			mv.visitIntInsn(BIPUSH, value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			mv.visitIntInsn(SIPUSH, value);
+		} else {
+			mv.visitLdcInsn(value);
+		}
+	}
+
+	/**
+	 * 生成类专用的ClassLoader,父加载器为实体类的ClassLoader。每个生成类使用单独的ClassLoader,
+	 * RowMapperFactory缓存淘汰某个RowMapper后,它的类可以单独被卸载
+	 */
+	private static class MapperClassLoader extends ClassLoader {
+
+		MapperClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> defineClass(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+
+	}
+
+}
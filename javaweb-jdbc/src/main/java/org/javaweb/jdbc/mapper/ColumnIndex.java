@@ -0,0 +1,91 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 查询结果字段名和列索引的映射,字段名不区分大小写并忽略下划线(和实体映射规则一致),如: user_id 等于userId。
+ * 同一查询结果的所有行共用一个不可变的ColumnIndex,字段名重复时使用第一个
+ *
+ * @author yz
+ */
+public final class ColumnIndex {
+
+	private final String[] columnNames;
+
+	private final Map<String, Integer> indexes;
+
+	public ColumnIndex(String[] columnNames) {
+		this.columnNames = columnNames.clone();
+		this.indexes = new HashMap<String, Integer>(columnNames.length * 2);
+
+		for (int i = 0; i < columnNames.length; i++) {
+			String name = RowMapperFactory.normalizeColumnName(columnNames[i]);
+
+			if (!indexes.containsKey(name)) {
+				indexes.put(name, i);
+			}
+		}
+	}
+
+	/**
+	 * 根据结果集字段别名创建
+	 *
+	 * @param metaData 结果集元数据
+	 * @return
+	 * @throws SQLException
+	 */
+	public static ColumnIndex of(ResultSetMetaData metaData) throws SQLException {
+		String[] columnNames = new String[metaData.getColumnCount()];
+
+		for (int i = 0; i < columnNames.length; i++) {
+			columnNames[i] = metaData.getColumnLabel(i + 1);
+		}
+
+		return new ColumnIndex(columnNames);
+	}
+
+	/**
+	 * 获取字段名对应的列索引
+	 *
+	 * @param columnName 字段名或别名
+	 * @return 列索引, 从0开始, 不存在时返回-1
+	 */
+	public int indexOf(String columnName) {
+		Integer index = indexes.get(RowMapperFactory.normalizeColumnName(columnName));
+
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * 获取列索引对应的字段别名
+	 *
+	 * @param index 列索引,从0开始
+	 * @return
+	 */
+	public String getColumnName(int index) {
+		return columnNames[index];
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+}
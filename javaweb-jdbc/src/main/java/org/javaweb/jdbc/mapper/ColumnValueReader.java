@@ -0,0 +1,214 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 按setter参数类型选择ResultSet的getXXX(int)方法读取列值,避免rs.getObject装箱后再反射转换
+ *
+ * @author yz
+ */
+public final class ColumnValueReader {
+
+	public static final int TYPE_OBJECT = 0;
+
+	public static final int TYPE_INT = 1;
+
+	public static final int TYPE_LONG = 2;
+
+	public static final int TYPE_DOUBLE = 3;
+
+	public static final int TYPE_FLOAT = 4;
+
+	public static final int TYPE_SHORT = 5;
+
+	public static final int TYPE_BYTE = 6;
+
+	public static final int TYPE_BOOLEAN = 7;
+
+	public static final int TYPE_INTEGER_WRAPPER = 8;
+
+	public static final int TYPE_LONG_WRAPPER = 9;
+
+	public static final int TYPE_DOUBLE_WRAPPER = 10;
+
+	public static final int TYPE_FLOAT_WRAPPER = 11;
+
+	public static final int TYPE_SHORT_WRAPPER = 12;
+
+	public static final int TYPE_BYTE_WRAPPER = 13;
+
+	public static final int TYPE_BOOLEAN_WRAPPER = 14;
+
+	public static final int TYPE_STRING = 15;
+
+	public static final int TYPE_BIG_DECIMAL = 16;
+
+	public static final int TYPE_UTIL_DATE = 17;
+
+	public static final int TYPE_SQL_DATE = 18;
+
+	public static final int TYPE_SQL_TIME = 19;
+
+	public static final int TYPE_SQL_TIMESTAMP = 20;
+
+	public static final int TYPE_BYTES = 21;
+
+	private ColumnValueReader() {
+	}
+
+	/**
+	 * 获取setter参数类型对应的读取类型
+	 *
+	 * @param type setter方法参数类型
+	 * @return 读取类型
+	 */
+	public static int getValueType(Class<?> type) {
+		if (type == int.class) {
+			return TYPE_INT;
+		} else if (type == long.class) {
+			return TYPE_LONG;
+		} else if (type == double.class) {
+			return TYPE_DOUBLE;
+		} else if (type == float.class) {
+			return TYPE_FLOAT;
+		} else if (type == short.class) {
+			return TYPE_SHORT;
+		} else if (type == byte.class) {
+			return TYPE_BYTE;
+		} else if (type == boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (type == Integer.class) {
+			return TYPE_INTEGER_WRAPPER;
+		} else if (type == Long.class) {
+			return TYPE_LONG_WRAPPER;
+		} else if (type == Double.class) {
+			return TYPE_DOUBLE_WRAPPER;
+		} else if (type == Float.class) {
+			return TYPE_FLOAT_WRAPPER;
+		} else if (type == Short.class) {
+			return TYPE_SHORT_WRAPPER;
+		} else if (type == Byte.class) {
+			return TYPE_BYTE_WRAPPER;
+		} else if (type == Boolean.class) {
+			return TYPE_BOOLEAN_WRAPPER;
+		} else if (type == String.class) {
+			return TYPE_STRING;
+		} else if (type == BigDecimal.class) {
+			return TYPE_BIG_DECIMAL;
+		} else if (type == java.util.Date.class) {
+			return TYPE_UTIL_DATE;
+		} else if (type == java.sql.Date.class) {
+			return TYPE_SQL_DATE;
+		} else if (type == java.sql.Time.class) {
+			return TYPE_SQL_TIME;
+		} else if (type == java.sql.Timestamp.class) {
+			return TYPE_SQL_TIMESTAMP;
+		} else if (type == byte[].class) {
+			return TYPE_BYTES;
+		}
+
+		return TYPE_OBJECT;
+	}
+
+	/**
+	 * 按读取类型读取结果集当前行中某一列的值,包装类型在数据库值为NULL时返回null
+	 *
+	 * @param rs        结果集
+	 * @param index     列索引,从1开始
+	 * @param valueType 读取类型
+	 * @return 列值
+	 * @throws SQLException
+	 */
+	public static Object getValue(ResultSet rs, int index, int valueType) throws SQLException {
+		switch (valueType) {
+			case TYPE_INT:
+			case TYPE_INTEGER_WRAPPER: {
+				int value = rs.getInt(index);
+				return valueType == TYPE_INTEGER_WRAPPER && rs.wasNull() ? null : Integer.valueOf(value);
+			}
+			case TYPE_LONG:
+			case TYPE_LONG_WRAPPER: {
+				long value = rs.getLong(index);
+				return valueType == TYPE_LONG_WRAPPER && rs.wasNull() ? null : Long.valueOf(value);
+			}
+			case TYPE_DOUBLE:
+			case TYPE_DOUBLE_WRAPPER: {
+				double value = rs.getDouble(index);
+				return valueType == TYPE_DOUBLE_WRAPPER && rs.wasNull() ? null : Double.valueOf(value);
+			}
+			case TYPE_FLOAT:
+			case TYPE_FLOAT_WRAPPER: {
+				float value = rs.getFloat(index);
+				return valueType == TYPE_FLOAT_WRAPPER && rs.wasNull() ? null : Float.valueOf(value);
+			}
+			case TYPE_SHORT:
+			case TYPE_SHORT_WRAPPER: {
+				short value = rs.getShort(index);
+				return valueType == TYPE_SHORT_WRAPPER && rs.wasNull() ? null : Short.valueOf(value);
+			}
+			case TYPE_BYTE:
+			case TYPE_BYTE_WRAPPER: {
+				byte value = rs.getByte(index);
+				return valueType == TYPE_BYTE_WRAPPER && rs.wasNull() ? null : Byte.valueOf(value);
+			}
+			case TYPE_BOOLEAN:
+			case TYPE_BOOLEAN_WRAPPER: {
+				boolean value = rs.getBoolean(index);
+				return valueType == TYPE_BOOLEAN_WRAPPER && rs.wasNull() ? null : Boolean.valueOf(value);
+			}
+			case TYPE_STRING:
+				return rs.getString(index);
+			case TYPE_BIG_DECIMAL:
+				return rs.getBigDecimal(index);
+			case TYPE_UTIL_DATE:
+			case TYPE_SQL_TIMESTAMP:
+				return rs.getTimestamp(index);
+			case TYPE_SQL_DATE:
+				return rs.getDate(index);
+			case TYPE_SQL_TIME:
+				return rs.getTime(index);
+			case TYPE_BYTES:
+				return rs.getBytes(index);
+			default:
+				return rs.getObject(index);
+		}
+	}
+
+	/**
+	 * 检查rs.getObject()读取的列值能否传给setter方法,供生成的字节码RowMapper在强制类型转换前调用,
+	 * 类型不匹配时和反射RowMapper一样抛出SQLException而不是ClassCastException
+	 *
+	 * @param value  列值
+	 * @param type   setter方法参数类型
+	 * @param setter setter方法,用于异常信息
+	 * @return 列值
+	 * @throws SQLException
+	 */
+	public static Object checkValue(Object value, Class<?> type, String setter) throws SQLException {
+		if (value != null && !type.isInstance(value)) {
+			throw new SQLException(
+					"方法:" + setter + ",值:" + value + ",映射异常:" + value.getClass().getName() + "不能转换成" + type.getName()
+			);
+		}
+
+		return value;
+	}
+
+}
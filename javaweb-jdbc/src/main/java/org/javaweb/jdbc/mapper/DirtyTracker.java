@@ -0,0 +1,243 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import org.javaweb.jdbc.annotation.Table;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 实体对象修改跟踪,记录实体对象查询时允许更新字段的值(快照),更新时只写入和快照不一致的字段。
+ * 按对象引用(而不是equals)弱引用保存快照,实体对象被回收后快照自动移除
+ *
+ * @author yz
+ */
+public class DirtyTracker {
+
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	private final Map<IdentityKey, Object[]> snapshots = new HashMap<IdentityKey, Object[]>();
+
+	/**
+	 * 获取可以跟踪修改的实体类映射信息,实体类未添加@Table注解或未配置主键时返回null
+	 *
+	 * @param entityClass 实体类
+	 * @return
+	 * @throws SQLException
+	 */
+	public static EntityMetadata getTrackableMetadata(Class<?> entityClass) throws SQLException {
+		if (!entityClass.isAnnotationPresent(Table.class)) {
+			return null;
+		}
+
+		EntityMetadata metadata = EntityMetadata.of(entityClass);
+
+		return metadata.getIdProperty() != null ? metadata : null;
+	}
+
+	/**
+	 * 记录实体对象当前的快照
+	 *
+	 * @param metadata 实体类映射信息
+	 * @param entity   实体对象
+	 * @throws SQLException
+	 */
+	public void track(EntityMetadata metadata, Object entity) throws SQLException {
+		track(entity, snapshot(metadata, entity));
+	}
+
+	/**
+	 * 记录snapshot()生成的快照,用于更新后等待事务提交再记录快照
+	 *
+	 * @param entity   实体对象
+	 * @param snapshot 快照
+	 */
+	public synchronized void track(Object entity, Object[] snapshot) {
+		expungeStaleEntries();
+		snapshots.put(new IdentityKey(entity, queue), snapshot);
+	}
+
+	/**
+	 * 生成实体对象当前的快照,不记录
+	 *
+	 * @param metadata 实体类映射信息
+	 * @param entity   实体对象
+	 * @return
+	 * @throws SQLException
+	 */
+	public Object[] snapshot(EntityMetadata metadata, Object entity) throws SQLException {
+		List<EntityProperty> properties = metadata.getUpdatableProperties();
+		Object[]             snapshot   = new Object[properties.size()];
+
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = copyValue(properties.get(i).getValue(entity));
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * 复制实体对象所有映射的成员变量值,日期和字节数组值也复制。查询缓存使用副本,避免多个调用方共用同一个实体对象
+	 *
+	 * @param metadata    实体类映射信息
+	 * @param entityClass 实体类
+	 * @param entity      实体对象
+	 * @param <T>
+	 * @return 未跟踪的副本
+	 * @throws SQLException
+	 */
+	public static <T> T copy(EntityMetadata metadata, Class<T> entityClass, T entity) throws SQLException {
+		T copy;
+
+		try {
+			copy = RowMapperFactory.getConstructor(entityClass).newInstance();
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException("实例化实体类[" + entityClass + "]异常: " + e);
+		}
+
+		for (EntityProperty property : metadata.getProperties()) {
+			property.setValue(copy, copyValue(property.getValue(entity)));
+		}
+
+		return copy;
+	}
+
+	/**
+	 * 对比实体对象和快照,返回值发生变化的允许更新字段
+	 *
+	 * @param metadata 实体类映射信息
+	 * @param entity   实体对象
+	 * @return 发生变化的字段在getUpdatableProperties()中的索引, 未跟踪的实体对象返回null
+	 * @throws SQLException
+	 */
+	public BitSet getChangedProperties(EntityMetadata metadata, Object entity) throws SQLException {
+		Object[] snapshot;
+
+		synchronized (this) {
+			snapshot = snapshots.get(new IdentityKey(entity, null));
+		}
+
+		if (snapshot == null) {
+			return null;
+		}
+
+		List<EntityProperty> properties = metadata.getUpdatableProperties();
+		BitSet               changed    = new BitSet(properties.size());
+
+		for (int i = 0; i < snapshot.length; i++) {
+			if (!valueEquals(snapshot[i], properties.get(i).getValue(entity))) {
+				changed.set(i);
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * 移除实体对象的快照
+	 *
+	 * @param entity 实体对象
+	 */
+	public synchronized void untrack(Object entity) {
+		snapshots.remove(new IdentityKey(entity, null));
+	}
+
+	public synchronized void clear() {
+		snapshots.clear();
+	}
+
+	public synchronized int size() {
+		expungeStaleEntries();
+
+		return snapshots.size();
+	}
+
+	private void expungeStaleEntries() {
+		Object ref;
+
+		while ((ref = queue.poll()) != null) {
+			snapshots.remove(ref);
+		}
+	}
+
+	/**
+	 * 复制可变的日期和字节数组值,避免实体对象直接修改原对象时快照跟着变化
+	 */
+	private static Object copyValue(Object value) {
+		if (value instanceof Date) {
+			return ((Date) value).clone();
+		} else if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		}
+
+		return value;
+	}
+
+	private static boolean valueEquals(Object a, Object b) {
+		if (a == b) {
+			return true;
+		} else if (a == null || b == null) {
+			return false;
+		} else if (a instanceof byte[] && b instanceof byte[]) {
+			return Arrays.equals((byte[]) a, (byte[]) b);
+		}
+
+		return a.equals(b);
+	}
+
+	/**
+	 * 按对象引用比较的弱引用key
+	 */
+	private static class IdentityKey extends WeakReference<Object> {
+
+		private final int hash;
+
+		IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			this.hash = System.identityHashCode(referent);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof IdentityKey)) {
+				return false;
+			}
+
+			Object referent = get();
+
+			return referent != null && referent == ((IdentityKey) obj).get();
+		}
+
+	}
+
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import org.javaweb.jdbc.annotation.Column;
+import org.javaweb.jdbc.annotation.Table;
+import org.javaweb.jdbc.exception.JDBCIDException;
+import org.javaweb.utils.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 实体类与数据库表的映射信息,通过@Table和@Column注解解析,每个实体类只解析一次并缓存解析结果和生成的SQL。
+ * 实体类成员变量必须同时包含public的get和set方法才会被映射,未配置@Column(name)时使用小写的成员变量名作为字段名
+ *
+ * @author yz
+ */
+public class EntityMetadata {
+
+	private static final ConcurrentMap<Class<?>, EntityMetadata> METADATA_CACHE =
+			new ConcurrentHashMap<Class<?>, EntityMetadata>();
+
+	private final Class<?> entityClass;
+
+	private final String tableName;
+
+	/**
+	 * 主键映射,实体类未配置主键时为null
+	 */
+	private final EntityProperty idProperty;
+
+	/**
+	 * 所有映射的成员变量,按成员变量声明顺序排列
+	 */
+	private final List<EntityProperty> properties;
+
+	/**
+	 * 除主键外允许更新的成员变量
+	 */
+	private final List<EntityProperty> updatableProperties;
+
+	private final List<EntityProperty> insertPropertiesWithoutId;
+
+	private final String insertSqlWithId;
+
+	private final String insertSqlWithoutId;
+
+	private final String updateSql;
+
+	/**
+	 * 多行VALUES插入语句缓存
+	 */
+	private final ConcurrentMap<String, String> multiRowInsertSqlCache = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * 只更新部分字段的更新语句缓存,key为字段在updatableProperties中的索引
+	 */
+	private final ConcurrentMap<BitSet, String> partialUpdateSqlCache = new ConcurrentHashMap<BitSet, String>();
+
+	/**
+	 * 按主键列表查询的语句缓存,key为in参数个数
+	 */
+	private final ConcurrentMap<Integer, String> selectByIdsSqlCache = new ConcurrentHashMap<Integer, String>();
+
+	private EntityMetadata(Class<?> entityClass, String tableName,
+	                       EntityProperty idProperty, List<EntityProperty> properties) {
+
+		this.entityClass = entityClass;
+		this.tableName = tableName;
+		this.idProperty = idProperty;
+		this.properties = Collections.unmodifiableList(properties);
+
+		List<EntityProperty> updatable       = new ArrayList<EntityProperty>();
+		List<EntityProperty> insertWithoutId = new ArrayList<EntityProperty>();
+
+		for (EntityProperty property : properties) {
+			if (property != idProperty) {
+				insertWithoutId.add(property);
+
+				if (property.isUpdatable()) {
+					updatable.add(property);
+				}
+			}
+		}
+
+		this.updatableProperties = Collections.unmodifiableList(updatable);
+		this.insertPropertiesWithoutId = Collections.unmodifiableList(insertWithoutId);
+		this.insertSqlWithId = buildInsertSql(this.properties, 1);
+		this.insertSqlWithoutId = buildInsertSql(this.insertPropertiesWithoutId, 1);
+		this.updateSql = idProperty != null ? buildUpdateSql(updatableProperties) : null;
+	}
+
+	/**
+	 * 获取实体类的映射信息
+	 *
+	 * @param entityClass 添加了@Table注解的实体类
+	 * @return
+	 * @throws SQLException 实体类未添加@Table注解或存在多个主键
+	 */
+	public static EntityMetadata of(Class<?> entityClass) throws SQLException {
+		EntityMetadata metadata = METADATA_CACHE.get(entityClass);
+
+		if (metadata == null) {
+			metadata = parse(entityClass);
+			EntityMetadata existing = METADATA_CACHE.putIfAbsent(entityClass, metadata);
+
+			if (existing != null) {
+				metadata = existing;
+			}
+		}
+
+		return metadata;
+	}
+
+	private static EntityMetadata parse(Class<?> entityClass) throws SQLException {
+		Table table = entityClass.getAnnotation(Table.class);
+
+		if (table == null) {
+			throw new SQLException("映射实体异常: " + entityClass + "未添加@Table注解.");
+		}
+
+		String               tableName  = table.table();
+		Map<String, Method>  methodMap  = ReflectionUtils.getMethodsMap(entityClass);
+		Map<String, Field>   fieldMap   = new LinkedHashMap<String, Field>();
+		List<EntityProperty> properties = new ArrayList<EntityProperty>();
+		EntityProperty       idProperty = null;
+		EntityProperty       idByName   = null;
+
+		// 按父类到子类的声明顺序收集成员变量
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+
+		for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			classes.add(0, c);
+		}
+
+		for (Class<?> c : classes) {
+			for (Field field : c.getDeclaredFields()) {
+				String name = field.getName().toLowerCase();
+
+				if (!Modifier.isStatic(field.getModifiers()) && !fieldMap.containsKey(name)) {
+					fieldMap.put(name, field);
+				}
+			}
+		}
+
+		for (String name : fieldMap.keySet()) {
+			Method getter = methodMap.get("get" + name);
+			Method setter = methodMap.get("set" + name);
+
+			if (getter == null || setter == null ||
+					getter.getParameterTypes().length != 0 || setter.getParameterTypes().length != 1) {
+
+				continue;
+			}
+
+			Column column = setter.getAnnotation(Column.class);
+
+			if (column == null) {
+				column = fieldMap.get(name).getAnnotation(Column.class);
+			}
+
+			if (column == null) {
+				column = getter.getAnnotation(Column.class);
+			}
+
+			String  columnName = column != null && column.name().length() > 0 ? column.name() : name;
+			boolean id         = column != null && column.id();
+			boolean updatable  = column == null || column.updatable();
+
+			if (id && idProperty != null) {
+				throw new JDBCIDException(tableName, name);
+			}
+
+			EntityProperty property = new EntityProperty(name, columnName, getter, setter, id, updatable);
+			properties.add(property);
+
+			if (id) {
+				idProperty = property;
+			} else if (columnName.equalsIgnoreCase(table.id()) || name.equals(table.id().toLowerCase())) {
+				idByName = property;
+			}
+		}
+
+		// 未使用@Column(id=true)标注主键时使用@Table(id)对应的字段
+		if (idProperty == null && idByName != null) {
+			int index = properties.indexOf(idByName);
+
+			idProperty = new EntityProperty(
+					idByName.getName(), idByName.getColumnName(), idByName.getGetter(),
+					idByName.getSetter(), true, idByName.isUpdatable()
+			);
+
+			properties.set(index, idProperty);
+		}
+
+		return new EntityMetadata(entityClass, tableName, idProperty, properties);
+	}
+
+	private String buildInsertSql(List<EntityProperty> columns, int rows) {
+		StringBuilder sb = new StringBuilder("insert into ").append(tableName).append(" (");
+
+		for (int i = 0; i < columns.size(); i++) {
+			sb.append(i > 0 ? ", " : "").append(columns.get(i).getColumnName());
+		}
+
+		sb.append(") values ");
+
+		for (int row = 0; row < rows; row++) {
+			sb.append(row > 0 ? ", (" : "(");
+
+			for (int i = 0; i < columns.size(); i++) {
+				sb.append(i > 0 ? ", ?" : "?");
+			}
+
+			sb.append(")");
+		}
+
+		return sb.toString();
+	}
+
+	private String buildUpdateSql(List<EntityProperty> columns) {
+		StringBuilder sb = new StringBuilder("update ").append(tableName).append(" set ");
+
+		for (int i = 0; i < columns.size(); i++) {
+			sb.append(i > 0 ? ", " : "").append(columns.get(i).getColumnName()).append("=?");
+		}
+
+		return sb.append(" where ").append(idProperty.getColumnName()).append("=?").toString();
+	}
+
+	/**
+	 * 获取主键映射,实体类未配置主键时抛出异常
+	 *
+	 * @return
+	 * @throws JDBCIDException
+	 */
+	public EntityProperty requireIdProperty() throws JDBCIDException {
+		if (idProperty == null) {
+			throw new JDBCIDException(tableName);
+		}
+
+		return idProperty;
+	}
+
+	/**
+	 * 判断实体对象的主键值是否为空(null、数值0或空字符串),主键为空时插入语句不包含主键字段由数据库生成
+	 *
+	 * @param entity 实体对象
+	 * @return
+	 * @throws SQLException
+	 */
+	public boolean isIdAbsent(Object entity) throws SQLException {
+		if (idProperty == null) {
+			return true;
+		}
+
+		Object value = idProperty.getValue(entity);
+
+		if (value == null) {
+			return true;
+		} else if (value instanceof Number) {
+			return ((Number) value).longValue() == 0;
+		} else if (value instanceof String) {
+			return ((String) value).length() == 0;
+		}
+
+		return false;
+	}
+
+	/**
+	 * 获取插入语句包含的成员变量
+	 *
+	 * @param includeId 是否包含主键
+	 * @return
+	 */
+	public List<EntityProperty> getInsertProperties(boolean includeId) {
+		return includeId || idProperty == null ? properties : insertPropertiesWithoutId;
+	}
+
+	/**
+	 * 获取插入语句,如: insert into table (a, b) values (?, ?)
+	 *
+	 * @param includeId 是否包含主键
+	 * @return
+	 */
+	public String getInsertSql(boolean includeId) {
+		return includeId || idProperty == null ? insertSqlWithId : insertSqlWithoutId;
+	}
+
+	/**
+	 * 获取多行VALUES插入语句,如: insert into table (a, b) values (?, ?), (?, ?)
+	 *
+	 * @param includeId 是否包含主键
+	 * @param rows      行数
+	 * @return
+	 */
+	public String getMultiRowInsertSql(boolean includeId, int rows) {
+		if (rows == 1) {
+			return getInsertSql(includeId);
+		}
+
+		String key = (includeId ? "id:" : "") + rows;
+		String sql = multiRowInsertSqlCache.get(key);
+
+		if (sql == null) {
+			sql = buildInsertSql(getInsertProperties(includeId), rows);
+			multiRowInsertSqlCache.putIfAbsent(key, sql);
+		}
+
+		return sql;
+	}
+
+	/**
+	 * 获取按主键更新所有允许更新字段的语句,如: update table set a=?, b=? where id=?
+	 *
+	 * @return
+	 * @throws JDBCIDException 实体类未配置主键
+	 */
+	public String getUpdateSql() throws JDBCIDException {
+		requireIdProperty();
+
+		return updateSql;
+	}
+
+	/**
+	 * 获取只更新部分字段的更新语句,如: update table set b=? where id=?
+	 *
+	 * @param changed 需要更新的字段在getUpdatableProperties()中的索引,不能为空
+	 * @return
+	 * @throws JDBCIDException 实体类未配置主键
+	 */
+	public String getPartialUpdateSql(BitSet changed) throws JDBCIDException {
+		requireIdProperty();
+
+		if (changed.cardinality() == updatableProperties.size()) {
+			return updateSql;
+		}
+
+		String sql = partialUpdateSqlCache.get(changed);
+
+		if (sql == null) {
+			BitSet key = (BitSet) changed.clone();
+			sql = buildUpdateSql(getChangedProperties(key));
+			partialUpdateSqlCache.putIfAbsent(key, sql);
+		}
+
+		return sql;
+	}
+
+	/**
+	 * 获取按主键列表查询的语句,如: select * from table where id in (?, ?)
+	 *
+	 * @param size in参数个数
+	 * @return
+	 * @throws JDBCIDException 实体类未配置主键
+	 */
+	public String getSelectByIdsSql(int size) throws JDBCIDException {
+		String sql = selectByIdsSqlCache.get(size);
+
+		if (sql == null) {
+			StringBuilder sb = new StringBuilder("select * from ").append(tableName).append(" where ");
+			sb.append(requireIdProperty().getColumnName()).append(" in (");
+
+			for (int i = 0; i < size; i++) {
+				sb.append(i > 0 ? ", ?" : "?");
+			}
+
+			sql = sb.append(')').toString();
+			selectByIdsSqlCache.putIfAbsent(size, sql);
+		}
+
+		return sql;
+	}
+
+	/**
+	 * 获取只更新部分字段的更新语句参数,更新字段值在前,主键值在最后
+	 *
+	 * @param entity  实体对象
+	 * @param changed 需要更新的字段在getUpdatableProperties()中的索引
+	 * @return
+	 * @throws SQLException
+	 */
+	public Object[] getPartialUpdateParameters(Object entity, BitSet changed) throws SQLException {
+		List<EntityProperty> columns = getChangedProperties(changed);
+		Object[]             values  = getValues(entity, columns);
+		Object[]             result  = new Object[values.length + 1];
+
+		System.arraycopy(values, 0, result, 0, values.length);
+		result[values.length] = requireIdProperty().getValue(entity);
+
+		return result;
+	}
+
+	private List<EntityProperty> getChangedProperties(BitSet changed) {
+		List<EntityProperty> columns = new ArrayList<EntityProperty>(changed.cardinality());
+
+		for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+			columns.add(updatableProperties.get(i));
+		}
+
+		return columns;
+	}
+
+	/**
+	 * 读取实体对象中多个成员变量的值
+	 *
+	 * @param entity     实体对象
+	 * @param properties 成员变量映射
+	 * @return
+	 * @throws SQLException
+	 */
+	public static Object[] getValues(Object entity, List<EntityProperty> properties) throws SQLException {
+		Object[] values = new Object[properties.size()];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = properties.get(i).getValue(entity);
+		}
+
+		return values;
+	}
+
+	/**
+	 * 获取更新语句的参数,允许更新的字段值在前,主键值在最后
+	 *
+	 * @param entity 实体对象
+	 * @return
+	 * @throws SQLException
+	 */
+	public Object[] getUpdateParameters(Object entity) throws SQLException {
+		Object[] values = new Object[updatableProperties.size() + 1];
+
+		for (int i = 0; i < updatableProperties.size(); i++) {
+			values[i] = updatableProperties.get(i).getValue(entity);
+		}
+
+		values[values.length - 1] = requireIdProperty().getValue(entity);
+
+		return values;
+	}
+
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public EntityProperty getIdProperty() {
+		return idProperty;
+	}
+
+	public List<EntityProperty> getProperties() {
+		return properties;
+	}
+
+	public List<EntityProperty> getUpdatableProperties() {
+		return updatableProperties;
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+
+/**
+ * 实体类成员变量和数据库表字段的映射
+ *
+ * @author yz
+ */
+public class EntityProperty {
+
+	/**
+	 * 成员变量名(小写)
+	 */
+	private final String name;
+
+	/**
+	 * 数据库表字段名
+	 */
+	private final String columnName;
+
+	private final Method getter;
+
+	private final Method setter;
+
+	/**
+	 * 是否是主键
+	 */
+	private final boolean id;
+
+	/**
+	 * 是否允许更新
+	 */
+	private final boolean updatable;
+
+	public EntityProperty(String name, String columnName, Method getter, Method setter, boolean id, boolean updatable) {
+		this.name = name;
+		this.columnName = columnName;
+		this.getter = getter;
+		this.setter = setter;
+		this.id = id;
+		this.updatable = updatable;
+	}
+
+	/**
+	 * 读取实体对象中的成员变量值
+	 *
+	 * @param entity 实体对象
+	 * @return
+	 * @throws SQLException
+	 */
+	public Object getValue(Object entity) throws SQLException {
+		try {
+			return getter.invoke(entity);
+		} catch (IllegalAccessException e) {
+			throw new SQLException("方法:" + getter + ",读取实体值异常:" + e);
+		} catch (InvocationTargetException e) {
+			throw new SQLException("方法:" + getter + ",读取实体值异常:" + e.getTargetException());
+		}
+	}
+
+	/**
+	 * 设置实体对象中的成员变量值
+	 *
+	 * @param entity 实体对象
+	 * @param value  值
+	 * @throws SQLException
+	 */
+	public void setValue(Object entity, Object value) throws SQLException {
+		try {
+			setter.invoke(entity, value);
+		} catch (IllegalArgumentException e) {
+			throw new SQLException("方法:" + setter + ",值:" + value + ",映射异常:" + e);
+		} catch (IllegalAccessException e) {
+			throw new SQLException("方法:" + setter + ",值:" + value + ",映射异常:" + e);
+		} catch (InvocationTargetException e) {
+			throw new SQLException("方法:" + setter + ",值:" + value + ",映射异常:" + e.getTargetException());
+		}
+	}
+
+	public Class<?> getType() {
+		return setter.getParameterTypes()[0];
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	public Method getGetter() {
+		return getter;
+	}
+
+	public Method getSetter() {
+		return setter;
+	}
+
+	public boolean isId() {
+		return id;
+	}
+
+	public boolean isUpdatable() {
+		return updatable;
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 预编译的实体类行映射,列索引与setter方法的绑定关系在创建时确定,每行只做按索引、按类型的取值和setter调用
+ *
+ * @author yz
+ */
+public class EntityRowMapper<T> implements RowMapper<T> {
+
+	private final Constructor<T> constructor;
+
+	/**
+	 * 结果集列索引,与setters一一对应
+	 */
+	private final int[] columnIndexes;
+
+	private final Method[] setters;
+
+	/**
+	 * 列值读取类型,见ColumnValueReader
+	 */
+	private final int[] valueTypes;
+
+	public EntityRowMapper(Constructor<T> constructor, int[] columnIndexes, Method[] setters, int[] valueTypes) {
+		this.constructor = constructor;
+		this.columnIndexes = columnIndexes;
+		this.setters = setters;
+		this.valueTypes = valueTypes;
+	}
+
+	@Override
+	public T mapRow(ResultSet rs) throws SQLException {
+		T entity;
+
+		try {
+			entity = constructor.newInstance();
+		} catch (Exception e) {
+			throw new SQLException("实例化实体类[" + constructor.getDeclaringClass() + "]异常: " + e);
+		}
+
+		for (int i = 0; i < setters.length; i++) {
+			Object value = ColumnValueReader.getValue(rs, columnIndexes[i], valueTypes[i]);
+
+			try {
+				setters[i].invoke(entity, value);
+			} catch (IllegalArgumentException e) {
+				throw new SQLException("方法:" + setters[i] + ",值:" + value + ",映射异常:" + e);
+			} catch (IllegalAccessException e) {
+				throw new SQLException("方法:" + setters[i] + ",值:" + value + ",映射异常:" + e);
+			} catch (InvocationTargetException e) {
+				throw new SQLException("方法:" + setters[i] + ",值:" + value + ",映射异常:" + e.getTargetException());
+			}
+		}
+
+		return entity;
+	}
+
+	public Class<T> getEntityClass() {
+		return constructor.getDeclaringClass();
+	}
+
+	public int[] getColumnIndexes() {
+		return columnIndexes;
+	}
+
+	public Method[] getSetters() {
+		return setters;
+	}
+
+	public int[] getValueTypes() {
+		return valueTypes;
+	}
+
+}
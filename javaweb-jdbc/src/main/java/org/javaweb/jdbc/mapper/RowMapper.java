@@ -0,0 +1,37 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 结果集行映射接口,将ResultSet当前行映射成一个对象,实现类不应调用ResultSet.next()
+ *
+ * @author yz
+ */
+public interface RowMapper<T> {
+
+	/**
+	 * 映射结果集中的当前行
+	 *
+	 * @param rs 已定位到当前行的结果集
+	 * @return 映射后的对象
+	 * @throws SQLException
+	 */
+	T mapRow(ResultSet rs) throws SQLException;
+
+}
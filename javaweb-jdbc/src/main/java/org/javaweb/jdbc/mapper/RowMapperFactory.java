@@ -0,0 +1,278 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.mapper;
+
+import org.javaweb.utils.ReflectionUtils;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 实体类行映射缓存,按(实体类,结果集列结构)缓存预编译好的RowMapper,
+ * 同一条SQL重复查询时不再重复反射解析实体类和做列名字符串处理。
+ * 默认优先使用ASM生成的字节码RowMapper,ASM不可用或实体类不满足生成条件时使用反射RowMapper
+ *
+ * @author yz
+ */
+public class RowMapperFactory {
+
+	/**
+	 * 实体类setter缓存,key为去掉下划线的小写字段名
+	 */
+	private static final ConcurrentMap<Class<?>, Map<String, Method>> SETTER_CACHE =
+			new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+
+	/**
+	 * 每个ClassLoader最多缓存的RowMapper数量,超过时淘汰最久未使用的
+	 */
+	private static final int MAX_MAPPERS_PER_LOADER = 1024;
+
+	/**
+	 * 行映射缓存,key为实体类的ClassLoader(弱引用),value为"实体类名:列结构"和RowMapper的LRU映射。
+	 * RowMapper使用软引用保存,缓存不会强引用实体类,web应用重新部署后旧的ClassLoader和生成的RowMapper类可以被回收
+	 */
+	private static final Map<ClassLoader, Map<String, SoftReference<RowMapper<?>>>> MAPPER_CACHE =
+			new WeakHashMap<ClassLoader, Map<String, SoftReference<RowMapper<?>>>>();
+
+	/**
+	 * 是否使用ASM生成字节码RowMapper
+	 */
+	private static volatile boolean asmEnabled = true;
+
+	public static boolean isAsmEnabled() {
+		return asmEnabled;
+	}
+
+	public static void setAsmEnabled(boolean asmEnabled) {
+		RowMapperFactory.asmEnabled = asmEnabled;
+	}
+
+	/**
+	 * 获取实体类对应结果集列结构的RowMapper,不存在时编译并缓存
+	 *
+	 * @param entityClass 实体类
+	 * @param rsm         结果集元数据
+	 * @param <T>
+	 * @return
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> RowMapper<T> getRowMapper(Class<T> entityClass, ResultSetMetaData rsm) throws SQLException {
+		int           columnCount = rsm.getColumnCount();
+		String[]      columnNames = new String[columnCount];
+		StringBuilder layout      = new StringBuilder();
+
+		for (int i = 0; i < columnCount; i++) {
+			columnNames[i] = rsm.getColumnName(i + 1);
+			layout.append(columnNames[i]).append(',');
+		}
+
+		String       key       = entityClass.getName() + ':' + layout;
+		ClassLoader  loader    = entityClass.getClassLoader();
+		RowMapper<T> rowMapper = null;
+
+		synchronized (MAPPER_CACHE) {
+			Map<String, SoftReference<RowMapper<?>>> mapperMap = MAPPER_CACHE.get(loader);
+
+			if (mapperMap != null) {
+				SoftReference<RowMapper<?>> ref = mapperMap.get(key);
+				rowMapper = ref != null ? (RowMapper<T>) ref.get() : null;
+			}
+		}
+
+		if (rowMapper == null) {
+			rowMapper = compile(entityClass, columnNames);
+
+			synchronized (MAPPER_CACHE) {
+				Map<String, SoftReference<RowMapper<?>>> mapperMap = MAPPER_CACHE.get(loader);
+
+				if (mapperMap == null) {
+					mapperMap = newLruMap();
+					MAPPER_CACHE.put(loader, mapperMap);
+				}
+
+				mapperMap.put(key, new SoftReference<RowMapper<?>>(rowMapper));
+			}
+		}
+
+		return rowMapper;
+	}
+
+	private static Map<String, SoftReference<RowMapper<?>>> newLruMap() {
+		return new LinkedHashMap<String, SoftReference<RowMapper<?>>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SoftReference<RowMapper<?>>> eldest) {
+				return size() > MAX_MAPPERS_PER_LOADER;
+			}
+		};
+	}
+
+	/**
+	 * 根据结果集列名绑定列索引和setter方法
+	 *
+	 * @param entityClass 实体类
+	 * @param columnNames 结果集列名
+	 * @param <T>
+	 * @return
+	 * @throws SQLException
+	 */
+	private static <T> RowMapper<T> compile(Class<T> entityClass, String[] columnNames) throws SQLException {
+		EntityRowMapper<T> mapper = compileReflection(entityClass, columnNames);
+
+		if (asmEnabled) {
+			try {
+				RowMapper<T> asmMapper = AsmRowMapperGenerator.generate(mapper);
+
+				if (asmMapper != null) {
+					return asmMapper;
+				}
+			} catch (LinkageError e) {
+				// 运行环境中没有ASM依赖,后续不再尝试生成
+				asmEnabled = false;
+			}
+		}
+
+		return mapper;
+	}
+
+	/**
+	 * 编译实体类对应结果集列名的反射RowMapper
+	 *
+	 * @param entityClass 实体类
+	 * @param columnNames 结果集列名
+	 * @param <T>
+	 * @return
+	 * @throws SQLException
+	 */
+	public static <T> EntityRowMapper<T> compileReflection(Class<T> entityClass, String[] columnNames)
+			throws SQLException {
+
+		Map<String, Method> setterMap = getSetterMap(entityClass);
+		List<Integer>       indexes   = new ArrayList<Integer>();
+		List<Method>        setters   = new ArrayList<Method>();
+
+		for (int i = 0; i < columnNames.length; i++) {
+			Method method = setterMap.get(normalizeColumnName(columnNames[i]));
+
+			if (method != null) {
+				indexes.add(i + 1);
+				setters.add(method);
+			}
+		}
+
+		int[]    columnIndexes = new int[setters.size()];
+		int[]    valueTypes    = new int[setters.size()];
+		Method[] setterArray   = setters.toArray(new Method[setters.size()]);
+
+		for (int i = 0; i < setterArray.length; i++) {
+			columnIndexes[i] = indexes.get(i);
+			valueTypes[i] = ColumnValueReader.getValueType(setterArray[i].getParameterTypes()[0]);
+		}
+
+		return new EntityRowMapper<T>(getConstructor(entityClass), columnIndexes, setterArray, valueTypes);
+	}
+
+	static <T> Constructor<T> getConstructor(Class<T> entityClass) throws SQLException {
+		try {
+			Constructor<T> constructor = entityClass.getDeclaredConstructor();
+
+			try {
+				constructor.setAccessible(true);
+			} catch (SecurityException e) {
+				// 无权限时仍使用public构造方法
+			}
+
+			return constructor;
+		} catch (NoSuchMethodException e) {
+			throw new SQLException("映射实体异常: " + entityClass + "缺少无参构造方法.");
+		}
+	}
+
+	/**
+	 * 获取实体类中可映射的setter方法,实体类必须同时包含成员变量和对应的单参数public set方法,
+	 * key为去掉下划线的小写字段名
+	 *
+	 * @param entityClass 实体类
+	 * @return
+	 */
+	public static Map<String, Method> getSetterMap(Class<?> entityClass) {
+		Map<String, Method> setterMap = SETTER_CACHE.get(entityClass);
+
+		if (setterMap == null) {
+			Map<String, Method> methodMap = ReflectionUtils.getMethodsMap(entityClass);
+			Map<String, Field>  fieldMap  = ReflectionUtils.getAllFieldsMap(entityClass);
+
+			setterMap = new HashMap<String, Method>();
+
+			for (String methodName : methodMap.keySet()) {
+				Method method = methodMap.get(methodName);
+
+				if (methodName.startsWith("set") && method.getParameterTypes().length == 1) {
+					String fieldName = methodName.substring(3);
+
+					if (fieldMap.containsKey(fieldName)) {
+						try {
+							method.setAccessible(true);
+						} catch (SecurityException e) {
+							// 无权限时仍按public方法调用
+						}
+
+						setterMap.put(fieldName, method);
+					}
+				}
+			}
+
+			SETTER_CACHE.putIfAbsent(entityClass, setterMap);
+		}
+
+		return setterMap;
+	}
+
+	/**
+	 * 数据库字段名转换成实体类成员变量名的比较格式:小写并忽略下划线,如:user_id 等于userId
+	 *
+	 * @param columnName 数据库字段名
+	 * @return
+	 */
+	public static String normalizeColumnName(String columnName) {
+		StringBuilder sb = new StringBuilder(columnName.length());
+
+		for (int i = 0; i < columnName.length(); i++) {
+			char c = columnName.charAt(i);
+
+			if (c != '_') {
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.metrics;
+
+/**
+ * 耗时直方图快照,耗时单位为微秒
+ *
+ * @author yz
+ */
+public class HistogramSnapshot {
+
+	private final long count;
+
+	private final long sum;
+
+	private final long max;
+
+	private final long p50;
+
+	private final long p90;
+
+	private final long p99;
+
+	private final long p999;
+
+	public HistogramSnapshot(long count, long sum, long max, long p50, long p90, long p99, long p999) {
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public double getMean() {
+		return count > 0 ? (double) sum / count : 0;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getP999() {
+		return p999;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + Math.round(getMean()) + "us, p50=" + p50 + "us, p90=" + p90 +
+				"us, p99=" + p99 + "us, p99.9=" + p999 + "us, max=" + max + "us";
+	}
+
+}
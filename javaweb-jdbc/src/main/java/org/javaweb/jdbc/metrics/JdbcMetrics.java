@@ -0,0 +1,370 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * JDBC执行统计,按归一化SQL记录执行耗时直方图、返回或影响行数、错误数,以及获取连接等待时间和映射实体对象耗时。
+ * 执行时间超过slowQueryThresholdMillis的语句连同绑定参数写入慢查询日志(org.javaweb.jdbc.metrics.JdbcMetrics.slow),
+ * 通过snapshot()读取统计快照。设置到SqlHelp.setMetrics后生效,所有记录方法都是无锁的
+ *
+ * @author yz
+ */
+public class JdbcMetrics {
+
+	private static final Logger SLOW_LOG = Logger.getLogger(JdbcMetrics.class.getName() + ".slow");
+
+	/**
+	 * 统计的语句数超过maxStatements后,其他语句合并到该条统计中
+	 */
+	public static final String OTHER_STATEMENTS = "<other>";
+
+	/**
+	 * 慢查询日志中单个参数的最大长度
+	 */
+	private static final int MAX_PARAMETER_LENGTH = 200;
+
+	/**
+	 * 慢查询日志中的最大参数个数
+	 */
+	private static final int MAX_LOGGED_PARAMETERS = 50;
+
+	private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+
+	/**
+	 * in (?, ?, ?)参数列表
+	 */
+	private static final Pattern IN_LIST_PATTERN = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+	/**
+	 * 多行插入的values (?), (?), (?)
+	 */
+	private static final Pattern VALUES_LIST_PATTERN = Pattern.compile("(\\([^()]*\\))(?:\\s*,\\s*\\1)+");
+
+	/**
+	 * 归一化SQL和统计
+	 */
+	private final ConcurrentMap<String, StatementStatistics> statements =
+			new ConcurrentHashMap<String, StatementStatistics>();
+
+	/**
+	 * 原始SQL和统计,避免每次执行都归一化SQL
+	 */
+	private final ConcurrentMap<String, StatementStatistics> sqlIndex =
+			new ConcurrentHashMap<String, StatementStatistics>();
+
+	/**
+	 * 从DataSource获取连接的等待时间
+	 */
+	private final LatencyHistogram connectionWait = new LatencyHistogram();
+
+	/**
+	 * 查询结果映射实体对象的耗时
+	 */
+	private final LatencyHistogram mapping = new LatencyHistogram();
+
+	/**
+	 * 超时的语句总数
+	 */
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * 慢查询阈值(毫秒),小于0时不记录慢查询
+	 */
+	private volatile long slowQueryThresholdMillis = 1000;
+
+	/**
+	 * 最多统计的归一化SQL数量
+	 */
+	private volatile int maxStatements = 500;
+
+	private volatile long startTime = System.currentTimeMillis();
+
+	/**
+	 * 记录查询或更新语句的执行
+	 *
+	 * @param sql    SQL语句
+	 * @param args   绑定参数,只在记录慢查询时使用
+	 * @param nanos  执行耗时(纳秒)
+	 * @param rows   返回或影响的行数,未知时传-1
+	 * @param failed 是否执行失败
+	 */
+	public void recordStatement(String sql, Object[] args, long nanos, long rows, boolean failed) {
+		boolean slow = isSlow(nanos);
+		getStatistics(sql).record(nanos, rows, failed, slow);
+
+		if (slow && SLOW_LOG.isLoggable(Level.WARNING)) {
+			SLOW_LOG.warning(
+					"慢SQL(" + nanos / 1000000 + "ms, 行数:" + rows + (failed ? ", 执行失败" : "") + "): " + sql +
+							", 参数: " + formatParameters(args)
+			);
+		}
+	}
+
+	/**
+	 * 记录批量更新语句的执行
+	 *
+	 * @param sql       SQL语句
+	 * @param batchSize 批量执行的参数组数
+	 * @param nanos     执行耗时(纳秒)
+	 * @param rows      影响的总行数,未知时传-1
+	 * @param failed    是否执行失败
+	 */
+	public void recordBatch(String sql, int batchSize, long nanos, long rows, boolean failed) {
+		boolean slow = isSlow(nanos);
+		getStatistics(sql).record(nanos, rows, failed, slow);
+
+		if (slow && SLOW_LOG.isLoggable(Level.WARNING)) {
+			SLOW_LOG.warning(
+					"慢SQL(" + nanos / 1000000 + "ms, 行数:" + rows + (failed ? ", 执行失败" : "") + "): " + sql +
+							", 批量参数: " + batchSize + "组"
+			);
+		}
+	}
+
+	/**
+	 * 记录超过截止时间被取消或驱动报告超时的语句
+	 *
+	 * @param sql SQL语句,未知时为null
+	 */
+	public void recordTimeout(String sql) {
+		timeouts.incrementAndGet();
+
+		if (sql != null) {
+			getStatistics(sql).recordTimeout();
+		}
+	}
+
+	/**
+	 * 记录从DataSource获取连接的等待时间
+	 *
+	 * @param nanos 等待时间(纳秒)
+	 */
+	public void recordConnectionWait(long nanos) {
+		connectionWait.recordNanos(nanos);
+	}
+
+	/**
+	 * 记录查询结果映射实体对象的耗时
+	 *
+	 * @param sql   查询语句
+	 * @param nanos 映射耗时(纳秒)
+	 */
+	public void recordMapping(String sql, long nanos) {
+		mapping.recordNanos(nanos);
+		getStatistics(sql).recordMapping(nanos);
+	}
+
+	/**
+	 * 读取统计快照,语句按总执行时间倒序排列
+	 *
+	 * @return
+	 */
+	public MetricsSnapshot snapshot() {
+		List<StatementSnapshot> list = new ArrayList<StatementSnapshot>(statements.size());
+
+		for (StatementStatistics statistics : statements.values()) {
+			list.add(statistics.snapshot());
+		}
+
+		Collections.sort(list, new Comparator<StatementSnapshot>() {
+			@Override
+			public int compare(StatementSnapshot o1, StatementSnapshot o2) {
+				long t1 = o1.getLatency().getSum();
+				long t2 = o2.getLatency().getSum();
+
+				return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+			}
+		});
+
+		return new MetricsSnapshot(
+				startTime, System.currentTimeMillis(), list, connectionWait.snapshot(), mapping.snapshot(),
+				timeouts.get()
+		);
+	}
+
+	/**
+	 * 清空所有统计
+	 */
+	public void reset() {
+		statements.clear();
+		sqlIndex.clear();
+		connectionWait.reset();
+		mapping.reset();
+		timeouts.set(0);
+		startTime = System.currentTimeMillis();
+	}
+
+	private boolean isSlow(long nanos) {
+		long threshold = slowQueryThresholdMillis;
+
+		return threshold >= 0 && nanos >= threshold * 1000000;
+	}
+
+	private StatementStatistics getStatistics(String sql) {
+		StatementStatistics statistics = sqlIndex.get(sql);
+
+		if (statistics != null) {
+			return statistics;
+		}
+
+		String key = normalizeSql(sql);
+		statistics = statements.get(key);
+
+		if (statistics == null) {
+			if (statements.size() >= maxStatements) {
+				key = OTHER_STATEMENTS;
+			}
+
+			StatementStatistics created  = new StatementStatistics(key);
+			StatementStatistics previous = statements.putIfAbsent(key, created);
+			statistics = previous != null ? previous : created;
+		}
+
+		// 原始SQL可能包含字面量,限制索引大小
+		if (sqlIndex.size() < maxStatements * 4) {
+			sqlIndex.put(sql, statistics);
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * 归一化SQL:去除注释,字符串和数字字面量替换为?,合并空白字符,in参数列表和多行values合并成一项
+	 *
+	 * @param sql SQL语句
+	 * @return 归一化后的SQL
+	 */
+	public static String normalizeSql(String sql) {
+		StringBuilder sb     = new StringBuilder(sql.length());
+		int           length = sql.length();
+		int           i      = 0;
+
+		while (i < length) {
+			char c = sql.charAt(i);
+
+			if (c == '\'') {
+				// 字符串字面量,''为转义的单引号
+				i++;
+
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+
+						break;
+					}
+
+					i++;
+				}
+
+				sb.append('?');
+				i++;
+			} else if (c == '"' || c == '`') {
+				int end = sql.indexOf(c, i + 1);
+				end = end < 0 ? length : end + 1;
+				sb.append(sql, i, end);
+				i = end;
+			} else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				int end = sql.indexOf('\n', i);
+				i = end < 0 ? length : end;
+				sb.append(' ');
+			} else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? length : end + 2;
+				sb.append(' ');
+			} else if (Character.isDigit(c) && !isIdentifierTail(sb)) {
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+
+				sb.append('?');
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+
+		String normalized = WHITESPACE_PATTERN.matcher(sb).replaceAll(" ").trim();
+		normalized = IN_LIST_PATTERN.matcher(normalized).replaceAll("in (?)");
+
+		return VALUES_LIST_PATTERN.matcher(normalized).replaceAll("$1");
+	}
+
+	private static boolean isIdentifierTail(StringBuilder sb) {
+		if (sb.length() == 0) {
+			return false;
+		}
+
+		char c = sb.charAt(sb.length() - 1);
+
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	private static String formatParameters(Object[] args) {
+		if (args == null || args.length == 0) {
+			return "[]";
+		}
+
+		StringBuilder sb    = new StringBuilder("[");
+		int           count = Math.min(args.length, MAX_LOGGED_PARAMETERS);
+
+		for (int i = 0; i < count; i++) {
+			String value = String.valueOf(args[i]);
+
+			if (value.length() > MAX_PARAMETER_LENGTH) {
+				value = value.substring(0, MAX_PARAMETER_LENGTH) + "...";
+			}
+
+			sb.append(i > 0 ? ", " : "").append(value);
+		}
+
+		if (args.length > count) {
+			sb.append(", ...共").append(args.length).append("个");
+		}
+
+		return sb.append(']').toString();
+	}
+
+	public long getSlowQueryThresholdMillis() {
+		return slowQueryThresholdMillis;
+	}
+
+	public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+		this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+	}
+
+	public int getMaxStatements() {
+		return maxStatements;
+	}
+
+	public void setMaxStatements(int maxStatements) {
+		this.maxStatements = maxStatements;
+	}
+
+}
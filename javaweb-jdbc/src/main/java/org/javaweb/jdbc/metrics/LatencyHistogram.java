@@ -0,0 +1,157 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁耗时直方图,以微秒为单位按对数线性分桶记录(HDR风格):小于32微秒的值精确记录,
+ * 更大的值每个2的幂区间分为16个桶,相对误差不超过1/16。记录只需要几次原子操作,可在多线程中并发调用
+ *
+ * @author yz
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * 可记录的最大值,约1小时,更大的值记录到最后一个桶
+	 */
+	private static final long MAX_VALUE = (1L << 32) - 1;
+
+	private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * 记录一次耗时
+	 *
+	 * @param nanos 耗时(纳秒)
+	 */
+	public void recordNanos(long nanos) {
+		record(nanos / 1000);
+	}
+
+	/**
+	 * 记录一个值
+	 *
+	 * @param micros 耗时(微秒)
+	 */
+	public void record(long micros) {
+		long value = micros < 0 ? 0 : micros;
+
+		counts.incrementAndGet(bucketIndex(Math.min(value, MAX_VALUE)));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current;
+
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// 其他线程更新了最大值,重试
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * 读取当前统计的快照,并发记录时各项统计之间可能有少量偏差
+	 *
+	 * @return
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] buckets = new long[BUCKET_COUNT];
+		long   total   = 0;
+		long   maximum = max.get();
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = counts.get(i);
+			total += buckets[i];
+		}
+
+		return new HistogramSnapshot(
+				total, sum.get(), maximum,
+				percentile(buckets, total, maximum, 50), percentile(buckets, total, maximum, 90),
+				percentile(buckets, total, maximum, 99), percentile(buckets, total, maximum, 99.9)
+		);
+	}
+
+	/**
+	 * 清空统计
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * 百分位对应桶的上限值,不超过记录的最大值
+	 */
+	private static long percentile(long[] buckets, long total, long maximum, double percentile) {
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen   = 0;
+
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+
+			if (seen >= target) {
+				return Math.min(bucketUpperBound(i), maximum);
+			}
+		}
+
+		return maximum;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT << 1) {
+			return (int) value;
+		}
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+	}
+
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKET_COUNT << 1) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKET_COUNT - 1;
+
+		return (((long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT + 1)) << shift) - 1;
+	}
+
+}
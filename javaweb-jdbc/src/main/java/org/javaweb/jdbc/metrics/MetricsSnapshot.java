@@ -0,0 +1,102 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JdbcMetrics统计快照
+ *
+ * @author yz
+ */
+public class MetricsSnapshot {
+
+	/**
+	 * 开始统计的时间
+	 */
+	private final long startTime;
+
+	/**
+	 * 生成快照的时间
+	 */
+	private final long time;
+
+	/**
+	 * 按总执行时间倒序排列的语句统计
+	 */
+	private final List<StatementSnapshot> statements;
+
+	private final HistogramSnapshot connectionWait;
+
+	private final HistogramSnapshot mapping;
+
+	/**
+	 * 超时的语句总数
+	 */
+	private final long timeouts;
+
+	public MetricsSnapshot(long startTime, long time, List<StatementSnapshot> statements,
+	                       HistogramSnapshot connectionWait, HistogramSnapshot mapping, long timeouts) {
+
+		this.startTime = startTime;
+		this.time = time;
+		this.statements = Collections.unmodifiableList(statements);
+		this.connectionWait = connectionWait;
+		this.mapping = mapping;
+		this.timeouts = timeouts;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public List<StatementSnapshot> getStatements() {
+		return statements;
+	}
+
+	public HistogramSnapshot getConnectionWait() {
+		return connectionWait;
+	}
+
+	public HistogramSnapshot getMapping() {
+		return mapping;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("JdbcMetrics ").append(time - startTime).append("ms\n");
+		sb.append("connectionWait: ").append(connectionWait).append('\n');
+		sb.append("mapping: ").append(mapping).append('\n');
+		sb.append("timeouts: ").append(timeouts).append('\n');
+
+		for (StatementSnapshot statement : statements) {
+			sb.append(statement).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+}
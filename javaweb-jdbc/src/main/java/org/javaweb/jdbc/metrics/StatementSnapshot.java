@@ -0,0 +1,104 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.metrics;
+
+/**
+ * 一条归一化SQL语句的执行统计快照,耗时单位为微秒
+ *
+ * @author yz
+ */
+public class StatementSnapshot {
+
+	/**
+	 * 归一化SQL,字面量替换为?
+	 */
+	private final String sql;
+
+	/**
+	 * 执行耗时,查询语句不包括映射实体对象的时间
+	 */
+	private final HistogramSnapshot latency;
+
+	private final long errors;
+
+	/**
+	 * 查询返回或更新影响的总行数,流式查询不统计
+	 */
+	private final long rows;
+
+	private final long slowQueries;
+
+	/**
+	 * 超过截止时间被取消或驱动报告超时的次数
+	 */
+	private final long timeouts;
+
+	/**
+	 * 映射实体对象的总耗时
+	 */
+	private final long mappingMicros;
+
+	public StatementSnapshot(String sql, HistogramSnapshot latency, long errors, long rows,
+	                         long slowQueries, long timeouts, long mappingMicros) {
+
+		this.sql = sql;
+		this.latency = latency;
+		this.errors = errors;
+		this.rows = rows;
+		this.slowQueries = slowQueries;
+		this.timeouts = timeouts;
+		this.mappingMicros = mappingMicros;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public HistogramSnapshot getLatency() {
+		return latency;
+	}
+
+	public long getExecutions() {
+		return latency.getCount();
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getSlowQueries() {
+		return slowQueries;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public long getMappingMicros() {
+		return mappingMicros;
+	}
+
+	@Override
+	public String toString() {
+		return sql + " {" + latency + ", errors=" + errors + ", rows=" + rows + ", slow=" + slowQueries +
+				", timeouts=" + timeouts + ", mapping=" + mappingMicros + "us}";
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一条归一化SQL语句的执行统计
+ *
+ * @author yz
+ */
+class StatementStatistics {
+
+	private final String sql;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong rows = new AtomicLong();
+
+	private final AtomicLong slowQueries = new AtomicLong();
+
+	private final AtomicLong mappingNanos = new AtomicLong();
+
+	private final AtomicLong timeouts = new AtomicLong();
+
+	StatementStatistics(String sql) {
+		this.sql = sql;
+	}
+
+	void record(long nanos, long rowCount, boolean failed, boolean slow) {
+		latency.recordNanos(nanos);
+
+		if (rowCount > 0) {
+			rows.addAndGet(rowCount);
+		}
+
+		if (failed) {
+			errors.incrementAndGet();
+		}
+
+		if (slow) {
+			slowQueries.incrementAndGet();
+		}
+	}
+
+	void recordTimeout() {
+		timeouts.incrementAndGet();
+	}
+
+	void recordMapping(long nanos) {
+		mappingNanos.addAndGet(nanos);
+	}
+
+	StatementSnapshot snapshot() {
+		return new StatementSnapshot(
+				sql, latency.snapshot(), errors.get(), rows.get(), slowQueries.get(), timeouts.get(),
+				mappingNanos.get() / 1000
+		);
+	}
+
+}
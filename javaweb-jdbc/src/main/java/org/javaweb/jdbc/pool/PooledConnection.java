@@ -0,0 +1,332 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 连接池中的物理数据库连接,每次借出时创建一个新的Connection代理对象,
+ * 代理对象的close()方法会把物理连接归还给连接池而不是关闭,同时关闭借出期间创建且未关闭的Statement,
+ * 开启Statement缓存时prepareStatement优先使用缓存
+ *
+ * @author yz
+ */
+class PooledConnection {
+
+	private final PooledDataSource dataSource;
+
+	private final Connection connection;
+
+	private final long createTime;
+
+	/**
+	 * PreparedStatement缓存,未开启缓存时为null
+	 */
+	private final StatementCache statementCache;
+
+	/**
+	 * 最后一次归还连接池的时间
+	 */
+	private volatile long lastReturnTime;
+
+	/**
+	 * 借出时间
+	 */
+	private volatile long borrowTime;
+
+	/**
+	 * 借出时的调用栈,只在开启连接泄露检测时记录
+	 */
+	private volatile Throwable borrowStack;
+
+	private volatile boolean leakReported;
+
+	/**
+	 * 当前借出的代理对象,已归还时为null
+	 */
+	private volatile ProxyHandler currentHandler;
+
+	private boolean autoCommitChanged;
+
+	private boolean readOnlyChanged;
+
+	/**
+	 * 借出方第一次修改事务隔离级别前的隔离级别,未修改时为-1
+	 */
+	private int originalIsolation = -1;
+
+	/**
+	 * 借出方第一次修改catalog前的catalog
+	 */
+	private String originalCatalog;
+
+	private boolean catalogChanged;
+
+	PooledConnection(PooledDataSource dataSource, Connection connection, int statementCacheSize) {
+		this.dataSource = dataSource;
+		this.connection = connection;
+		this.statementCache = statementCacheSize > 0 ? new StatementCache(dataSource, statementCacheSize) : null;
+		this.createTime = System.currentTimeMillis();
+		this.lastReturnTime = createTime;
+	}
+
+	/**
+	 * 借出连接,返回新的Connection代理对象
+	 *
+	 * @param captureStack 是否记录借出调用栈
+	 * @return
+	 */
+	Connection borrow(boolean captureStack) {
+		this.borrowTime = System.currentTimeMillis();
+		this.borrowStack = captureStack ? new Throwable("数据库连接借出位置") : null;
+		this.leakReported = false;
+		this.currentHandler = new ProxyHandler(this);
+
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, currentHandler
+		);
+	}
+
+	/**
+	 * 恢复被调用方修改过的连接状态(自动提交、只读、事务隔离级别和catalog),未提交的事务会被回滚
+	 *
+	 * @throws SQLException
+	 */
+	void reset() throws SQLException {
+		if (autoCommitChanged) {
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+
+			autoCommitChanged = false;
+		}
+
+		if (readOnlyChanged) {
+			connection.setReadOnly(false);
+			readOnlyChanged = false;
+		}
+
+		if (originalIsolation != -1) {
+			connection.setTransactionIsolation(originalIsolation);
+			originalIsolation = -1;
+		}
+
+		if (catalogChanged) {
+			connection.setCatalog(originalCatalog);
+			originalCatalog = null;
+			catalogChanged = false;
+		}
+
+		connection.clearWarnings();
+	}
+
+	void closePhysical() {
+		if (statementCache != null) {
+			statementCache.close();
+		}
+
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	Connection getConnection() {
+		return connection;
+	}
+
+	long getCreateTime() {
+		return createTime;
+	}
+
+	long getLastReturnTime() {
+		return lastReturnTime;
+	}
+
+	long getBorrowTime() {
+		return borrowTime;
+	}
+
+	Throwable getBorrowStack() {
+		return borrowStack;
+	}
+
+	boolean isLeakReported() {
+		return leakReported;
+	}
+
+	void setLeakReported(boolean leakReported) {
+		this.leakReported = leakReported;
+	}
+
+	/**
+	 * 代理对象调用close()后归还物理连接
+	 *
+	 * @param handler 调用close()的代理
+	 */
+	private void release(ProxyHandler handler) {
+		if (currentHandler == handler) {
+			currentHandler = null;
+			borrowStack = null;
+			lastReturnTime = System.currentTimeMillis();
+			dataSource.returnConnection(this);
+		}
+	}
+
+	/**
+	 * Connection代理,close()后再调用其他方法会抛出SQLException
+	 */
+	private static class ProxyHandler implements InvocationHandler {
+
+		private final PooledConnection pooledConnection;
+
+		/**
+		 * 本次借出期间创建的Statement,归还连接时关闭未关闭的Statement,
+		 * 避免泄露的Statement在物理连接被其他线程借出后继续执行
+		 */
+		private final List<Statement> statements = new ArrayList<Statement>();
+
+		private volatile boolean closed;
+
+		ProxyHandler(PooledConnection pooledConnection) {
+			this.pooledConnection = pooledConnection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					closeStatements();
+					pooledConnection.release(this);
+				}
+
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed || pooledConnection.connection.isClosed();
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "PooledConnection[" + pooledConnection.connection + "]";
+			}
+
+			if (closed) {
+				throw new SQLException("Connection is closed.");
+			}
+
+			if ("setAutoCommit".equals(name)) {
+				pooledConnection.autoCommitChanged = true;
+			} else if ("setReadOnly".equals(name)) {
+				pooledConnection.readOnlyChanged = true;
+			} else if ("setTransactionIsolation".equals(name) && pooledConnection.originalIsolation == -1) {
+				pooledConnection.originalIsolation = pooledConnection.connection.getTransactionIsolation();
+			} else if ("setCatalog".equals(name) && !pooledConnection.catalogChanged) {
+				pooledConnection.originalCatalog = pooledConnection.connection.getCatalog();
+				pooledConnection.catalogChanged = true;
+			} else if ("prepareStatement".equals(name) && pooledConnection.statementCache != null) {
+				String key = StatementCache.getCacheKey(method, args);
+
+				if (key != null) {
+					return track(prepareCachedStatement((Connection) proxy, method, args, key));
+				}
+			}
+
+			Object result;
+
+			try {
+				result = method.invoke(pooledConnection.connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+
+			return result instanceof Statement ? track((Statement) result) : result;
+		}
+
+		/**
+		 * 记录借出期间创建的Statement,同时移除已关闭的Statement
+		 */
+		private Statement track(Statement statement) throws SQLException {
+			synchronized (statements) {
+				for (Iterator<Statement> it = statements.iterator(); it.hasNext(); ) {
+					if (it.next().isClosed()) {
+						it.remove();
+					}
+				}
+
+				statements.add(statement);
+			}
+
+			return statement;
+		}
+
+		/**
+		 * 关闭借出期间创建且未关闭的Statement,缓存的Statement放回缓存
+		 */
+		private void closeStatements() {
+			synchronized (statements) {
+				for (Statement statement : statements) {
+					try {
+						if (!statement.isClosed()) {
+							statement.close();
+						}
+					} catch (SQLException e) {
+						// 忽略关闭异常
+					}
+				}
+
+				statements.clear();
+			}
+		}
+
+		/**
+		 * 优先从缓存中获取PreparedStatement,未命中时由物理连接创建
+		 */
+		private PreparedStatement prepareCachedStatement(Connection proxy, Method method, Object[] args, String key)
+				throws Throwable {
+
+			StatementCache    cache     = pooledConnection.statementCache;
+			PreparedStatement statement = cache.take(key);
+
+			if (statement == null) {
+				try {
+					statement = (PreparedStatement) method.invoke(pooledConnection.connection, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
+			}
+
+			return cache.wrap(key, statement, proxy);
+		}
+
+	}
+
+}
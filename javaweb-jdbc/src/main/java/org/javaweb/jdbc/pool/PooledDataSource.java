@@ -0,0 +1,621 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.pool;
+
+import org.javaweb.jdbc.SqlConnection;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 轻量级数据库连接池,借出连接时通过Semaphore限制连接总数,空闲连接存放在无锁队列中。
+ * 支持借出时校验连接、空闲连接回收、连接泄露检测(记录借出时的调用栈)和按连接的PreparedStatement缓存
+ *
+ * @author yz
+ */
+public class PooledDataSource implements DataSource {
+
+	private static final Logger LOG = Logger.getLogger(PooledDataSource.class.getName());
+
+	private String driverClassName;
+
+	private String url;
+
+	private String username;
+
+	private String password;
+
+	/**
+	 * 最大连接数
+	 */
+	private int maxPoolSize = 10;
+
+	/**
+	 * 最小空闲连接数,空闲回收时保留
+	 */
+	private int minIdle = 0;
+
+	/**
+	 * 获取连接最大等待时间(毫秒)
+	 */
+	private long maxWaitMillis = 30000;
+
+	/**
+	 * 空闲连接超时时间(毫秒),超过后被回收
+	 */
+	private long idleTimeoutMillis = 600000;
+
+	/**
+	 * 空闲回收和泄露检测的执行间隔(毫秒),小于等于0时不启动后台线程,不回收空闲连接也不检测连接泄露
+	 */
+	private long evictionIntervalMillis = 30000;
+
+	/**
+	 * 借出时是否校验连接
+	 */
+	private boolean testOnBorrow = true;
+
+	/**
+	 * 连接归还后在该时间(毫秒)内再次借出时不做校验
+	 */
+	private long validationIntervalMillis = 500;
+
+	/**
+	 * 校验连接的SQL语句,为空时使用Connection.isValid
+	 */
+	private String validationQuery;
+
+	/**
+	 * 校验连接超时时间(秒)
+	 */
+	private int validationTimeout = 5;
+
+	/**
+	 * 连接泄露检测阈值(毫秒),连接借出超过该时间未归还时输出借出位置调用栈,小于等于0时关闭检测
+	 */
+	private long leakDetectionThresholdMillis = 0;
+
+	/**
+	 * 每个物理连接缓存的PreparedStatement数量,小于等于0时不缓存
+	 */
+	private int statementCacheSize = 32;
+
+	private PrintWriter logWriter;
+
+	private int loginTimeout;
+
+	private final ConcurrentLinkedQueue<PooledConnection> idleConnections =
+			new ConcurrentLinkedQueue<PooledConnection>();
+
+	private final Set<PooledConnection> borrowedConnections =
+			Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+
+	private final AtomicInteger totalConnections = new AtomicInteger();
+
+	private final AtomicLong statementCacheHits = new AtomicLong();
+
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+
+	private final AtomicLong statementCacheEvictions = new AtomicLong();
+
+	private volatile Semaphore permits;
+
+	private volatile ScheduledExecutorService housekeeper;
+
+	private volatile boolean closed;
+
+	public PooledDataSource() {
+	}
+
+	public PooledDataSource(String driverClassName, String url, String username, String password) {
+		this.driverClassName = driverClassName;
+		this.url = url;
+		this.username = username;
+		this.password = password;
+	}
+
+	/**
+	 * 初始化连接池,第一次获取连接时自动调用
+	 */
+	private synchronized void init() {
+		if (permits == null) {
+			if (maxPoolSize < 1) {
+				throw new IllegalArgumentException("maxPoolSize必须大于0.");
+			}
+
+			permits = new Semaphore(maxPoolSize);
+
+			if (evictionIntervalMillis <= 0) {
+				return;
+			}
+
+			housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "javaweb-jdbc-pool-housekeeper");
+					thread.setDaemon(true);
+
+					return thread;
+				}
+			});
+
+			housekeeper.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleConnections();
+					detectLeaks();
+				}
+			}, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("连接池已关闭.");
+		}
+
+		if (permits == null) {
+			init();
+		}
+
+		try {
+			if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+				throw new SQLException(
+						"获取数据库连接超时(" + maxWaitMillis + "ms),连接池已用尽:" + borrowedConnections.size() + "/" + maxPoolSize
+				);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("获取数据库连接被中断.");
+		}
+
+		try {
+			PooledConnection pooledConnection = takeConnection();
+			borrowedConnections.add(pooledConnection);
+
+			return pooledConnection.borrow(leakDetectionThresholdMillis > 0);
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * 从空闲队列中获取一个可用连接,没有空闲连接且未达到最大连接数时创建新连接
+	 *
+	 * @return
+	 * @throws SQLException
+	 */
+	private PooledConnection takeConnection() throws SQLException {
+		while (true) {
+			PooledConnection pooledConnection = idleConnections.poll();
+
+			if (pooledConnection != null) {
+				if (!testOnBorrow || isValid(pooledConnection)) {
+					return pooledConnection;
+				}
+
+				discard(pooledConnection);
+				continue;
+			}
+
+			int total = totalConnections.get();
+
+			if (total < maxPoolSize) {
+				if (totalConnections.compareAndSet(total, total + 1)) {
+					try {
+						return new PooledConnection(this, createConnection(), statementCacheSize);
+					} catch (SQLException e) {
+						totalConnections.decrementAndGet();
+						throw e;
+					} catch (RuntimeException e) {
+						totalConnections.decrementAndGet();
+						throw e;
+					}
+				}
+			} else {
+				// 已获取许可但连接数已满,说明有连接正在归还
+				Thread.yield();
+			}
+		}
+	}
+
+	private Connection createConnection() throws SQLException {
+		try {
+			return SqlConnection.getSqlConnection(driverClassName, url, username, password);
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("数据库驱动[" + driverClassName + "]不存在.");
+		}
+	}
+
+	/**
+	 * 校验连接是否可用,连接刚归还不久时跳过校验
+	 *
+	 * @param pooledConnection
+	 * @return
+	 */
+	private boolean isValid(PooledConnection pooledConnection) {
+		if (System.currentTimeMillis() - pooledConnection.getLastReturnTime() < validationIntervalMillis) {
+			return true;
+		}
+
+		Connection connection = pooledConnection.getConnection();
+
+		try {
+			if (validationQuery == null || validationQuery.length() == 0) {
+				return connection.isValid(validationTimeout);
+			}
+
+			Statement statement = connection.createStatement();
+
+			try {
+				statement.setQueryTimeout(validationTimeout);
+				statement.execute(validationQuery);
+
+				return true;
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			LOG.log(Level.WARNING, "数据库连接校验失败: " + e);
+
+			return false;
+		}
+	}
+
+	/**
+	 * 归还连接,连接池已关闭或恢复连接状态失败时关闭物理连接
+	 *
+	 * @param pooledConnection
+	 */
+	void returnConnection(PooledConnection pooledConnection) {
+		if (borrowedConnections.remove(pooledConnection)) {
+			try {
+				if (closed) {
+					discard(pooledConnection);
+				} else {
+					pooledConnection.reset();
+					idleConnections.offer(pooledConnection);
+				}
+			} catch (SQLException e) {
+				discard(pooledConnection);
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	private void discard(PooledConnection pooledConnection) {
+		totalConnections.decrementAndGet();
+		pooledConnection.closePhysical();
+	}
+
+	/**
+	 * 回收超过空闲超时时间的连接,保留minIdle个空闲连接
+	 */
+	private void evictIdleConnections() {
+		long now = System.currentTimeMillis();
+
+		for (Iterator<PooledConnection> it = idleConnections.iterator(); it.hasNext(); ) {
+			PooledConnection pooledConnection = it.next();
+
+			if (idleConnections.size() <= minIdle) {
+				break;
+			}
+
+			if (now - pooledConnection.getLastReturnTime() > idleTimeoutMillis && idleConnections.remove(pooledConnection)) {
+				discard(pooledConnection);
+			}
+		}
+	}
+
+	/**
+	 * 检测借出时间超过阈值未归还的连接,输出借出位置的调用栈
+	 */
+	private void detectLeaks() {
+		if (leakDetectionThresholdMillis <= 0) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		for (PooledConnection pooledConnection : borrowedConnections) {
+			Throwable stack = pooledConnection.getBorrowStack();
+
+			if (stack != null && !pooledConnection.isLeakReported() &&
+					now - pooledConnection.getBorrowTime() > leakDetectionThresholdMillis) {
+
+				pooledConnection.setLeakReported(true);
+				LOG.log(Level.WARNING, "检测到可能的数据库连接泄露,连接已借出" +
+						(now - pooledConnection.getBorrowTime()) + "ms未归还.", stack);
+			}
+		}
+	}
+
+	/**
+	 * 关闭连接池,关闭所有空闲连接,已借出的连接在归还时关闭
+	 */
+	public synchronized void close() {
+		closed = true;
+
+		if (housekeeper != null) {
+			housekeeper.shutdownNow();
+		}
+
+		PooledConnection pooledConnection;
+
+		while ((pooledConnection = idleConnections.poll()) != null) {
+			discard(pooledConnection);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * 获取当前借出的连接数
+	 *
+	 * @return
+	 */
+	public int getActiveConnections() {
+		return borrowedConnections.size();
+	}
+
+	/**
+	 * 获取当前空闲的连接数
+	 *
+	 * @return
+	 */
+	public int getIdleConnections() {
+		return idleConnections.size();
+	}
+
+	/**
+	 * 获取当前物理连接总数
+	 *
+	 * @return
+	 */
+	public int getTotalConnections() {
+		return totalConnections.get();
+	}
+
+	void statementCacheHit() {
+		statementCacheHits.incrementAndGet();
+	}
+
+	void statementCacheMissed() {
+		statementCacheMisses.incrementAndGet();
+	}
+
+	void statementCacheEvicted() {
+		statementCacheEvictions.incrementAndGet();
+	}
+
+	/**
+	 * 获取PreparedStatement缓存命中次数
+	 *
+	 * @return
+	 */
+	public long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+
+	/**
+	 * 获取PreparedStatement缓存未命中次数
+	 *
+	 * @return
+	 */
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+
+	/**
+	 * 获取PreparedStatement缓存因超过缓存数量被关闭的次数
+	 *
+	 * @return
+	 */
+	public long getStatementCacheEvictions() {
+		return statementCacheEvictions.get();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("连接池不支持指定用户名密码获取连接.");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		this.logWriter = out;
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		this.loginTimeout = seconds;
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return loginTimeout;
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return LOG;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return (T) this;
+		}
+
+		throw new SQLException(getClass().getName() + "不是" + iface.getName() + "的实现.");
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	public String getDriverClassName() {
+		return driverClassName;
+	}
+
+	public void setDriverClassName(String driverClassName) {
+		this.driverClassName = driverClassName;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public long getEvictionIntervalMillis() {
+		return evictionIntervalMillis;
+	}
+
+	public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+		this.evictionIntervalMillis = evictionIntervalMillis;
+	}
+
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	public long getValidationIntervalMillis() {
+		return validationIntervalMillis;
+	}
+
+	public void setValidationIntervalMillis(long validationIntervalMillis) {
+		this.validationIntervalMillis = validationIntervalMillis;
+	}
+
+	public String getValidationQuery() {
+		return validationQuery;
+	}
+
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public long getLeakDetectionThresholdMillis() {
+		return leakDetectionThresholdMillis;
+	}
+
+	public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+		this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单个物理连接的PreparedStatement LRU缓存,key为SQL语句和创建参数。
+ * 借出的Statement从缓存中移除,调用close()时清空参数后放回缓存,同一SQL同时被多次使用时多出的Statement会被关闭。
+ * 指定结果集类型的prepareStatement(流式查询游标)不缓存
+ *
+ * @author yz
+ */
+class StatementCache {
+
+	private final PooledDataSource dataSource;
+
+	private final Map<String, PreparedStatement> cache;
+
+	StatementCache(PooledDataSource dataSource, final int maxSize) {
+		this.dataSource = dataSource;
+		this.cache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > maxSize) {
+					StatementCache.this.dataSource.statementCacheEvicted();
+					closeQuietly(eldest.getValue());
+
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * 获取prepareStatement方法调用对应的缓存key,不支持缓存的方法返回null
+	 *
+	 * @param method prepareStatement方法
+	 * @param args   方法参数
+	 * @return
+	 */
+	static String getCacheKey(Method method, Object[] args) {
+		if (args == null || args.length == 0 || !(args[0] instanceof String)) {
+			return null;
+		}
+
+		Class<?>[] types = method.getParameterTypes();
+
+		if (types.length == 1) {
+			return (String) args[0];
+		} else if (types.length == 2 && types[1] == int.class) {
+			return args[0] + "\u0000" + args[1];
+		}
+
+		return null;
+	}
+
+	/**
+	 * 从缓存中取出Statement
+	 *
+	 * @param key 缓存key
+	 * @return 缓存的Statement, 未命中时返回null
+	 */
+	synchronized PreparedStatement take(String key) {
+		PreparedStatement statement = cache.remove(key);
+
+		if (statement != null) {
+			dataSource.statementCacheHit();
+		} else {
+			dataSource.statementCacheMissed();
+		}
+
+		return statement;
+	}
+
+	/**
+	 * 放回Statement,缓存中已存在相同key时关闭该Statement
+	 *
+	 * @param key       缓存key
+	 * @param statement
+	 */
+	synchronized void put(String key, PreparedStatement statement) {
+		if (cache.containsKey(key)) {
+			closeQuietly(statement);
+		} else {
+			cache.put(key, statement);
+		}
+	}
+
+	/**
+	 * 关闭所有缓存的Statement
+	 */
+	synchronized void close() {
+		for (PreparedStatement statement : cache.values()) {
+			closeQuietly(statement);
+		}
+
+		cache.clear();
+	}
+
+	synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * 创建缓存Statement的代理对象
+	 *
+	 * @param key        缓存key
+	 * @param statement  物理连接创建的PreparedStatement
+	 * @param connection 连接代理对象
+	 * @return
+	 */
+	PreparedStatement wrap(String key, PreparedStatement statement, Connection connection) {
+		return (PreparedStatement) Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+				new StatementHandler(this, key, statement, connection)
+		);
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			// 忽略关闭异常
+		}
+	}
+
+	/**
+	 * PreparedStatement代理,close()时清空参数放回缓存
+	 */
+	private static class StatementHandler implements InvocationHandler {
+
+		private final StatementCache statementCache;
+
+		private final String key;
+
+		private final PreparedStatement statement;
+
+		private final Connection connection;
+
+		private volatile boolean closed;
+
+		/**
+		 * 是否修改过fetchSize、maxRows或queryTimeout
+		 */
+		private boolean settingsChanged;
+
+		StatementHandler(StatementCache statementCache, String key, PreparedStatement statement, Connection connection) {
+			this.statementCache = statementCache;
+			this.key = key;
+			this.statement = statement;
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					release();
+				}
+
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed || statement.isClosed();
+			} else if ("getConnection".equals(name)) {
+				return connection;
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "CachedStatement[" + statement + "]";
+			}
+
+			if (closed) {
+				throw new SQLException("Statement is closed.");
+			}
+
+			if ("setFetchSize".equals(name) || "setMaxRows".equals(name) || "setQueryTimeout".equals(name)) {
+				settingsChanged = true;
+			}
+
+			try {
+				return method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+		private void release() {
+			try {
+				statement.clearParameters();
+				statement.clearBatch();
+				statement.clearWarnings();
+
+				if (settingsChanged) {
+					statement.setFetchSize(0);
+					statement.setMaxRows(0);
+					statement.setQueryTimeout(0);
+				}
+
+				statementCache.put(key, statement);
+			} catch (SQLException e) {
+				closeQuietly(statement);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.routing;
+
+/**
+ * 从库负载均衡方式
+ *
+ * @author yz
+ */
+public enum LoadBalanceStrategy {
+
+	/**
+	 * 按顺序轮流使用从库
+	 */
+	ROUND_ROBIN,
+
+	/**
+	 * 使用当前未归还连接数最少的从库
+	 */
+	LEAST_OUTSTANDING
+
+}
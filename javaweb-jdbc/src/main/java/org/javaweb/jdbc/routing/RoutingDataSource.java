@@ -0,0 +1,343 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.routing;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 读写分离数据源,getConnection()返回主库连接,getReadConnection()按负载均衡方式返回从库连接。
+ * 在pinPrimary()开启的范围内当前线程的读操作也使用主库,用于写入后需要立即读取最新数据的场景。
+ * 从库获取连接失败时依次尝试其他从库,全部失败时使用主库
+ *
+ * @author yz
+ */
+public class RoutingDataSource implements DataSource {
+
+	private static final Logger LOG = Logger.getLogger(RoutingDataSource.class.getName());
+
+	private final DataSource primary;
+
+	private final DataSource[] replicas;
+
+	private final LoadBalanceStrategy strategy;
+
+	/**
+	 * 每个从库当前未归还的连接数
+	 */
+	private final AtomicInteger[] outstanding;
+
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	/**
+	 * 从库最大复制延迟,单位毫秒。表发生写入后在这段时间内从从库读取的结果不放入JdbcTemplate查询缓存,
+	 * 避免把从库上还未同步的旧数据重新放入缓存
+	 */
+	private volatile long replicationLagMillis = 1000;
+
+	/**
+	 * 当前线程pinPrimary()嵌套层数
+	 */
+	private final ThreadLocal<int[]> pinDepth = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas) {
+		this(primary, replicas, LoadBalanceStrategy.ROUND_ROBIN);
+	}
+
+	/**
+	 * @param primary  主库
+	 * @param replicas 从库,为空时读操作也使用主库
+	 * @param strategy 从库负载均衡方式
+	 */
+	public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas, LoadBalanceStrategy strategy) {
+		if (primary == null) {
+			throw new IllegalArgumentException("主库数据源不能为空.");
+		}
+
+		this.primary = primary;
+		this.replicas = replicas != null ? replicas.toArray(new DataSource[replicas.size()]) : new DataSource[0];
+		this.strategy = strategy != null ? strategy : LoadBalanceStrategy.ROUND_ROBIN;
+		this.outstanding = new AtomicInteger[this.replicas.length];
+
+		for (int i = 0; i < outstanding.length; i++) {
+			outstanding[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * 获取主库连接
+	 *
+	 * @return
+	 * @throws SQLException
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return primary.getConnection();
+	}
+
+	/**
+	 * 获取读操作使用的连接,当前线程在pinPrimary()范围内或未配置从库时返回主库连接
+	 *
+	 * @return
+	 * @throws SQLException
+	 */
+	public Connection getReadConnection() throws SQLException {
+		if (replicas.length == 0 || isPinnedToPrimary()) {
+			return primary.getConnection();
+		}
+
+		int start = selectReplica();
+
+		for (int i = 0; i < replicas.length; i++) {
+			int index = (start + i) % replicas.length;
+
+			try {
+				return borrowReplica(index);
+			} catch (SQLException e) {
+				LOG.log(Level.WARNING, "从库[" + index + "]获取连接失败: " + e);
+			}
+		}
+
+		return primary.getConnection();
+	}
+
+	/**
+	 * 开启当前线程的主库读取范围,范围内的读操作使用主库,必须在finally中调用close()结束,支持嵌套
+	 *
+	 * @return
+	 */
+	public PrimaryScope pinPrimary() {
+		pinDepth.get()[0]++;
+
+		return new PrimaryScope(this);
+	}
+
+	/**
+	 * 当前线程是否在主库读取范围内
+	 *
+	 * @return
+	 */
+	public boolean isPinnedToPrimary() {
+		return pinDepth.get()[0] > 0;
+	}
+
+	private void unpin() {
+		int[] depth = pinDepth.get();
+
+		if (depth[0] > 0 && --depth[0] == 0) {
+			pinDepth.remove();
+		}
+	}
+
+	private int selectReplica() {
+		if (strategy == LoadBalanceStrategy.LEAST_OUTSTANDING) {
+			// 从轮询位置开始查找,未归还连接数相同时分散到不同从库
+			int offset = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+			int best   = offset;
+
+			for (int i = 1; i < replicas.length; i++) {
+				int index = (offset + i) % replicas.length;
+
+				if (outstanding[index].get() < outstanding[best].get()) {
+					best = index;
+				}
+			}
+
+			return best;
+		}
+
+		return (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+	}
+
+	/**
+	 * 获取从库连接,返回的代理对象关闭时减少从库未归还连接数
+	 */
+	private Connection borrowReplica(int index) throws SQLException {
+		final AtomicInteger counter    = outstanding[index];
+		Connection          connection = replicas[index].getConnection();
+
+		counter.incrementAndGet();
+
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+				new ReplicaConnectionHandler(connection, counter)
+		);
+	}
+
+	public DataSource getPrimary() {
+		return primary;
+	}
+
+	public List<DataSource> getReplicas() {
+		List<DataSource> ls = new ArrayList<DataSource>(replicas.length);
+
+		for (DataSource replica : replicas) {
+			ls.add(replica);
+		}
+
+		return ls;
+	}
+
+	public LoadBalanceStrategy getStrategy() {
+		return strategy;
+	}
+
+	public long getReplicationLagMillis() {
+		return replicationLagMillis;
+	}
+
+	public void setReplicationLagMillis(long replicationLagMillis) {
+		this.replicationLagMillis = replicationLagMillis;
+	}
+
+	/**
+	 * 获取从库当前未归还的连接数
+	 *
+	 * @param index 从库索引
+	 * @return
+	 */
+	public int getOutstandingConnections(int index) {
+		return outstanding[index].get();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return primary.getConnection(username, password);
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return primary.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		primary.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		primary.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return primary.getLoginTimeout();
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return LOG;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return (T) this;
+		}
+
+		throw new SQLException(getClass().getName() + "不是" + iface.getName() + "的实现.");
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	/**
+	 * 主库读取范围,close()后恢复从库读取
+	 */
+	public static class PrimaryScope implements Closeable {
+
+		private final RoutingDataSource dataSource;
+
+		private boolean closed;
+
+		PrimaryScope(RoutingDataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				dataSource.unpin();
+			}
+		}
+
+	}
+
+	/**
+	 * 从库连接代理,close()时减少未归还连接数
+	 */
+	private static class ReplicaConnectionHandler implements InvocationHandler {
+
+		private final Connection connection;
+
+		private final AtomicInteger counter;
+
+		private boolean closed;
+
+		ReplicaConnectionHandler(Connection connection, AtomicInteger counter) {
+			this.connection = connection;
+			this.counter = counter;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			if ("close".equals(name)) {
+				synchronized (this) {
+					if (!closed) {
+						closed = true;
+						counter.decrementAndGet();
+					}
+				}
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+
+			try {
+				return method.invoke(connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+	}
+
+}
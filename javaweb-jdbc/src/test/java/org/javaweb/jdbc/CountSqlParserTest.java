@@ -0,0 +1,94 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * count语句改写测试,每组数据为查询语句和期望的count语句
+ *
+ * @author yz
+ */
+public class CountSqlParserTest {
+
+	/**
+	 * 可以直接改写的查询语句,去掉查询字段和最外层ORDER BY
+	 */
+	private static final String[][] REWRITTEN = {
+			{"select * from t", "SELECT count(*) from t"},
+			{"select a, b from t where x = ? order by a desc", "SELECT count(*) from t where x = ?"},
+			{"SELECT a FROM t ORDER BY a;", "SELECT count(*) FROM t"},
+			{"select t.order, t.from from t", "SELECT count(*) from t"},
+			{
+					"select a from t where b in (select c from u order by c) order by a",
+					"SELECT count(*) from t where b in (select c from u order by c)"
+			},
+			{
+					"select a from t where s = 'order by' order by a",
+					"SELECT count(*) from t where s = 'order by'"
+			},
+			{
+					"select /*! STRAIGHT_JOIN */ a from t where x = 1 order by a",
+					"SELECT count(*) from t where x = 1"
+			},
+			{"select a from t -- comment\norder by a", "SELECT count(*) from t -- comment"},
+			{
+					"select a from t join (select b, count(*) c from u group by b) x on t.a = x.b",
+					"SELECT count(*) from t join (select b, count(*) c from u group by b) x on t.a = x.b"
+			}
+	};
+
+	/**
+	 * 最外层包含无法改写的关键字或查询字段,使用子查询包装
+	 */
+	private static final String[] WRAPPED = {
+			"select a from t order by a limit 10",
+			"select a, count(*) from t group by a",
+			"select max(a) from t",
+			"select (select max(b) from u) m from t",
+			"select distinct a from t",
+			"select a from t union select b from u",
+			"select a from t for update",
+			"select a from t order by field(a, ?)",
+			"select a from t /*!40001 order by a */",
+			"with x as (select a from t) select a from x"
+	};
+
+	@Test
+	public void rewrite() {
+		for (String[] test : REWRITTEN) {
+			assertEquals(test[0], test[1], CountSqlParser.parseCountSql(test[0]));
+		}
+	}
+
+	@Test
+	public void wrap() {
+		for (String sql : WRAPPED) {
+			assertEquals(sql, CountSqlParser.getWrappedCountSql(sql), CountSqlParser.parseCountSql(sql));
+		}
+	}
+
+	@Test
+	public void cache() {
+		String sql = "select a from t where x = ? order by a";
+
+		assertEquals(CountSqlParser.parseCountSql(sql), CountSqlParser.getCountSql(sql));
+		assertEquals(CountSqlParser.getCountSql(sql), Page.getResultCountSql(sql));
+	}
+
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.javaweb.jdbc.annotation.Column;
+import org.javaweb.jdbc.annotation.Table;
+import org.javaweb.jdbc.pool.PooledDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 键集分页SQL改写测试,每组数据为查询语句、排序字段和期望的下一页查询语句,
+ * 并使用SQLite文件验证键集分页和偏移量分页的结果一致
+ *
+ * @author yz
+ */
+public class PageTest {
+
+	/**
+	 * 排序字段条件直接追加到原查询中
+	 */
+	private static final String[][] INLINE = {
+			{"select * from t", "id", "select * from t WHERE (id > ?) ORDER BY id limit 11"},
+			{
+					"select * from t where a = ? order by x", "id",
+					"select * from t where (a = ? ) AND ((id > ?)) ORDER BY id limit 11"
+			},
+			{
+					"select * from t where a = ? or b = ?;", "a,id",
+					"select * from t where (a = ? or b = ? ) AND ((a > ?) OR (a = ? AND id > ?)) ORDER BY a, id limit 11"
+			},
+			{
+					"select * from t", "a,b,id",
+					"select * from t WHERE (a > ?) OR (a = ? AND b > ?) OR (a = ? AND b = ? AND id > ?) ORDER BY a, b, id limit 11"
+			},
+			{
+					"select * from t where a in (select b from u where c = 1 order by b)", "id",
+					"select * from t where (a in (select b from u where c = 1 order by b) ) AND ((id > ?)) ORDER BY id limit 11"
+			},
+			{
+					"select u.*, o.total from u join o on o.uid = u.id where u.balance > ?", "u.id",
+					"select u.*, o.total from u join o on o.uid = u.id where (u.balance > ? ) AND ((u.id > ?)) ORDER BY u.id limit 11"
+			},
+			{"select * from t -- c", "id", "select * from t -- c\nWHERE (id > ?)\nORDER BY id limit 11"}
+	};
+
+	/**
+	 * 无法直接改写的查询使用派生表包装,条件使用去掉表别名的字段名
+	 */
+	private static final String[][] WRAPPED = {
+			{"select * from t where a = ? order by x limit 5", "id"},
+			{"select a, count(*) c from t group by a", "a"},
+			{"select distinct a from t", "a"},
+			{"select a from t union select a from u", "a"},
+			{"select x as id from t", "id"},
+			{"select * from t order by field(id, ?)", "id"},
+			{"select * from t where a = 1 /*!50000 order by id */", "id"},
+			{"select u.id, count(*) c from u join o on o.uid = u.id group by u.id", "u.id"}
+	};
+
+	private File file;
+
+	private PooledDataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("javaweb-jdbc-page", ".db");
+		dataSource = new PooledDataSource(
+				"org.sqlite.JDBC", "jdbc:sqlite:" + file.getAbsolutePath() + "?busy_timeout=30000", null, null
+		);
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("create table item (id integer primary key, name varchar(20), amount integer)", new Object[0]);
+
+		// amount有重复值,按amount, id排序时需要第二个排序字段区分
+		for (int i = 1; i <= 23; i++) {
+			jdbcTemplate.update("insert into item (id, name, amount) values (?, ?, ?)", i, "name" + i, i % 4);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		dataSource.close();
+		file.delete();
+	}
+
+	@Test
+	public void inlineKeysetSql() {
+		for (String[] test : INLINE) {
+			String[] keyColumns = test[1].split(",");
+
+			assertEquals(test[0], test[2], Page.getKeysetPageSql(test[0], keyColumns, true, 10));
+		}
+
+		// 第一页没有排序字段条件
+		assertEquals(
+				"select * from t where a = ? ORDER BY a, id limit 11",
+				Page.getKeysetPageSql("select * from t where a = ? order by x", new String[]{"a", "id"}, false, 10)
+		);
+	}
+
+	@Test
+	public void wrappedKeysetSql() {
+		for (String[] test : WRAPPED) {
+			String label = Page.getKeyColumnLabel(test[1]);
+
+			assertEquals(
+					test[0],
+					"SELECT * FROM ( " + test[0] + " ) rs WHERE (" + label + " > ?) ORDER BY " + label + " limit 11",
+					Page.getKeysetPageSql(test[0], new String[]{test[1]}, true, 10)
+			);
+		}
+	}
+
+	@Test
+	public void invalidKeyColumn() {
+		String[][] keyColumns = {{}, {"id desc"}, {"id;drop table t"}, {"a.b.c"}, {"1id"}};
+
+		for (String[] columns : keyColumns) {
+			try {
+				Page.getKeysetPageSql("select * from t", columns, true, 10);
+				fail(Arrays.toString(columns));
+			} catch (IllegalArgumentException e) {
+				// 排序字段不合法
+			}
+		}
+	}
+
+	@Test
+	public void keysetParameters() {
+		Object[] args = {"x"};
+
+		assertArrayEquals(args, Page.getKeysetParameters(args, null));
+		assertArrayEquals(new Object[]{"x", 1, 1, 2}, Page.getKeysetParameters(args, new Object[]{1, 2}));
+		assertArrayEquals(
+				new Object[]{1, 1, 2, 1, 2, 3}, Page.getKeysetParameters(new Object[0], new Object[]{1, 2, 3})
+		);
+	}
+
+	@Test
+	public void keysetPagesMatchOffsetPages() throws Exception {
+		String     sql        = "select * from item where amount >= ? order by amount, id";
+		String[]   keyColumns = {"amount", "id"};
+		List<Long> offset     = new ArrayList<Long>();
+		List<Long> keyset     = new ArrayList<Long>();
+		int        pages      = 0;
+
+		for (int pageNum = 1; ; pageNum++) {
+			Page<Item> page = jdbcTemplate.queryForPage(sql, Item.class, pageNum, 5, 1);
+
+			if (page.getResult().isEmpty()) {
+				break;
+			}
+
+			offset.addAll(ids(page.getResult()));
+		}
+
+		Page<Item> page = jdbcTemplate.queryForKeysetPage(sql, Item.class, keyColumns, null, 5, 1);
+
+		while (true) {
+			pages++;
+			assertEquals(ids(page.getResult()), offset.subList(keyset.size(), keyset.size() + page.getResult().size()));
+			keyset.addAll(ids(page.getResult()));
+
+			if (!page.isHasNext()) {
+				break;
+			}
+
+			page = jdbcTemplate.nextKeysetPage(sql, Item.class, page, 1);
+		}
+
+		assertEquals(18, offset.size());
+		assertEquals(offset, keyset);
+		assertEquals(4, pages);
+		assertFalse(jdbcTemplate.nextKeysetPage(sql, Item.class, page, 1).isHasNext());
+		assertTrue(jdbcTemplate.nextKeysetPage(sql, Item.class, page, 1).getResult().isEmpty());
+	}
+
+	@Test
+	public void qualifiedKeyColumn() throws Exception {
+		String     sql  = "select i.* from item i join item p on p.id = i.id where i.amount = ?";
+		List<Long> ids  = new ArrayList<Long>();
+		Page<Item> page = jdbcTemplate.queryForKeysetPage(sql, Item.class, new String[]{"i.id"}, null, 2, 3);
+
+		while (true) {
+			ids.addAll(ids(page.getResult()));
+
+			if (!page.isHasNext()) {
+				break;
+			}
+
+			page = jdbcTemplate.nextKeysetPage(sql, Item.class, page, 3);
+		}
+
+		assertEquals(Arrays.asList(3L, 7L, 11L, 15L, 19L, 23L), ids);
+	}
+
+	private static List<Long> ids(List<Item> items) {
+		List<Long> ids = new ArrayList<Long>();
+
+		for (Item item : items) {
+			ids.add(item.getId());
+		}
+
+		return ids;
+	}
+
+	@Table(table = "item")
+	public static class Item {
+
+		@Column(id = true, name = "id")
+		private Long id;
+
+		@Column(name = "name")
+		private String name;
+
+		@Column(name = "amount")
+		private Integer amount;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Integer getAmount() {
+			return amount;
+		}
+
+		public void setAmount(Integer amount) {
+			this.amount = amount;
+		}
+
+	}
+
+}
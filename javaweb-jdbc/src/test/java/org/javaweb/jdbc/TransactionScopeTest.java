@@ -0,0 +1,289 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.javaweb.jdbc.pool.PooledDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用SQLite文件测试事务范围、保存点实现的嵌套事务和提交后回调
+ *
+ * @author yz
+ */
+public class TransactionScopeTest {
+
+	private File file;
+
+	private PooledDataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private final List<String> events = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("javaweb-jdbc-tx", ".db");
+		dataSource = new PooledDataSource(
+				"org.sqlite.JDBC", "jdbc:sqlite:" + file.getAbsolutePath() + "?busy_timeout=30000", null, null
+		);
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("create table t (id integer primary key)", new Object[0]);
+	}
+
+	@After
+	public void tearDown() {
+		dataSource.close();
+		file.delete();
+	}
+
+	@Test
+	public void commit() throws Exception {
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			insert(1);
+			insert(2);
+			assertSame(tx, TransactionScope.current());
+			assertEquals(1, dataSource.getActiveConnections());
+			tx.commit();
+		} finally {
+			tx.close();
+		}
+
+		assertNull(TransactionScope.current());
+		assertEquals(Arrays.asList(1, 2), ids());
+		assertEquals(0, dataSource.getActiveConnections());
+	}
+
+	@Test
+	public void closeWithoutCommitRollsBack() throws Exception {
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			insert(1);
+		} finally {
+			tx.close();
+		}
+
+		assertEquals(new ArrayList<Integer>(), ids());
+
+		// 归还的连接恢复自动提交
+		insert(2);
+		assertEquals(Arrays.asList(2), ids());
+	}
+
+	@Test
+	public void nestedRollbackKeepsOuterWork() throws Exception {
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			insert(1);
+			TransactionScope nested = TransactionScope.begin(dataSource);
+
+			try {
+				assertTrue(nested.isNested());
+				assertSame(tx.getConnection(), nested.getConnection());
+				insert(2);
+			} finally {
+				nested.close();
+			}
+
+			assertSame(tx, TransactionScope.current());
+			insert(3);
+			tx.commit();
+		} finally {
+			tx.close();
+		}
+
+		assertEquals(Arrays.asList(1, 3), ids());
+	}
+
+	@Test
+	public void nestedCommitRollsBackWithOuter() throws Exception {
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			insert(1);
+			TransactionScope nested = TransactionScope.begin(dataSource);
+
+			try {
+				insert(2);
+				nested.commit();
+			} finally {
+				nested.close();
+			}
+
+			tx.rollback();
+		} finally {
+			tx.close();
+		}
+
+		assertEquals(new ArrayList<Integer>(), ids());
+	}
+
+	@Test
+	public void afterCommitRunsWhenOutermostCommits() throws Exception {
+		TransactionScope.afterCommit(dataSource, event("none"));
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			TransactionScope.afterCommit(dataSource, event("outer"));
+			TransactionScope nested = TransactionScope.begin(dataSource);
+
+			try {
+				TransactionScope.afterCommit(dataSource, event("committed"));
+				nested.commit();
+			} finally {
+				nested.close();
+			}
+
+			nested = TransactionScope.begin(dataSource);
+
+			try {
+				TransactionScope.afterCommit(dataSource, event("rolled back"));
+			} finally {
+				nested.close();
+			}
+
+			// 嵌套事务提交后回调移交给外层事务,外层提交前不执行
+			assertEquals(Arrays.asList("none"), events);
+			tx.commit();
+		} finally {
+			tx.close();
+		}
+
+		assertEquals(Arrays.asList("none", "outer", "committed"), events);
+	}
+
+	@Test
+	public void afterCommitDroppedWhenOuterRollsBack() throws Exception {
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			TransactionScope nested = TransactionScope.begin(dataSource);
+
+			try {
+				TransactionScope.afterCommit(dataSource, event("nested"));
+				nested.commit();
+			} finally {
+				nested.close();
+			}
+		} finally {
+			tx.close();
+		}
+
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void scopedConnection() throws Exception {
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			Connection conn = TransactionScope.getConnection(dataSource);
+
+			assertSame(tx.getConnection(), conn);
+			assertTrue(TransactionScope.isScopedConnection(conn));
+			assertFalse(conn.getAutoCommit());
+
+			try {
+				conn.commit();
+				fail("事务范围内的连接不能直接提交");
+			} catch (SQLException e) {
+				// 由TransactionScope提交
+			}
+
+			try {
+				conn.setAutoCommit(true);
+				fail("事务范围内的连接不能修改提交方式");
+			} catch (SQLException e) {
+				// 由TransactionScope管理
+			}
+
+			// close()不释放事务连接
+			conn.close();
+			assertFalse(conn.isClosed());
+			insert(1);
+			tx.commit();
+		} finally {
+			tx.close();
+		}
+
+		assertNull(TransactionScope.getBoundConnection(dataSource));
+		assertEquals(Arrays.asList(1), ids());
+	}
+
+	@Test
+	public void closeOutOfOrder() throws Exception {
+		TransactionScope tx     = TransactionScope.begin(dataSource);
+		TransactionScope nested = TransactionScope.begin(dataSource);
+
+		try {
+			tx.close();
+			fail("外层事务不能在嵌套事务之前关闭");
+		} catch (SQLException e) {
+			// 按嵌套顺序关闭
+		} finally {
+			nested.close();
+			tx.close();
+		}
+
+		assertNull(TransactionScope.current());
+		assertEquals(0, dataSource.getActiveConnections());
+	}
+
+	private void insert(int id) throws SQLException {
+		jdbcTemplate.update("insert into t (id) values (?)", id);
+	}
+
+	private List<Integer> ids() throws SQLException {
+		List<Integer> ids  = new ArrayList<Integer>();
+		RowList       rows = jdbcTemplate.queryForRows("select id from t order by id");
+
+		for (int i = 0; i < rows.size(); i++) {
+			ids.add(((Number) rows.get(i, "id")).intValue());
+		}
+
+		return ids;
+	}
+
+	private Runnable event(final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				events.add(name);
+			}
+		};
+	}
+
+}
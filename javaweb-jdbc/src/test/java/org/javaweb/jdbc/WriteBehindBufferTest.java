@@ -0,0 +1,222 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc;
+
+import org.javaweb.jdbc.annotation.Column;
+import org.javaweb.jdbc.annotation.Table;
+import org.javaweb.jdbc.pool.PooledDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用SQLite文件测试延迟写入缓冲的合并、事务范围外刷新和刷新失败后重新放回缓冲,
+ * 通过重命名counter表模拟数据库不可用
+ *
+ * @author yz
+ */
+public class WriteBehindBufferTest {
+
+	private File file;
+
+	private PooledDataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private WriteBehindBuffer buffer;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("javaweb-jdbc-write-behind", ".db");
+		dataSource = new PooledDataSource(
+				"org.sqlite.JDBC", "jdbc:sqlite:" + file.getAbsolutePath() + "?busy_timeout=30000", null, null
+		);
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("create table counter (id integer primary key, hits integer)", new Object[0]);
+		jdbcTemplate.update("create table t (id integer primary key)", new Object[0]);
+
+		for (int i = 1; i <= 3; i++) {
+			jdbcTemplate.update("insert into counter (id, hits) values (?, 0)", i);
+		}
+
+		buffer = new WriteBehindBuffer(jdbcTemplate);
+		buffer.setMaxPending(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		buffer.close();
+		dataSource.close();
+		file.delete();
+	}
+
+	@Test
+	public void coalesce() throws Exception {
+		for (int i = 1; i <= 5; i++) {
+			buffer.update(new Counter(1, i));
+		}
+
+		buffer.update(new Counter(2, 7));
+
+		assertEquals(2, buffer.getPendingCount());
+		assertEquals(6, buffer.getSubmittedCount());
+		assertEquals(4, buffer.getCoalescedCount());
+		assertEquals(Arrays.asList(0, 0, 0), hits());
+
+		assertEquals(2, buffer.flush());
+		assertEquals(0, buffer.getPendingCount());
+		assertEquals(2, buffer.getWrittenCount());
+		assertEquals(Arrays.asList(5, 7, 0), hits());
+	}
+
+	@Test
+	public void fullBufferFlushesOutsideScope() throws Exception {
+		TransactionScope tx = TransactionScope.begin(dataSource);
+
+		try {
+			buffer.update(new Counter(1, 1));
+			buffer.update(new Counter(2, 2));
+
+			// 缓冲已满,在后台线程中使用其他连接刷新
+			buffer.update(new Counter(3, 3));
+			jdbcTemplate.update("insert into t (id) values (?)", 1);
+		} finally {
+			tx.close();
+		}
+
+		// 调用方事务回滚不影响已刷新的更新
+		assertEquals(0, jdbcTemplate.queryForInteger("select count(*) from t"));
+		assertEquals(Arrays.asList(1, 2, 0), hits());
+		assertEquals(1, buffer.getPendingCount());
+	}
+
+	@Test
+	public void failedFlushRequeuesAndRejectsNewKeys() throws Exception {
+		buffer.update(new Counter(1, 1));
+		buffer.update(new Counter(2, 2));
+		execute("alter table counter rename to counter_offline");
+
+		try {
+			buffer.update(new Counter(3, 3));
+			fail("缓冲已满且刷新失败时应该拒绝新的主键");
+		} catch (SQLException e) {
+			// 数据库不可用
+		}
+
+		assertEquals(2, buffer.getPendingCount());
+		assertEquals(1, buffer.getFailedFlushCount());
+
+		// 已缓冲的主键仍然合并
+		buffer.update(new Counter(1, 10));
+		assertEquals(2, buffer.getPendingCount());
+
+		try {
+			buffer.flush();
+			fail("数据库不可用时刷新应该失败");
+		} catch (SQLException e) {
+			// 失败的更新放回缓冲
+		}
+
+		assertEquals(2, buffer.getPendingCount());
+		execute("alter table counter_offline rename to counter");
+
+		// 恢复后同步刷新再记录新的主键
+		buffer.update(new Counter(3, 3));
+		assertEquals(1, buffer.getPendingCount());
+		assertEquals(Arrays.asList(10, 2, 0), hits());
+
+		buffer.flush();
+		assertEquals(0, buffer.getPendingCount());
+		assertEquals(Arrays.asList(10, 2, 3), hits());
+	}
+
+	private void execute(String sql) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+
+		try {
+			Statement stmt = conn.createStatement();
+
+			try {
+				stmt.execute(sql);
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	private List<Integer> hits() throws SQLException {
+		List<Integer> hits = new ArrayList<Integer>();
+		RowList       rows = jdbcTemplate.queryForRows("select hits from counter order by id");
+
+		for (int i = 0; i < rows.size(); i++) {
+			hits.add(((Number) rows.get(i, "hits")).intValue());
+		}
+
+		return hits;
+	}
+
+	@Table(table = "counter")
+	public static class Counter {
+
+		@Column(id = true, name = "id")
+		private Long id;
+
+		@Column(name = "hits")
+		private Integer hits;
+
+		public Counter() {
+
+		}
+
+		public Counter(long id, int hits) {
+			this.id = id;
+			this.hits = hits;
+		}
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public Integer getHits() {
+			return hits;
+		}
+
+		public void setHits(Integer hits) {
+			this.hits = hits;
+		}
+
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.bulk;
+
+import org.javaweb.jdbc.JdbcTemplate;
+import org.javaweb.jdbc.annotation.Column;
+import org.javaweb.jdbc.annotation.Table;
+import org.javaweb.jdbc.pool.PooledDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用SQLite文件测试批量导入,item表按实体类Item导入CSV数据
+ *
+ * @author yz
+ */
+public class BulkLoaderTest {
+
+	private File file;
+
+	private PooledDataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("javaweb-jdbc-bulk", ".db");
+		dataSource = new PooledDataSource(
+				"org.sqlite.JDBC", "jdbc:sqlite:" + file.getAbsolutePath() + "?busy_timeout=30000", null, null
+		);
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.update("create table item (id integer primary key, name varchar(20), amount integer)", new Object[0]);
+	}
+
+	@After
+	public void tearDown() {
+		dataSource.close();
+		file.delete();
+	}
+
+	@Test
+	public void loadCsv() throws Exception {
+		BulkLoader loader = newLoader();
+		BulkLoadStats stats = loader.loadCsv(new StringReader(csv(1000, -1)));
+
+		assertEquals(1000, stats.getRowsRead());
+		assertEquals(1000, stats.getRowsWritten());
+		assertEquals(1000, jdbcTemplate.queryForInteger("select count(*) from item"));
+		assertEquals(0, dataSource.getActiveConnections());
+	}
+
+	@Test
+	public void badRowRollsBackUncommittedRows() throws Exception {
+		BulkLoader loader = newLoader();
+
+		try {
+			loader.loadCsv(new StringReader(csv(1000, 500)));
+			fail("导入格式错误的CSV数据应该失败");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("bad"));
+		}
+
+		assertEquals(0, jdbcTemplate.queryForInteger("select count(*) from item"));
+		assertEquals(0, dataSource.getActiveConnections());
+	}
+
+	@Test
+	public void unclosedQuoteRollsBackUncommittedRows() throws Exception {
+		BulkLoader loader = newLoader();
+
+		try {
+			loader.loadCsv(new StringReader(csv(1000, -1) + "1001,\"unclosed,1\n"));
+			fail("引号未闭合的CSV数据应该失败");
+		} catch (IOException e) {
+			// 引号未闭合
+		}
+
+		assertEquals(0, jdbcTemplate.queryForInteger("select count(*) from item"));
+	}
+
+	/**
+	 * 提交行数大于数据行数,失败时不应提交任何数据
+	 */
+	private BulkLoader newLoader() {
+		BulkLoader loader = new BulkLoader(dataSource, Item.class);
+		loader.setThreads(2);
+		loader.setBatchSize(10);
+		loader.setCommitSize(100000);
+		loader.setQueueCapacity(2);
+
+		return loader;
+	}
+
+	/**
+	 * 生成CSV数据,badRow行的amount字段不是数字
+	 */
+	private static String csv(int rows, int badRow) {
+		StringBuilder sb = new StringBuilder("id,name,amount\n");
+
+		for (int i = 1; i <= rows; i++) {
+			sb.append(i).append(",name").append(i).append(',').append(i == badRow ? "bad" : String.valueOf(i)).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+	@Table(table = "item")
+	public static class Item {
+
+		@Column(id = true, name = "id")
+		private Long id;
+
+		@Column(name = "name")
+		private String name;
+
+		@Column(name = "amount")
+		private Integer amount;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Integer getAmount() {
+			return amount;
+		}
+
+		public void setAmount(Integer amount) {
+			this.amount = amount;
+		}
+
+	}
+
+}
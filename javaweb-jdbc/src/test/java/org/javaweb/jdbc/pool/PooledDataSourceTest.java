@@ -0,0 +1,214 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.pool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用SQLite文件测试连接池
+ *
+ * @author yz
+ */
+public class PooledDataSourceTest {
+
+	private File file;
+
+	private PooledDataSource dataSource;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("javaweb-jdbc-pool", ".db");
+		String url = "jdbc:sqlite:" + file.getAbsolutePath() + "?busy_timeout=30000";
+		dataSource = new PooledDataSource("org.sqlite.JDBC", url, null, null);
+
+		// 不通过连接池建表,测试方法可以在连接池初始化前修改配置
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection(url);
+
+		try {
+			Statement statement = connection.createStatement();
+			statement.executeUpdate("create table t (id integer primary key, name varchar(20))");
+			statement.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		dataSource.close();
+		file.delete();
+	}
+
+	@Test
+	public void statementsAreClosedWhenConnectionIsReturned() throws Exception {
+		Connection        connection = dataSource.getConnection();
+		PreparedStatement cached     = connection.prepareStatement("insert into t (name) values (?)");
+		Statement         plain      = connection.createStatement();
+		connection.close();
+
+		assertTrue(cached.isClosed());
+		assertTrue(plain.isClosed());
+
+		// 物理连接已被其他借出方使用,泄露的Statement不能再执行
+		Connection next = dataSource.getConnection();
+
+		try {
+			next.setAutoCommit(false);
+
+			try {
+				cached.setString(1, "leaked");
+				cached.executeUpdate();
+				fail("连接归还后Statement应该已关闭");
+			} catch (SQLException e) {
+				// Statement已关闭
+			}
+
+			next.rollback();
+		} finally {
+			next.close();
+		}
+
+		assertEquals(0, count());
+	}
+
+	@Test
+	public void cachedStatementIsReusedAfterConnectionClose() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			Connection connection = dataSource.getConnection();
+
+			try {
+				PreparedStatement statement = connection.prepareStatement("insert into t (name) values (?)");
+				statement.setString(1, "name" + i);
+				statement.executeUpdate();
+				// 不关闭Statement,归还连接时放回缓存
+			} finally {
+				connection.close();
+			}
+		}
+
+		assertEquals(3, count());
+		assertEquals(2, dataSource.getStatementCacheHits());
+	}
+
+	@Test
+	public void uncommittedWorkIsRolledBackOnReturn() throws Exception {
+		Connection connection = dataSource.getConnection();
+
+		try {
+			connection.setAutoCommit(false);
+			Statement statement = connection.createStatement();
+			statement.executeUpdate("insert into t (name) values ('uncommitted')");
+		} finally {
+			connection.close();
+		}
+
+		Connection next = dataSource.getConnection();
+
+		try {
+			assertTrue(next.getAutoCommit());
+		} finally {
+			next.close();
+		}
+
+		assertEquals(0, count());
+		assertEquals(1, dataSource.getTotalConnections());
+	}
+
+	@Test
+	public void exhaustedPoolTimesOut() throws Exception {
+		dataSource.setMaxPoolSize(1);
+		dataSource.setMaxWaitMillis(100);
+
+		Connection connection = dataSource.getConnection();
+
+		try {
+			dataSource.getConnection();
+			fail("连接池已用尽时获取连接应该超时");
+		} catch (SQLException e) {
+			assertEquals(1, dataSource.getActiveConnections());
+		} finally {
+			connection.close();
+		}
+
+		assertEquals(0, dataSource.getActiveConnections());
+		dataSource.getConnection().close();
+	}
+
+	@Test
+	public void idleConnectionsAreEvicted() throws Exception {
+		dataSource.setEvictionIntervalMillis(20);
+		dataSource.setIdleTimeoutMillis(1);
+
+		Connection first  = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		first.close();
+		second.close();
+
+		assertEquals(2, dataSource.getIdleConnections());
+
+		for (int i = 0; i < 100 && dataSource.getTotalConnections() > 0; i++) {
+			Thread.sleep(20);
+		}
+
+		assertEquals(0, dataSource.getTotalConnections());
+	}
+
+	@Test
+	public void nonPositiveEvictionIntervalDisablesHousekeeper() throws Exception {
+		dataSource.setEvictionIntervalMillis(0);
+		dataSource.setIdleTimeoutMillis(1);
+
+		dataSource.getConnection().close();
+		Thread.sleep(50);
+
+		assertEquals(1, dataSource.getIdleConnections());
+	}
+
+	private int count() throws SQLException {
+		Connection connection = dataSource.getConnection();
+
+		try {
+			Statement statement = connection.createStatement();
+
+			try {
+				ResultSet rs = statement.executeQuery("select count(*) from t");
+				rs.next();
+
+				return rs.getInt(1);
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright yz 2016-01-14  Email:admin@javaweb.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.javaweb.jdbc.routing;
+
+import org.javaweb.jdbc.JdbcTemplate;
+import org.javaweb.jdbc.QueryCache;
+import org.javaweb.jdbc.pool.PooledDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用三个SQLite文件分别作为主库和两个从库测试读写分离路由,每个库的node表保存库名
+ *
+ * @author yz
+ */
+public class RoutingDataSourceTest {
+
+	private final List<File> files = new ArrayList<File>();
+
+	private final List<PooledDataSource> dataSources = new ArrayList<PooledDataSource>();
+
+	private PooledDataSource primary;
+
+	private List<PooledDataSource> replicas;
+
+	@Before
+	public void setUp() throws Exception {
+		primary = createDatabase("primary");
+		replicas = Arrays.asList(createDatabase("replica0"), createDatabase("replica1"));
+	}
+
+	@After
+	public void tearDown() {
+		for (PooledDataSource dataSource : dataSources) {
+			dataSource.close();
+		}
+
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void roundRobin() throws Exception {
+		RoutingDataSource routing = new RoutingDataSource(primary, replicas, LoadBalanceStrategy.ROUND_ROBIN);
+		List<String>      names   = new ArrayList<String>();
+
+		for (int i = 0; i < 4; i++) {
+			names.add(readNode(routing));
+		}
+
+		assertEquals(new HashSet<String>(Arrays.asList("replica0", "replica1")), new HashSet<String>(names));
+
+		for (int i = 1; i < names.size(); i++) {
+			assertNotEquals(names.get(i - 1), names.get(i));
+		}
+
+		assertEquals("primary", queryNode(routing.getConnection()));
+	}
+
+	@Test
+	public void leastOutstanding() throws Exception {
+		RoutingDataSource routing = new RoutingDataSource(primary, replicas, LoadBalanceStrategy.LEAST_OUTSTANDING);
+		Connection        first   = routing.getReadConnection();
+		String            busy    = queryNode(first);
+
+		try {
+			// 未归还连接的从库不会被选中
+			for (int i = 0; i < 3; i++) {
+				assertNotEquals(busy, readNode(routing));
+			}
+
+			int index = "replica0".equals(busy) ? 0 : 1;
+			assertEquals(1, routing.getOutstandingConnections(index));
+			assertEquals(0, routing.getOutstandingConnections(1 - index));
+		} finally {
+			first.close();
+		}
+
+		assertEquals(0, routing.getOutstandingConnections(0));
+		assertEquals(0, routing.getOutstandingConnections(1));
+	}
+
+	@Test
+	public void pinPrimary() throws Exception {
+		RoutingDataSource routing = new RoutingDataSource(primary, replicas);
+		RoutingDataSource.PrimaryScope scope = routing.pinPrimary();
+
+		try {
+			assertTrue(routing.isPinnedToPrimary());
+			assertEquals("primary", readNode(routing));
+
+			RoutingDataSource.PrimaryScope nested = routing.pinPrimary();
+			nested.close();
+
+			assertEquals("primary", readNode(routing));
+		} finally {
+			scope.close();
+		}
+
+		assertFalse(routing.isPinnedToPrimary());
+		assertTrue(readNode(routing).startsWith("replica"));
+	}
+
+	@Test
+	public void pinPrimaryBypassesQueryCache() throws Exception {
+		RoutingDataSource routing      = new RoutingDataSource(primary, replicas);
+		JdbcTemplate      jdbcTemplate = new JdbcTemplate(routing);
+		jdbcTemplate.setQueryCache(new QueryCache(16, 60 * 1000));
+
+		String replica = jdbcTemplate.queryForList("select name from node", Node.class).get(0).getName();
+		assertTrue(replica.startsWith("replica"));
+
+		// 缓存命中时仍返回从库结果
+		assertEquals(replica, jdbcTemplate.queryForList("select name from node", Node.class).get(0).getName());
+
+		RoutingDataSource.PrimaryScope scope = routing.pinPrimary();
+
+		try {
+			assertEquals("primary", jdbcTemplate.queryForList("select name from node", Node.class).get(0).getName());
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Test
+	public void replicaReadsAfterWriteAreNotCached() throws Exception {
+		RoutingDataSource routing      = new RoutingDataSource(primary, replicas);
+		JdbcTemplate      jdbcTemplate = new JdbcTemplate(routing);
+		QueryCache        cache        = new QueryCache(16, 60 * 1000);
+		jdbcTemplate.setQueryCache(cache);
+		routing.setReplicationLagMillis(60 * 1000);
+
+		jdbcTemplate.update("update node set name = ?", "primary");
+		jdbcTemplate.queryForList("select name from node", Node.class);
+
+		assertEquals(0, cache.size());
+
+		routing.setReplicationLagMillis(0);
+		jdbcTemplate.queryForList("select name from node", Node.class);
+
+		assertEquals(1, cache.size());
+	}
+
+	private String readNode(RoutingDataSource routing) throws SQLException {
+		Connection connection = routing.getReadConnection();
+
+		try {
+			return queryNode(connection);
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static String queryNode(Connection connection) throws SQLException {
+		Statement statement = connection.createStatement();
+
+		try {
+			ResultSet rs = statement.executeQuery("select name from node");
+			rs.next();
+
+			return rs.getString(1);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private PooledDataSource createDatabase(String name) throws IOException, SQLException {
+		File file = File.createTempFile("javaweb-jdbc-" + name, ".db");
+		files.add(file);
+
+		PooledDataSource dataSource = new PooledDataSource(
+				"org.sqlite.JDBC", "jdbc:sqlite:" + file.getAbsolutePath(), null, null
+		);
+
+		dataSources.add(dataSource);
+
+		Connection connection = dataSource.getConnection();
+
+		try {
+			Statement statement = connection.createStatement();
+			statement.executeUpdate("create table node (name varchar(20))");
+			statement.executeUpdate("insert into node (name) values ('" + name + "')");
+			statement.close();
+		} finally {
+			connection.close();
+		}
+
+		return dataSource;
+	}
+
+	public static class Node {
+
+		private String name;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+	}
+
+}